@@ -1,8 +1,23 @@
 import java.io.File;
+import java.util.Arrays;
 
 import compressor.CompressIt;
+import compressor.PgrdExpander;
 
 import converter.Convert;
+import converter.PgrdUpdater;
+
+import tools.FormationLocator;
+import tools.FormationStatistics;
+import tools.PgrdClipper;
+import tools.PgrdDiff;
+import tools.PgrdMerger;
+import tools.PgrdResampler;
+import tools.PointAnnotator;
+import tools.ShardMerger;
+
+import utils.BuildCheckpoint;
+import utils.ShardRange;
 
 /**
  * Contains the main function that performs the full conversion from shapefile to a minified pgrd file
@@ -24,9 +39,24 @@ public class Shp2pgrd {
  */
 	public Shp2pgrd( String parent_shp, String pgrd_name, String error_file, String lat_interval, String lon_interval ) {
 		
-		String [] initial_convert = new String[]{ parent_shp, pgrd_name, error_file, lat_interval, "false" };
+		this( parent_shp, pgrd_name, error_file, lat_interval, lon_interval, new String[ 0 ] );
+	}
+	
+/**
+ * Constructor performs file conversion with build options
+ * 
+ * @param parent_shp The path and shapefile name from which conversion will start (NOTE: Do NOT add .shp extension in file name)
+ * @param pgrd_name The name of the file to be constructed
+ * @param error_file The path, name, and extension of the error log file produced in conjunction with conversion
+ * @param lat_interval The interval between neighboring lines of equal latitude ( in units of degrees latitude )
+ * @param lon_interval The interval between neighboring points in degrees longitude
+ * @param options Build options passed on to the conversion and compression steps (eg. --index)
+ */
+	public Shp2pgrd( String parent_shp, String pgrd_name, String error_file, String lat_interval, String lon_interval, String [] options ) {
+		
+		String [] initial_convert = withOptions( new String[]{ parent_shp, pgrd_name, error_file, lat_interval, lon_interval }, options );
 		
-		String [] final_compress = new String[] { pgrd_name+".pgrd", pgrd_name, lon_interval, "true"};
+		String [] final_compress = withOptions( new String[] { pgrd_name+".pgrd", pgrd_name, lon_interval, "true"}, options );
 		
 		System.out.println("-----------------------------------------------------");
 	//File conversion
@@ -42,30 +72,154 @@ public class Shp2pgrd {
 			file.deleteOnExit();
 		}
 		
+		new File( pgrd_name+".pgrd"+BuildCheckpoint.EXTENSION ).deleteOnExit();
+		
+		new File( pgrd_name+".pgrd"+ShardRange.EXTENSION ).deleteOnExit();
+		
 		System.out.println( '\r'+" File conversion completed successfully!");
 		System.out.println("-----------------------------------------------------");
 		
 	}
 	
 /**
- * The main function which performs the file conversion
+ * The main function which performs the file conversion, or runs one of the named commands on an existing
+ * minified pgrd file when the first argument is a command name
  * @param args Contains all necessary information to convert from a shapefile to a minified pgrd file.
  * 				args[0] : parent shapefile path and name without .shp extension
  * 				args[1] : path and name of the pgrd to be built
  * 				args[2] : error log file path, name and extension
  * 				args[3] : latitude interval between neighboring lines ( in degrees latitude )
  * 				args[4] : longitude interval between neighboring lines ( in degrees longitude )
+ * 				args[5...] : (optional) build options, each used by the step it belongs to:
+ * 					conversion ( see {@link Convert#main(String[])} ):
+ * 					--resume : continue an interrupted build from its last checkpoint (also used by the compression)
+ * 					--edge-table : read the records from the edge table of the shapefile ( *.edges ), building it if needed
+ * 					--band-lines n : build the lines in bands of n lines, loading only the records crossing each band
+ * 					--incremental : carry the crossings of every record from one line to the next
+ * 					--simplify f : simplify the records with a tolerance of f times the latitude interval
+ * 					--fixed-point : compute the crossings in integer arithmetic from the points quantized to the grid
+ * 					--shard first end : only rasterize the lines first to end - 1, to be joined with merge-shards
+ * 					compression ( see {@link CompressIt#main(String[])} ):
+ * 					--index : also write the inverted formation index sidecar ( *.min.pgrd.fidx )
+ * 					--levels n : also write n - 1 coarser levels ( name.2x.min.pgrd, name.4x.min.pgrd, ... )
+ * 					--no-data-runs : write short gaps between segments as no-data runs instead of new parts
+ * 					--attribute-runs dbfFile field : coalesce neighboring runs of records with the same value of a field
+ * 					--attribute-grid dbfFile field : write a grid of the values of a field instead of formation indices
+ * 					--equal-area : space the points of every line by the same ground distance
+ * 			or a command name followed by the arguments of the command:
+ * 				stats : see {@link FormationStatistics#main(String[])}
+ * 				locate : see {@link FormationLocator#main(String[])}
+ * 				annotate : see {@link PointAnnotator#main(String[])}
+ * 				decompress : see {@link PgrdExpander#main(String[])}
+ * 				merge : see {@link PgrdMerger#main(String[])}
+ * 				resample : see {@link PgrdResampler#main(String[])}
+ * 				clip : see {@link PgrdClipper#main(String[])}
+ * 				diff : see {@link PgrdDiff#main(String[])}
+ * 				update : see {@link PgrdUpdater#main(String[])}
+ * 				merge-shards : see {@link ShardMerger#main(String[])}
  */
 	public static void main( String [] args ) {
 		
-		if( args.length == 5 ) {
+		switch( args.length > 0 ? args[0] : "" ) {
+		
+			case "stats": 
+				
+				FormationStatistics.main( commandArgs( args ) );
+				
+				break;
+				
+			case "locate":
+				
+				FormationLocator.main( commandArgs( args ) );
+				
+				break;
+				
+			case "annotate":
+				
+				PointAnnotator.main( commandArgs( args ) );
+				
+				break;
+				
+			case "decompress":
+				
+				PgrdExpander.main( commandArgs( args ) );
+				
+				break;
+				
+			case "merge":
+				
+				PgrdMerger.main( commandArgs( args ) );
+				
+				break;
+				
+			case "resample":
+				
+				PgrdResampler.main( commandArgs( args ) );
+				
+				break;
 			
-			new Shp2pgrd( args[0], args[1], args[2], args[3], args[4] );
-		}
-		else {
-			System.out.println("Invalid number of arguments!");
+			case "clip":
+				
+				PgrdClipper.main( commandArgs( args ) );
+				
+				break;
+			
+			case "diff":
+				
+				PgrdDiff.main( commandArgs( args ) );
+				
+				break;
+			
+			case "update":
+				
+				PgrdUpdater.main( commandArgs( args ) );
+				
+				break;
+			
+			case "merge-shards":
+				
+				ShardMerger.main( commandArgs( args ) );
+				
+				break;
+			
+			default:
+				
+				if( args.length >= 5 ) {
+					
+					new Shp2pgrd( args[0], args[1], args[2], args[3], args[4], Arrays.copyOfRange( args, 5, args.length ) );
+				}
+				else {
+					System.out.println("Invalid number of arguments!");
+				}
 		}
 		
 	}
 	
+/**
+ * Strips the command name from the arguments passed to main
+ * 
+ * @param args The arguments passed to main
+ * @return The arguments following the command name
+ */
+	private static String [] commandArgs( String [] args ) {
+		
+		return Arrays.copyOfRange( args, 1, args.length );
+	}
+	
+/**
+ * Appends build options to the arguments of a conversion step
+ * 
+ * @param args The arguments of the conversion step
+ * @param options The build options
+ * @return The combined arguments
+ */
+	private static String [] withOptions( String [] args, String [] options ) {
+		
+		String [] all = Arrays.copyOf( args, args.length + options.length );
+		
+		System.arraycopy( options, 0, all, args.length, options.length );
+		
+		return all;
+	}
+	
 }
\ No newline at end of file
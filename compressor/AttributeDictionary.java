@@ -0,0 +1,206 @@
+package compressor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import utils.DbfFile;
+import utils.RecordOutOfBoundsException;
+
+/**
+ *
+ * A class to model the dictionary of a grid of attribute values: the formation index of every run is the index of a
+ * value of a .dbf field in the dictionary, so a lookup gives the value without the .dbf file. The dictionary is
+ * written as a trailer after the last line of the .min.pgrd file, which is flagged with
+ * {@link MinPgrdFile#ATTRIBUTE_DICTIONARY}. All values are big endian:
+ *
+ * 	Byte T : int, number of values
+ * 	Byte T + 4 : short length, UTF-8 bytes of the field name
+ * 	Then for every value : short length, UTF-8 bytes of the value
+ * 	Last 4 bytes of the file : int T, the offset of the trailer
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class AttributeDictionary {
+
+/**
+ *
+ * The greatest number of values, that of the formation indices of the widest formation identifier
+ *
+ */
+
+	public static final int MAXIMUM_VALUES = MinPgrdLine.largestIndex( MinPgrdLine.MAXIMUM_IDENTIFIER_LENGTH );
+
+/**
+ *
+ * The name of the field
+ *
+ */
+
+	public final String NAME;
+
+/**
+ *
+ * The values, in the order of their first record
+ *
+ */
+
+	public final String [] VALUES;
+
+/**
+ *
+ * Constructor
+ *
+ * @param name The name of the field
+ * @param values The values
+ *
+ */
+
+	public AttributeDictionary( String name, String [] values ) {
+
+		NAME = name;
+
+		VALUES = values;
+	}
+
+/**
+ *
+ * Builds the dictionary of a .dbf field, numbering the values in the order of their first record
+ *
+ * @param dbf The attribute table
+ * @param fieldIndex The index of the field
+ * @param valueIndices An array receiving the index of the value of every record
+ * @return The dictionary
+ * @throws IOException if the field has more than {@link #MAXIMUM_VALUES} values
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public static AttributeDictionary fromDbf( DbfFile dbf, int fieldIndex, int [] valueIndices ) throws IOException, RecordOutOfBoundsException {
+
+		HashMap<String, Integer> indices = new HashMap<String, Integer>();
+
+		ArrayList<String> values = new ArrayList<String>();
+
+		for( int r = 0; r < dbf.numRecords; r++ ) {
+
+			String value = dbf.getString( r, fieldIndex );
+
+			Integer index = indices.get( value );
+
+			if( index == null ) {
+
+				if( values.size() == MAXIMUM_VALUES )
+
+					throw new IOException( "The field " + dbf.fieldNames[ fieldIndex ] + " has more than " + MAXIMUM_VALUES + " values" );
+
+				index = Integer.valueOf( values.size() );
+
+				indices.put( value, index );
+
+				values.add( value );
+			}
+
+			valueIndices[ r ] = index.intValue();
+		}
+
+		return new AttributeDictionary( dbf.fieldNames[ fieldIndex ], values.toArray( new String[ values.size() ] ) );
+	}
+
+/**
+ *
+ * Gets a value
+ *
+ * @param index The formation index of a run
+ * @return The value or null if there is no such value
+ *
+ */
+
+	public String value( int index ) {
+
+		return index >= 0 && index < VALUES.length ? VALUES[ index ] : null;
+	}
+
+/**
+ *
+ * Encodes the trailer
+ *
+ * @param offset The offset in the file at which the trailer is written
+ * @return The bytes of the trailer
+ *
+ */
+
+	public byte [] encode( long offset ) {
+
+		byte [][] strings = new byte[ VALUES.length + 1 ][];
+
+		strings[0] = NAME.getBytes( StandardCharsets.UTF_8 );
+
+		int size = 8;
+
+		for( int v = 0; v <= VALUES.length; v++ ) {
+
+			if( v > 0 )
+
+				strings[v] = VALUES[ v - 1 ].getBytes( StandardCharsets.UTF_8 );
+
+			size += 2 + strings[v].length;
+		}
+
+		ByteBuffer trailer = ByteBuffer.allocate( size );
+
+		trailer.putInt( VALUES.length );
+
+		for( byte [] s : strings )
+
+			trailer.putShort( (short) s.length ).put( s );
+
+		trailer.putInt( (int) offset );
+
+		return trailer.array();
+	}
+
+/**
+ *
+ * Reads the trailer of a file
+ *
+ * @param buf The mapped file
+ * @return The dictionary
+ *
+ */
+
+	public static AttributeDictionary read( ByteBuffer buf ) {
+
+		int offset = buf.getInt( buf.limit() - 4 );
+
+		String [] strings = new String[ buf.getInt( offset ) + 1 ];
+
+		offset += 4;
+
+		for( int s = 0; s < strings.length; s++ ) {
+
+			int length = buf.getShort( offset ) & 0xFFFF;
+
+			byte [] b = new byte[ length ];
+
+			for( int i = 0; i < length; i++ )
+
+				b[i] = buf.get( offset + 2 + i );
+
+			strings[s] = new String( b, StandardCharsets.UTF_8 );
+
+			offset += 2 + length;
+		}
+
+		String [] values = new String[ strings.length - 1 ];
+
+		System.arraycopy( strings, 1, values, 0, values.length );
+
+		return new AttributeDictionary( strings[0], values );
+	}
+
+}
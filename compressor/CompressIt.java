@@ -2,7 +2,11 @@ package compressor;
 
 import java.io.IOException;
 
+import utils.DbfFile;
 import utils.FailedPgrdBuild;
+import utils.InvalidFileTypeException;
+import utils.RecordOutOfBoundsException;
+import utils.ShardRange;
 
 public class CompressIt {
 //NEXT TO DO: change all literals in this to values passed in with the args parameter
@@ -10,7 +14,22 @@ public class CompressIt {
 //and make terminal commentary in these two class to be determined by final argument passed in args parameter to main functions
 /**
  * 
- * @param args
+ * @param args args[0] : path and name of the .pgrd file to compress
+ * 				args[1] : path and name of the .min.pgrd file to build (without extension)
+ * 				args[2] : longitude interval between neighboring points
+ * 				args[3] : ignored (Shp2pgrd passes "true" there), the build options follow it
+ * 				args[4...] : (optional) build options:
+ * 					--index : also write the inverted formation index sidecar ( *.min.pgrd.fidx )
+ * 					--levels n : also write n - 1 coarser levels ( name.2x.min.pgrd, name.4x.min.pgrd, ... ) with
+ * 						intervals 2^k times the given ones
+ * 					--resume : continue an interrupted compression from its last checkpoint ( *.min.pgrd.ckpt )
+ * 					--no-data-runs : write short gaps between segments as no-data runs instead of new parts
+ * 					--attribute-runs dbfFile field : coalesce neighboring runs of records with the same value of a .dbf field
+ * 						rather than of the same formation index ( see {@link PgrdMinifier#setAttributeRuns} )
+ * 					--attribute-grid dbfFile field : write a grid of the values of a .dbf field, numbered in a dictionary
+ * 						kept at the end of the file ( see {@link PgrdMinifier#setAttributeGrid} )
+ * 					--equal-area : space the points of every line by the same ground distance, the longitude interval
+ * 						being that of the equator ( see {@link PgrdMinifier#setEqualArea} )
  */
 	public static void main( String [] args ) {
 		
@@ -18,39 +37,137 @@ public class CompressIt {
 			
 			PgrdFile pf = new PgrdFile(args[0]);
 			
-			PgrdMinifier pgrdmin = new PgrdMinifier( pf, args[1], "error_log.txt");
+			boolean index = false, resume = false, noDataRuns = false, attributeGrid = false, equalArea = false;
 			
-			try {
+			int levels = 1;
+			
+			String dbfName = null, fieldName = null;
+			
+			for( int o = 4; o < args.length; o++ ) {
+				
+				if( args[o].equals( "--index" ) )
+					
+					index = true;
+				
+				else if( args[o].equals( "--resume" ) )
+					
+					resume = true;
+				
+				else if( args[o].equals( "--no-data-runs" ) )
+					
+					noDataRuns = true;
+				
+				else if( args[o].equals( "--equal-area" ) )
+					
+					equalArea = true;
 				
-				pgrdmin.build( (float) Double.parseDouble( args[2] ), new PgrdMinifierEvent() {
+				else if( args[o].equals( "--levels" ) && o + 1 < args.length )
+					
+					levels = Integer.parseInt( args[++o] );
+				
+				else if( ( args[o].equals( "--attribute-runs" ) || args[o].equals( "--attribute-grid" ) ) && o + 2 < args.length ) {
+					
+					attributeGrid = args[o].equals( "--attribute-grid" );
+					
+					dbfName = args[++o];
 					
-					@Override
-					public void onLineWriteComplete( int a, int n ) {
+					fieldName = args[++o];
+				}
+			}
+			
+			DbfFile dbf = dbfName == null ? null : new DbfFile( dbfName );
+			
+			int field = dbf == null ? -1 : dbf.fieldIndex( fieldName );
+			
+			if( dbf != null && field < 0 ) {
+				
+				System.out.println( "No field named " + fieldName + " in " + dbfName );
+				
+				return;
+			}
+			
+			//the lines of a shard are those of the pgrd file, coarser levels can not be joined
+			ShardRange range = ShardRange.read( args[0] + ShardRange.EXTENSION );
+			
+			//coarser levels are compressed from the same pgrd file, so the shapefile is only swept once
+			for( int level = 0; level < levels; level++ ) {
+				
+				int stride = 1 << level;
+				
+				String minName = level == 0 ? args[1] : args[1] + "." + stride + "x";
+				
+				ShardRange.delete( minName + ".min.pgrd" + ShardRange.EXTENSION );
+				
+				PgrdMinifier pgrdmin = new PgrdMinifier( pf, minName, "error_log.txt");
+				
+				pgrdmin.setLineStride( stride );
+				
+				if( index )
+					
+					pgrdmin.writeFormationIndex();
+				
+				if( resume )
+					
+					pgrdmin.resume();
+				
+				if( noDataRuns )
+					
+					pgrdmin.setNoDataRuns();
+				
+				if( equalArea )
+					
+					pgrdmin.setEqualArea();
+				
+				if( dbf != null && attributeGrid )
+					
+					pgrdmin.setAttributeGrid( dbf, field );
+				
+				else if( dbf != null )
+					
+					pgrdmin.setAttributeRuns( dbf, field );
+				
+				try {
+					
+					pgrdmin.build( (float) ( Double.parseDouble( args[2] )*stride ), new PgrdMinifierEvent() {
 						
-						if( a%50 == 0 )
+						@Override
+						public void onLineWriteComplete( int a, int n ) {
 							
-							System.out.print(  " Progress: "+a + " of "+n+" lines complete.    \r" );
+							if( a%50 == 0 )
+								
+								System.out.print(  " Progress: "+a + " of "+n+" lines complete.    \r" );
+							
+						}
 						
-					}
-					
-					@Override
-					public void onStartFileWrite() {
+						@Override
+						public void onStartFileWrite() {
+							
+							System.out.println( '\r' + " Starting Pgrd compression...       " );
+						}
+						
+						@Override
+						public void onFinishFileWrite() {
+							
+							System.out.print( '\r'+" Pgrd compression complete!                          "+'\n' );
+						}
 						
-						System.out.println( '\r' + " Starting Pgrd compression...       " );
-					}
+					});
 					
-					@Override
-					public void onFinishFileWrite() {
+					if( range != null && level == 0 )
 						
-						System.out.print( '\r'+" Pgrd compression complete!                          "+'\n' );
-					}
+						range.write( minName + ".min.pgrd" + ShardRange.EXTENSION );
 					
-				});
-				
-			}
-			catch( FailedPgrdBuild fpb ) {
-				
-				System.out.println( "Error building file! Build aborted!: " + fpb.getMessage() );
+				}
+				catch( FailedPgrdBuild fpb ) {
+					
+					System.out.println( "Error building file! Build aborted!: " + fpb.getMessage() );
+					
+					break;
+				}
+				finally {
+					
+					pgrdmin.close();
+				}
 			}
 			/*
 			long start = System.currentTimeMillis();
@@ -59,6 +176,8 @@ public class CompressIt {
 			System.out.println( System.currentTimeMillis() - start); */
 			
 		} catch( IOException ioe ) { ioe.printStackTrace(); } 
+		catch( InvalidFileTypeException ifte ) { System.out.println( "Exception thrown! : " + ifte.getMessage() ); }
+		catch( RecordOutOfBoundsException robe ) { System.out.println( "Exception thrown! : invalid .dbf record" ); }
 	}
 
 }
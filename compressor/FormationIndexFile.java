@@ -0,0 +1,219 @@
+package compressor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import utils.FileModel;
+import utils.RecordOutOfBoundsException;
+
+/**
+ *
+ * A class to read the inverted formation index sidecar ( *.min.pgrd.fidx ) written alongside a .min.pgrd file. The
+ * sidecar answers where a formation occurs without scanning the grid. All values are big endian:
+ *
+ * 	Byte 0 : long, length of the .min.pgrd file the sidecar was written for
+ * 	Byte 8 : long, hash of the content of that file (see {@link FileModel#contentHash(short)})
+ * 	Byte 16 : int, number of formation slots (one more than the greatest formation index)
+ * 	Byte 20 + formation*24 : int first line, int last line (both -1 if the formation never occurs),
+ * 							float western-most longitude, float eastern-most longitude,
+ * 							int number of occurrences, int index of the first occurrence in the occurrence list
+ * 	Byte 20 + slots*24 + occurrence*8 : int line index, int run index in the line (ordered by formation, then line)
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class FormationIndexFile extends FileModel {
+
+/**
+ *
+ * The extension appended to the .min.pgrd file name for the sidecar
+ *
+ */
+
+	public static final String EXTENSION = ".fidx";
+
+	private static final long HEADER_LENGTH = 20L;
+
+/**
+ *
+ * The number of formation slots in the index
+ *
+ */
+
+	public int NUMBER_FORMATIONS;
+
+/**
+ *
+ * Constructor that takes the sidecar address as a string
+ *
+ * @param indexFileAddress The path, name and extension of the sidecar
+ * @param grid The .min.pgrd file the sidecar is read for
+ * @throws IOException if the sidecar was not written for the current content of the grid
+ *
+ */
+
+	public FormationIndexFile( String indexFileAddress, MinPgrdFile grid ) throws IOException {
+
+		super( new FileInputStream[] {
+				new FileInputStream( new File( indexFileAddress ) )
+		} );
+
+		if( mappedLength( (short) 0 ) < HEADER_LENGTH || getLongFrom( (short) 0, B_END, 0L ) != grid.mappedLength( (short) 0 )
+			|| getLongFrom( (short) 0, B_END, 8L ) != grid.contentHash( (short) 0 ) )
+
+			throw new IOException( "Formation index " + indexFileAddress + " does not belong to the current grid, rebuild it with --index" );
+
+		NUMBER_FORMATIONS = getIntFrom( (short) 0, B_END, 16L );
+	}
+
+/**
+ *
+ * Gets the offset of a formation's entry in the formation table
+ *
+ * @param formation The formation index
+ * @return The offset in bytes from the start of the file
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	private long entryOffset( int formation ) throws RecordOutOfBoundsException {
+
+		if( formation < 0 || formation >= NUMBER_FORMATIONS )
+
+			throw new RecordOutOfBoundsException();
+
+		return HEADER_LENGTH + 24L*formation;
+	}
+
+/**
+ *
+ * Gets the first line in which a formation occurs
+ *
+ * @param formation The formation index
+ * @return The index of the line or -1 if the formation never occurs
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public int minLine( int formation ) throws RecordOutOfBoundsException {
+
+		return getIntFrom( (short) 0, B_END, entryOffset( formation ) );
+	}
+
+/**
+ *
+ * Gets the last line in which a formation occurs
+ *
+ * @param formation The formation index
+ * @return The index of the line or -1 if the formation never occurs
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public int maxLine( int formation ) throws RecordOutOfBoundsException {
+
+		return getIntFrom( (short) 0, B_END, entryOffset( formation ) + 4 );
+	}
+
+/**
+ *
+ * Gets the longitude of the western-most point of a formation
+ *
+ * @param formation The formation index
+ * @return The longitude
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public float minLon( int formation ) throws RecordOutOfBoundsException {
+
+		return getFloatFrom( (short) 0, B_END, entryOffset( formation ) + 8 );
+	}
+
+/**
+ *
+ * Gets the longitude of the eastern-most point of a formation
+ *
+ * @param formation The formation index
+ * @return The longitude
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public float maxLon( int formation ) throws RecordOutOfBoundsException {
+
+		return getFloatFrom( (short) 0, B_END, entryOffset( formation ) + 12 );
+	}
+
+/**
+ *
+ * Gets the number of runs of a formation in the grid
+ *
+ * @param formation The formation index
+ * @return The number of occurrences
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public int numberOccurrences( int formation ) throws RecordOutOfBoundsException {
+
+		return getIntFrom( (short) 0, B_END, entryOffset( formation ) + 16 );
+	}
+
+/**
+ *
+ * Gets the offset of an occurrence in the occurrence list
+ *
+ * @param formation The formation index
+ * @param occurrence The index (starting at 0) of the occurrence of the formation
+ * @return The offset in bytes from the start of the file
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	private long occurrenceOffset( int formation, int occurrence ) throws RecordOutOfBoundsException {
+
+		if( occurrence < 0 || occurrence >= numberOccurrences( formation ) )
+
+			throw new RecordOutOfBoundsException();
+
+		long first = getIntFrom( (short) 0, B_END, entryOffset( formation ) + 20 );
+
+		return HEADER_LENGTH + 24L*NUMBER_FORMATIONS + 8L*( first + occurrence );
+	}
+
+/**
+ *
+ * Gets the line of an occurrence of a formation
+ *
+ * @param formation The formation index
+ * @param occurrence The index (starting at 0) of the occurrence of the formation
+ * @return The index of the line
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public int occurrenceLine( int formation, int occurrence ) throws RecordOutOfBoundsException {
+
+		return getIntFrom( (short) 0, B_END, occurrenceOffset( formation, occurrence ) );
+	}
+
+/**
+ *
+ * Gets the run of an occurrence of a formation
+ *
+ * @param formation The formation index
+ * @param occurrence The index (starting at 0) of the occurrence of the formation
+ * @return The index of the run in its line (see {@link MinPgrdLine})
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public int occurrenceRun( int formation, int occurrence ) throws RecordOutOfBoundsException {
+
+		return getIntFrom( (short) 0, B_END, occurrenceOffset( formation, occurrence ) + 4 );
+	}
+
+}
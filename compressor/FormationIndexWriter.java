@@ -0,0 +1,223 @@
+package compressor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import utils.FileModel;
+
+/**
+ *
+ * Collects every run written by {@link PgrdMinifier} by formation index and writes the inverted formation index
+ * sidecar ( *.min.pgrd.fidx ) once the build is complete. See {@link FormationIndexFile} for the layout of the file.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+class FormationIndexWriter {
+
+/**
+ *
+ * The first and last line in which each formation occurs
+ *
+ */
+
+	private int [] minLine, maxLine;
+
+/**
+ *
+ * The western-most and eastern-most point longitude of each formation
+ *
+ */
+
+	private float [] minLon, maxLon;
+
+/**
+ *
+ * The occurrences of each formation stored as pairs of line index and run index
+ *
+ */
+
+	private int [][] occurrences;
+
+/**
+ *
+ * The number of occurrences of each formation
+ *
+ */
+
+	private int [] numOccurrences;
+
+/**
+ *
+ * The number of formation slots in use ( one more than the greatest formation index seen )
+ *
+ */
+
+	private int numFormations;
+
+/**
+ *
+ * Constructor
+ *
+ */
+
+	public FormationIndexWriter() {
+
+		minLine = new int[ 0 ];
+
+		maxLine = new int[ 0 ];
+
+		minLon = new float[ 0 ];
+
+		maxLon = new float[ 0 ];
+
+		occurrences = new int[ 0 ][];
+
+		numOccurrences = new int[ 0 ];
+
+		numFormations = 0;
+	}
+
+/**
+ *
+ * Records an occurrence of a formation
+ *
+ * @param formation The formation index of the run
+ * @param lineIndex The index of the line the run belongs to
+ * @param runIndex The index of the run in its line
+ * @param westLon The longitude of the western-most point of the run
+ * @param eastLon The longitude of the eastern-most point of the run
+ *
+ */
+
+	public void add( int formation, int lineIndex, int runIndex, float westLon, float eastLon ) {
+
+		if( formation < 0 )
+
+			return;
+
+		if( formation >= numOccurrences.length )
+
+			grow( formation + 1 );
+
+		numFormations = Math.max( numFormations, formation + 1 );
+
+		int n = numOccurrences[ formation ];
+
+		if( occurrences[ formation ] == null )
+
+			occurrences[ formation ] = new int[ 16 ];
+
+		else if( 2*n + 2 > occurrences[ formation ].length )
+
+			occurrences[ formation ] = Arrays.copyOf( occurrences[ formation ], occurrences[ formation ].length << 1 );
+
+		occurrences[ formation ][ 2*n ] = lineIndex;
+
+		occurrences[ formation ][ 2*n + 1 ] = runIndex;
+
+		numOccurrences[ formation ] = n + 1;
+
+		if( n == 0 ) {
+
+			minLine[ formation ] = lineIndex;
+
+			minLon[ formation ] = westLon;
+
+			maxLon[ formation ] = eastLon;
+		}
+
+		maxLine[ formation ] = lineIndex;
+
+		minLon[ formation ] = Math.min( minLon[ formation ], westLon );
+
+		maxLon[ formation ] = Math.max( maxLon[ formation ], eastLon );
+	}
+
+/**
+ *
+ * Writes the collected index to a file
+ *
+ * @param fileName The path, name and extension of the sidecar file
+ * @param gridName The path, name and extension of the complete .min.pgrd file the index belongs to
+ * @throws IOException
+ *
+ */
+
+	public void write( String fileName, String gridName ) throws IOException {
+
+		long gridLength = new File( gridName ).length(), gridHash = FileModel.contentHash( gridName );
+
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fileName ), 1 << 16 ) );
+
+		try {
+
+			out.writeLong( gridLength );
+
+			out.writeLong( gridHash );
+
+			out.writeInt( numFormations );
+
+			int listOffset = 0;
+
+			for( int f = 0; f < numFormations; f++ ) {
+
+				out.writeInt( numOccurrences[ f ] > 0 ? minLine[ f ] : -1 );
+
+				out.writeInt( numOccurrences[ f ] > 0 ? maxLine[ f ] : -1 );
+
+				out.writeFloat( minLon[ f ] );
+
+				out.writeFloat( maxLon[ f ] );
+
+				out.writeInt( numOccurrences[ f ] );
+
+				out.writeInt( listOffset );
+
+				listOffset += numOccurrences[ f ];
+			}
+
+			for( int f = 0; f < numFormations; f++ ) {
+
+				for( int o = 0; o < 2*numOccurrences[ f ]; o++ )
+
+					out.writeInt( occurrences[ f ][ o ] );
+			}
+		}
+		finally {
+
+			out.close();
+		}
+	}
+
+/**
+ *
+ * Grows the per formation arrays
+ *
+ * @param n The number of formation slots needed
+ *
+ */
+
+	private void grow( int n ) {
+
+		int size = Math.max( n, numOccurrences.length << 1 );
+
+		minLine = Arrays.copyOf( minLine, size );
+
+		maxLine = Arrays.copyOf( maxLine, size );
+
+		minLon = Arrays.copyOf( minLon, size );
+
+		maxLon = Arrays.copyOf( maxLon, size );
+
+		occurrences = Arrays.copyOf( occurrences, size );
+
+		numOccurrences = Arrays.copyOf( numOccurrences, size );
+	}
+
+}
@@ -0,0 +1,495 @@
+package compressor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import utils.FileModel;
+import utils.RecordOutOfBoundsException;
+
+/**
+ * A class to allow a user to easily pull any necessary piece of information out of a .min.pgrd file
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+public class MinPgrdFile extends FileModel {
+
+	public double MINIMUM_LATITUDE;
+
+	public double MINIMUM_LONGITUDE;
+
+	public double MAXIMUM_LATITUDE;
+
+	public double MAXIMUM_LONGITUDE;
+
+	public double LATITUDE_INTERVAL;
+
+	public double LONGITUDE_INTERVAL;
+
+	public int NUMBER_LATITUDE_LINES;
+
+	public int TYPE_OF_SEGMENT_IDENTIFIER;
+
+/**
+ *
+ * The format flags of the file, kept in the upper 16 bits of the identifier type in the header
+ *
+ */
+
+	public int FLAGS;
+
+/**
+ *
+ * The flag of a file whose lines may hold no-data runs (see {@link MinPgrdLine#NO_DATA})
+ *
+ */
+
+	public static final int NO_DATA_RUNS = 1;
+
+/**
+ *
+ * The flag of a file whose formation indices stand for the values of a .dbf attribute: every record is given the
+ * index of the first record with the same value, so neighboring records sharing a value form a single run
+ *
+ */
+
+	public static final int ATTRIBUTE_RUNS = 2;
+
+/**
+ *
+ * The flag of a file whose formation indices are the indices of the values of its attribute dictionary
+ *
+ */
+
+	public static final int ATTRIBUTE_DICTIONARY = 4;
+
+/**
+ *
+ * The flag of a file whose points are spaced by the same ground distance on every line: the longitude interval of
+ * a line is LONGITUDE_INTERVAL divided by the cosine of the latitude of the line (see {@link #lineLongitudeInterval(int)})
+ *
+ */
+
+	public static final int EQUAL_AREA = 8;
+
+/**
+ *
+ * The greatest longitude interval of a line of an equal area file, reached near the poles
+ *
+ */
+
+	public static final double MAXIMUM_EQUAL_AREA_INTERVAL = 360;
+
+/**
+ *
+ * The attribute dictionary of the file, null unless the file is flagged with ATTRIBUTE_DICTIONARY
+ *
+ */
+
+	public AttributeDictionary DICTIONARY;
+
+/**
+ *
+ * The longitude interval of every line, null unless the file is flagged with EQUAL_AREA
+ *
+ */
+
+	private double [] lineIntervals;
+
+/**
+ *
+ * The offset table of the file header, read once so that lines can be located from several threads at a time
+ *
+ */
+
+	private int [] LINE_OFFSETS;
+
+/**
+ *
+ * Construtor that takes FileInputStream
+ * @param fis A file stream object leading to valid .min.pgrd file
+ * @throws IOException
+ *
+ */
+
+	public MinPgrdFile( FileInputStream fis ) throws IOException {
+
+		super( new FileInputStream[]{ fis } );
+
+		MinPgrdHeaderModel();
+	}
+
+/**
+ *
+ * Constructor that takes the .min.pgrd address as a string
+ * @param minPgrdFileAddress The .min.pgrd address as a string
+ * @throws IOException
+ *
+ */
+
+	public MinPgrdFile( String minPgrdFileAddress ) throws IOException {
+
+		this( new FileInputStream( new File( minPgrdFileAddress ) ) );
+	}
+
+/**
+ *
+ * A helper function called in the constructor to instantiate header data in instance's properties
+ * @throws IOException
+ *
+ */
+
+	private void MinPgrdHeaderModel() throws IOException {
+
+		MINIMUM_LATITUDE = getDoubleFrom( (short) 0, B_END, 0L );
+		MINIMUM_LONGITUDE = getDoubleFrom( (short) 0, B_END, 8L );
+		MAXIMUM_LATITUDE = getDoubleFrom( (short) 0, B_END, 16L );
+		MAXIMUM_LONGITUDE = getDoubleFrom( (short) 0, B_END, 24L );
+		LATITUDE_INTERVAL = getDoubleFrom( (short) 0, B_END, 32L );
+		LONGITUDE_INTERVAL = getDoubleFrom( (short) 0, B_END, 40L );
+		NUMBER_LATITUDE_LINES = getIntFrom( (short) 0, B_END, 48L );
+		TYPE_OF_SEGMENT_IDENTIFIER = getIntFrom( (short) 0, B_END, 52L ) & 0xFFFF;
+		FLAGS = getIntFrom( (short) 0, B_END, 52L ) >>> 16;
+
+		LINE_OFFSETS = new int[ NUMBER_LATITUDE_LINES ];
+
+		for( int l = 0; l < NUMBER_LATITUDE_LINES; l++ )
+
+			LINE_OFFSETS[ l ] = getIntFrom( (short) 0, B_END, 56L + 4*l );
+
+		if( ( FLAGS & ATTRIBUTE_DICTIONARY ) != 0 )
+
+			DICTIONARY = AttributeDictionary.read( view() );
+
+		if( ( FLAGS & EQUAL_AREA ) != 0 ) {
+
+			lineIntervals = new double[ NUMBER_LATITUDE_LINES ];
+
+			for( int l = 0; l < NUMBER_LATITUDE_LINES; l++ )
+
+				lineIntervals[ l ] = equalAreaInterval( LONGITUDE_INTERVAL, lineLatitude( l ) );
+		}
+	}
+
+/**
+ *
+ * A function to get the offset (in bytes) from the start of the file to a specified latitude line
+ *
+ * @param lineIndex The index (starting at 0) of the line
+ * @return The offset of the line in bytes
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public int lineOffset( int lineIndex ) throws RecordOutOfBoundsException {
+
+		if( lineIndex >= NUMBER_LATITUDE_LINES || lineIndex < 0 ) {
+
+			throw new RecordOutOfBoundsException();
+		}
+
+		return LINE_OFFSETS[ lineIndex ];
+	}
+
+/**
+ *
+ * The length of a specified latitude line in bytes
+ *
+ * @param lineIndex The index (starting at 0) of the line
+ * @return The length of the line in bytes
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public int lineSize( int lineIndex ) throws RecordOutOfBoundsException {
+
+		return getIntFrom( (short) 0, B_END, lineOffset( lineIndex ) );
+	}
+
+/**
+ *
+ * A function to determine the number of parts in a line
+ *
+ * @param lineIndex The index (starting at 0) of the line
+ * @return The number of parts in the line
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public int numberParts( int lineIndex ) throws RecordOutOfBoundsException {
+
+		return getIntFrom( (short) 0, B_END, lineOffset( lineIndex ) + 4 );
+	}
+
+/**
+ *
+ * Determines the latitude of a given line. Lines are built starting one interval north of the minimum latitude.
+ *
+ * @param lineIndex The index (starting at 0) of the line
+ * @return The latitude of the line
+ *
+ */
+
+	public double lineLatitude( int lineIndex ) {
+
+		return MINIMUM_LATITUDE + ( lineIndex + 1 )*LATITUDE_INTERVAL;
+	}
+
+/**
+ *
+ * Determines the longitude interval between neighboring points of a line
+ *
+ * @param lineIndex The index (starting at 0) of the line
+ * @return The longitude interval of the line
+ *
+ */
+
+	public double lineLongitudeInterval( int lineIndex ) {
+
+		return lineIntervals == null ? LONGITUDE_INTERVAL : lineIntervals[ lineIndex ];
+	}
+
+/**
+ *
+ * Determines the longitude interval between neighboring points of a line from the header of a mapped file
+ *
+ * @param buf A big endian buffer holding the .min.pgrd file
+ * @param lineIndex The index (starting at 0) of the line
+ * @return The longitude interval of the line
+ *
+ */
+
+	public static double lineLongitudeInterval( ByteBuffer buf, int lineIndex ) {
+
+		double lonInterval = buf.getDouble( 40 );
+
+		if( ( buf.getInt( 52 ) >>> 16 & EQUAL_AREA ) == 0 )
+
+			return lonInterval;
+
+		return equalAreaInterval( lonInterval, buf.getDouble( 0 ) + ( lineIndex + 1 )*buf.getDouble( 32 ) );
+	}
+
+/**
+ *
+ * Scales a longitude interval so that it spans the same ground distance at a given latitude as at the equator.
+ * StrictMath is used so that writers and readers derive the same interval on every platform.
+ *
+ * @param lonInterval The longitude interval at the equator
+ * @param latitude The latitude of the line
+ * @return The longitude interval at the latitude, at most MAXIMUM_EQUAL_AREA_INTERVAL
+ *
+ */
+
+	public static double equalAreaInterval( double lonInterval, double latitude ) {
+
+		return Math.min( lonInterval/StrictMath.cos( Math.toRadians( latitude ) ), MAXIMUM_EQUAL_AREA_INTERVAL );
+	}
+
+/**
+ *
+ * Determines the line nearest to a given latitude
+ *
+ * @param latitude The latitude
+ * @return The index of the line or -1 if the latitude is outside the lines of the file
+ *
+ */
+
+	public int lineIndexOf( double latitude ) {
+
+		long index = Math.round( ( latitude - MINIMUM_LATITUDE )/LATITUDE_INTERVAL ) - 1;
+
+		return index < 0 || index >= NUMBER_LATITUDE_LINES ? -1 : (int) index;
+	}
+
+/**
+ *
+ * Decodes a line of the file
+ *
+ * @param lineIndex The index (starting at 0) of the line
+ * @param line The line model to decode into (may be null, in which case a new one is created)
+ * @return The decoded line model
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public MinPgrdLine getLine( int lineIndex, MinPgrdLine line ) throws RecordOutOfBoundsException {
+
+		return getLine( lineIndex, line, mapped_list[ 0 ] );
+	}
+
+/**
+ *
+ * Decodes a line of the file through a given view of the file
+ *
+ * @param lineIndex The index (starting at 0) of the line
+ * @param line The line model to decode into (may be null, in which case a new one is created)
+ * @param view A view of the file as returned by {@link #view()}
+ * @return The decoded line model
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public MinPgrdLine getLine( int lineIndex, MinPgrdLine line, ByteBuffer view ) throws RecordOutOfBoundsException {
+
+		if( line == null )
+
+			line = new MinPgrdLine();
+
+		line.decode( view, lineOffset( lineIndex ), lineIndex );
+
+		return line;
+	}
+
+/**
+ *
+ * Gets the formation index of the grid point nearest to a given location
+ *
+ * @param latitude The latitude of the location
+ * @param longitude The longitude of the location
+ * @param line A line model used for decoding (may be null)
+ * @return The formation index or -1 if the location is not in any formation
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public int formationAt( double latitude, double longitude, MinPgrdLine line ) throws RecordOutOfBoundsException {
+
+		int lineIndex = lineIndexOf( latitude );
+
+		if( lineIndex < 0 )
+
+			return -1;
+
+		if( line == null || line.lineIndex != lineIndex )
+
+			line = getLine( lineIndex, line );
+
+		return line.formationAt( longitude, lineLongitudeInterval( lineIndex ) );
+	}
+
+/**
+ *
+ * Gets the formation index of the grid point nearest to a given location by reading the encoded line directly,
+ * without decoding it. Safe to call from several threads as long as each uses its own view.
+ *
+ * @param latitude The latitude of the location
+ * @param longitude The longitude of the location
+ * @param view A view of the file as returned by {@link #view()}
+ * @return The formation index or -1 if the location is not in any formation
+ *
+ */
+
+	public int formationAt( double latitude, double longitude, ByteBuffer view ) {
+
+		int lineIndex = lineIndexOf( latitude );
+
+		if( lineIndex < 0 )
+
+			return -1;
+
+		int offset = LINE_OFFSETS[ lineIndex ];
+
+		int numParts = view.getInt( offset + 4 );
+
+		//run lengths which overflow a short are patched in from the line header, let the line model handle those
+		if( view.getInt( offset + 8 ) > 0 ) {
+
+			MinPgrdLine line = new MinPgrdLine();
+
+			line.decode( view, offset, lineIndex );
+
+			return line.formationAt( longitude, lineLongitudeInterval( lineIndex ) );
+		}
+
+		double lonInterval = lineLongitudeInterval( lineIndex );
+
+		int partTable = offset + 12;
+
+		int lo = 0, hi = numParts - 1, part = -1;
+
+		while( lo <= hi ) {
+
+			int mid = ( lo + hi ) >>> 1;
+
+			if( view.getFloat( offset + view.getInt( partTable + 4*mid ) ) - lonInterval/2 <= longitude ) {
+
+				part = mid;
+
+				lo = mid + 1;
+			}
+			else
+				hi = mid - 1;
+		}
+
+		if( part < 0 )
+
+			return -1;
+
+		int partOffset = offset + view.getInt( partTable + 4*part );
+
+		float partStart = view.getFloat( partOffset );
+
+		int point = (int) Math.round( ( longitude - partStart )/lonInterval );
+
+		if( ( FLAGS & NO_DATA_RUNS ) == 0 && point >= view.getInt( partOffset + 4 ) )
+
+			return -1;
+
+		int partEnd = part + 1 < numParts ? offset + view.getInt( partTable + 4*( part + 1 ) ) : offset + view.getInt( offset );
+
+		//the number of points of the current stretch of the part up to the current run
+		int passed = 0, stride = TYPE_OF_SEGMENT_IDENTIFIER + 2;
+
+		for( int r = partOffset + 8; r < partEnd; r += stride ) {
+
+			int formation = MinPgrdLine.getIdentifier( view, r, TYPE_OF_SEGMENT_IDENTIFIER ), length = view.getShort( r + TYPE_OF_SEGMENT_IDENTIFIER );
+
+			//the points past a no-data run start a new stretch, as a new part of a decoded line
+			if( formation == MinPgrdLine.NO_DATA ) {
+
+				int units = r + stride < partEnd ? view.getShort( r + stride + TYPE_OF_SEGMENT_IDENTIFIER ) : 0;
+
+				r += stride;
+
+				partStart = MinPgrdLine.stretchStart( partStart, passed + length, units, lonInterval );
+
+				passed = 0;
+
+				point = (int) Math.round( ( longitude - partStart )/lonInterval );
+
+				if( point < 0 )
+
+					return -1;
+
+				continue;
+			}
+
+			passed += length;
+
+			point -= length;
+
+			if( point < 0 )
+
+				return formation;
+		}
+
+		return -1;
+	}
+
+/**
+ *
+ * Creates an independent big endian view of the file. Each thread reading the file concurrently should use its own view.
+ *
+ * @return A view of the mapped file
+ *
+ */
+
+	public ByteBuffer view() {
+
+		return mapped_list[ 0 ].duplicate();
+	}
+
+}
@@ -0,0 +1,764 @@
+package compressor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import utils.ShortOverflow;
+
+/**
+ *
+ * A class to model a single decoded latitude line of a .min.pgrd file as flat arrays of parts and runs. A run is a
+ * segment of adjacent points sharing one formation index. An instance is meant to be reused from line to line so that
+ * a scan through a whole file does not allocate anything per line.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class MinPgrdLine {
+
+/**
+ *
+ * The formation index reserved for no-data runs, which {@link PgrdMinifier} may write instead of starting a new part
+ * over a gap. It is stored with all the bits of the formation identifier set. A no-data run is followed by an offset
+ * entry with the same identifier, whose length is the fraction of an interval (in {@link #NO_DATA_OFFSET_UNITS})
+ * between the end of the gap and the first point east of it (see {@link #stretchStart(float, int, int, double)}).
+ * Decoded lines do not hold no-data runs: a part is split in two at each of them.
+ *
+ */
+
+	public static final int NO_DATA = -1;
+
+/**
+ *
+ * The number of units an interval is divided in by the offset entry of a no-data run
+ *
+ */
+
+	public static final int NO_DATA_OFFSET_UNITS = 16384;
+
+/**
+ *
+ * The narrowest and widest formation identifiers, in bytes. The width of the identifiers of a file is the
+ * TYPE_OF_SEGMENT_IDENTIFIER of its header.
+ *
+ */
+
+	public static final int MINIMUM_IDENTIFIER_LENGTH = 2, MAXIMUM_IDENTIFIER_LENGTH = 4;
+
+/**
+ *
+ * The index (starting at 0) of the line currently held by the object
+ *
+ */
+
+	public int lineIndex;
+
+/**
+ *
+ * The number of parts in the line
+ *
+ */
+
+	public int NUM_PARTS;
+
+/**
+ *
+ * The longitude of the western-most point of each part
+ *
+ */
+
+	public float [] PART_START_LON;
+
+/**
+ *
+ * The total number of points in each part
+ *
+ */
+
+	public int [] PART_NUM_POINTS;
+
+/**
+ *
+ * The index of the first run of each part. Holds NUM_PARTS + 1 values so that the runs of part p are
+ * PART_FIRST_RUN[ p ] up to (but not including) PART_FIRST_RUN[ p + 1 ]
+ *
+ */
+
+	public int [] PART_FIRST_RUN;
+
+/**
+ *
+ * The number of runs in the line
+ *
+ */
+
+	public int NUM_RUNS;
+
+/**
+ *
+ * The formation index of each run
+ *
+ */
+
+	public int [] RUN_FORMATION;
+
+/**
+ *
+ * The length in points of each run
+ *
+ */
+
+	public int [] RUN_LENGTH;
+
+/**
+ *
+ * The offset in points of each run from the western-most point of its part
+ *
+ */
+
+	public int [] RUN_START;
+
+/**
+ *
+ * Constructor.
+ *
+ */
+
+	public MinPgrdLine() {
+
+		PART_START_LON = new float[ 8 ];
+
+		PART_NUM_POINTS = new int[ 8 ];
+
+		PART_FIRST_RUN = new int[ 9 ];
+
+		RUN_FORMATION = new int[ 32 ];
+
+		RUN_LENGTH = new int[ 32 ];
+
+		RUN_START = new int[ 32 ];
+
+		clear();
+	}
+
+/**
+ *
+ * Clears the line model without releasing its arrays
+ *
+ */
+
+	public void clear() {
+
+		lineIndex = -1;
+
+		NUM_PARTS = 0;
+
+		NUM_RUNS = 0;
+
+		PART_FIRST_RUN[ 0 ] = 0;
+	}
+
+/**
+ *
+ * Determines the greatest formation index an identifier of a given width holds, all ones being reserved for
+ * {@link #NO_DATA}
+ *
+ * @param length The width of the identifier in bytes
+ * @return The greatest formation index
+ *
+ */
+
+	public static int largestIndex( int length ) {
+
+		return (int) Math.min( ( 1L << 8*length ) - 2, Integer.MAX_VALUE );
+	}
+
+/**
+ *
+ * Determines the narrowest formation identifier holding a given formation index
+ *
+ * @param greatestIndex The greatest formation index to hold
+ * @return The width of the identifier in bytes
+ *
+ */
+
+	public static int identifierLength( long greatestIndex ) {
+
+		int length = MINIMUM_IDENTIFIER_LENGTH;
+
+		while( length < MAXIMUM_IDENTIFIER_LENGTH && greatestIndex > largestIndex( length ) )
+
+			length++;
+
+		return length;
+	}
+
+/**
+ *
+ * Reads a big endian formation identifier
+ *
+ * @param buf The buffer holding the identifier
+ * @param offset The offset (in bytes) of the identifier in the buffer
+ * @param length The width of the identifier in bytes
+ * @return The formation index or {@link #NO_DATA}
+ *
+ */
+
+	public static int getIdentifier( ByteBuffer buf, int offset, int length ) {
+
+		int index;
+
+		switch( length ) {
+
+			case 2 : index = buf.getShort( offset ) & 0xFFFF; break;
+
+			case 3 : index = ( buf.getShort( offset ) & 0xFFFF ) << 8 | buf.get( offset + 2 ) & 0xFF; break;
+
+			default : index = buf.getInt( offset );
+		}
+
+		return index == (int) ( ( 1L << 8*length ) - 1 ) ? NO_DATA : index;
+	}
+
+/**
+ *
+ * Puts a big endian formation identifier at the position of a buffer
+ *
+ * @param out The buffer
+ * @param index The formation index or {@link #NO_DATA}
+ * @param length The width of the identifier in bytes
+ *
+ */
+
+	public static void putIdentifier( ByteBuffer out, int index, int length ) {
+
+		switch( length ) {
+
+			case 2 : out.putShort( (short) index ); break;
+
+			case 3 : out.putShort( (short) ( index >> 8 ) ).put( (byte) index ); break;
+
+			default : out.putInt( index );
+		}
+	}
+
+/**
+ *
+ * Decodes a line of a .min.pgrd file into the object
+ *
+ * @param buf A big endian buffer holding the .min.pgrd file
+ * @param lineOffset The offset (in bytes) of the line from the start of the file
+ * @param lineIndex The index (starting at 0) of the line
+ *
+ */
+
+	public void decode( ByteBuffer buf, int lineOffset, int lineIndex ) {
+
+		clear();
+
+		this.lineIndex = lineIndex;
+
+		int lineEnd = lineOffset + buf.getInt( lineOffset );
+
+		int numParts = buf.getInt( lineOffset + 4 );
+
+		int numOverflows = buf.getInt( lineOffset + 8 );
+
+		int overflowTable = lineOffset + 12;
+
+		int partTable = overflowTable + 6*numOverflows;
+
+		boolean noData = false;
+
+		int idLength = buf.getInt( 52 ) & 0xFFFF, stride = idLength + 2;
+
+		ensureParts( numParts );
+
+		for( int p = 0; p < numParts; p++ ) {
+
+			int partOffset = lineOffset + buf.getInt( partTable + 4*p );
+
+			int partEnd = p + 1 < numParts ? lineOffset + buf.getInt( partTable + 4*( p + 1 ) ) : lineEnd;
+
+			int numRuns = ( partEnd - partOffset - 8 )/stride;
+
+			PART_START_LON[ p ] = buf.getFloat( partOffset );
+
+			PART_NUM_POINTS[ p ] = buf.getInt( partOffset + 4 );
+
+			ensureRuns( NUM_RUNS + numRuns );
+
+			int start = 0;
+
+			for( int r = partOffset + 8; r < partEnd; r += stride ) {
+
+				RUN_FORMATION[ NUM_RUNS ] = getIdentifier( buf, r, idLength );
+
+				noData |= RUN_FORMATION[ NUM_RUNS ] == NO_DATA;
+
+				RUN_LENGTH[ NUM_RUNS ] = buf.getShort( r + idLength );
+
+				RUN_START[ NUM_RUNS ] = start;
+
+				start += RUN_LENGTH[ NUM_RUNS ];
+
+				NUM_RUNS++;
+			}
+
+			PART_FIRST_RUN[ p + 1 ] = NUM_RUNS;
+		}
+
+		NUM_PARTS = numParts;
+
+		//restore run lengths which overflowed a short
+		if( numOverflows > 0 ) {
+
+			for( int o = 0; o < numOverflows; o++ ) {
+
+				int run = buf.getInt( overflowTable + 6*o );
+
+				if( run >= 0 && run < NUM_RUNS )
+
+					RUN_LENGTH[ run ] = ShortOverflow.overflowingShortAsInt( buf.getShort( overflowTable + 6*o + 4 ), RUN_LENGTH[ run ] );
+			}
+
+			for( int p = 0; p < NUM_PARTS; p++ ) {
+
+				int start = 0;
+
+				for( int r = PART_FIRST_RUN[ p ]; r < PART_FIRST_RUN[ p + 1 ]; r++ ) {
+
+					RUN_START[ r ] = start;
+
+					start += RUN_LENGTH[ r ];
+				}
+			}
+		}
+
+		if( noData )
+
+			splitNoDataRuns( MinPgrdFile.lineLongitudeInterval( buf, lineIndex ) );
+	}
+
+/**
+ *
+ * Computes the longitude of the first point east of a no-data run
+ *
+ * @param start The longitude of the first point of the stretch of the part west of the no-data run (the start of the
+ * 			part, or the first point east of the no-data run before it)
+ * @param points The number of points of the stretch, the length of the no-data run included
+ * @param offset The length of the offset entry following the no-data run
+ * @param lonInterval The longitude interval between neighboring points
+ * @return The longitude of the first point of the next stretch
+ *
+ */
+
+	public static float stretchStart( float start, int points, int offset, double lonInterval ) {
+
+		return start + (float) ( ( points + offset/(double) NO_DATA_OFFSET_UNITS )*lonInterval );
+	}
+
+/**
+ *
+ * Splits the parts of a decoded line at their no-data runs, which are dropped with their offset entries
+ *
+ * @param lonInterval The longitude interval between neighboring points
+ *
+ */
+
+	private void splitNoDataRuns( double lonInterval ) {
+
+		int numParts = NUM_PARTS;
+
+		float [] startLon = Arrays.copyOf( PART_START_LON, numParts );
+
+		int [] numPoints = Arrays.copyOf( PART_NUM_POINTS, numParts );
+
+		int [] firstRun = Arrays.copyOf( PART_FIRST_RUN, numParts + 1 );
+
+		NUM_PARTS = 0;
+
+		NUM_RUNS = 0;
+
+		for( int p = 0; p < numParts; p++ ) {
+
+			addPart( startLon[ p ] );
+
+			//the longitude of the first point of the current stretch and its number of points so far
+			float stretch = startLon[ p ];
+
+			int passed = 0;
+
+			boolean split = false;
+
+			for( int r = firstRun[ p ]; r < firstRun[ p + 1 ]; r++ ) {
+
+				if( RUN_FORMATION[ r ] == NO_DATA ) {
+
+					int gap = RUN_LENGTH[ r ], offset = r + 1 < firstRun[ p + 1 ] ? RUN_LENGTH[ ++r ] : 0;
+
+					stretch = stretchStart( stretch, passed + gap, offset, lonInterval );
+
+					passed = 0;
+
+					split = true;
+
+					addPart( stretch );
+
+					continue;
+				}
+
+				RUN_FORMATION[ NUM_RUNS ] = RUN_FORMATION[ r ];
+
+				RUN_LENGTH[ NUM_RUNS ] = RUN_LENGTH[ r ];
+
+				RUN_START[ NUM_RUNS ] = passed;
+
+				passed += RUN_LENGTH[ r ];
+
+				PART_NUM_POINTS[ NUM_PARTS - 1 ] += RUN_LENGTH[ r ];
+
+				NUM_RUNS++;
+
+				PART_FIRST_RUN[ NUM_PARTS ] = NUM_RUNS;
+			}
+
+			//a part without no-data run keeps the number of points of its header
+			if( !split )
+
+				PART_NUM_POINTS[ NUM_PARTS - 1 ] = numPoints[ p ];
+		}
+	}
+
+/**
+ *
+ * Starts a new part at the east end of the line
+ *
+ * @param startLon The longitude of the western-most point of the part
+ *
+ */
+
+	public void addPart( float startLon ) {
+
+		ensureParts( NUM_PARTS + 1 );
+
+		PART_START_LON[ NUM_PARTS ] = startLon;
+
+		PART_NUM_POINTS[ NUM_PARTS ] = 0;
+
+		NUM_PARTS++;
+
+		PART_FIRST_RUN[ NUM_PARTS ] = NUM_RUNS;
+	}
+
+/**
+ *
+ * Adds a run at the east end of the last part of the line
+ *
+ * @param formation The formation index of the run
+ * @param numPoints The number of points in the run
+ *
+ */
+
+	public void addRun( int formation, int numPoints ) {
+
+		ensureRuns( NUM_RUNS + 1 );
+
+		RUN_FORMATION[ NUM_RUNS ] = formation;
+
+		RUN_LENGTH[ NUM_RUNS ] = numPoints;
+
+		RUN_START[ NUM_RUNS ] = PART_NUM_POINTS[ NUM_PARTS - 1 ];
+
+		PART_NUM_POINTS[ NUM_PARTS - 1 ] += numPoints;
+
+		NUM_RUNS++;
+
+		PART_FIRST_RUN[ NUM_PARTS ] = NUM_RUNS;
+	}
+
+/**
+ *
+ * Adds points at the east end of the last part of the line, lengthening its last run when it has the same formation
+ *
+ * @param formation The formation index of the points
+ * @param numPoints The number of points
+ *
+ */
+
+	public void appendRun( int formation, int numPoints ) {
+
+		if( NUM_RUNS > PART_FIRST_RUN[ NUM_PARTS - 1 ] && RUN_FORMATION[ NUM_RUNS - 1 ] == formation ) {
+
+			RUN_LENGTH[ NUM_RUNS - 1 ] += numPoints;
+
+			PART_NUM_POINTS[ NUM_PARTS - 1 ] += numPoints;
+		}
+		else
+			addRun( formation, numPoints );
+	}
+
+/**
+ *
+ * Gets the longitude of the western-most point of a run
+ *
+ * @param part The index of the part holding the run
+ * @param run The index of the run
+ * @param lonInterval The longitude interval between neighboring points
+ * @return The longitude of the first point of the run
+ *
+ */
+
+	public double runStartLon( int part, int run, double lonInterval ) {
+
+		return PART_START_LON[ part ] + RUN_START[ run ]*lonInterval;
+	}
+
+/**
+ *
+ * Determines the number of runs whose length overflows a short
+ *
+ * @return The number of overflowing runs
+ *
+ */
+
+	private int numberOverflows() {
+
+		int n = 0;
+
+		for( int r = 0; r < NUM_RUNS; r++ ) {
+
+			if( ShortOverflow.overflowIndex( RUN_LENGTH[ r ] ) > 0 )
+
+				n++;
+		}
+
+		return n;
+	}
+
+/**
+ *
+ * Determines the size in bytes of the line once encoded
+ *
+ * @param idLength The width of the formation identifiers in bytes
+ * @return The size of the encoded line
+ *
+ */
+
+	public int encodedSize( int idLength ) {
+
+		return 12 + NUM_PARTS*12 + NUM_RUNS*( idLength + 2 ) + numberOverflows()*6;
+	}
+
+/**
+ *
+ * Encodes the line in the .min.pgrd layout written by {@link PgrdMinifier}
+ *
+ * @param out The buffer to put the line in, starting at its position
+ * @param idLength The width of the formation identifiers in bytes
+ *
+ */
+
+	public void encode( ByteBuffer out, int idLength ) {
+
+		int lineStart = out.position();
+
+		int numOverflows = numberOverflows();
+
+		out.putInt( 12 + NUM_PARTS*12 + NUM_RUNS*( idLength + 2 ) + numOverflows*6 );
+
+		out.putInt( NUM_PARTS );
+
+		out.putInt( numOverflows );
+
+		for( int r = 0; r < NUM_RUNS && numOverflows > 0; r++ ) {
+
+			if( ShortOverflow.overflowIndex( RUN_LENGTH[ r ] ) > 0 ) {
+
+				out.putInt( r );
+
+				out.putShort( (short) ShortOverflow.overflowIndex( RUN_LENGTH[ r ] ) );
+			}
+		}
+
+		int partTable = out.position();
+
+		out.position( partTable + 4*NUM_PARTS );
+
+		for( int p = 0; p < NUM_PARTS; p++ ) {
+
+			out.putInt( partTable + 4*p, out.position() - lineStart );
+
+			out.putFloat( PART_START_LON[ p ] );
+
+			out.putInt( PART_NUM_POINTS[ p ] );
+
+			for( int r = PART_FIRST_RUN[ p ]; r < PART_FIRST_RUN[ p + 1 ]; r++ ) {
+
+				putIdentifier( out, RUN_FORMATION[ r ], idLength );
+
+				out.putShort( (short) ShortOverflow.overflowValue( RUN_LENGTH[ r ] ) );
+			}
+		}
+	}
+
+/**
+ *
+ * Finds the part containing the grid point nearest to a given longitude
+ *
+ * @param lon The longitude to look up
+ * @param lonInterval The longitude interval between neighboring points
+ * @return The index of the part or -1 if the longitude does not fall in any part
+ *
+ */
+
+	public int partAt( double lon, double lonInterval ) {
+
+		int lo = 0, hi = NUM_PARTS - 1, part = -1;
+
+		while( lo <= hi ) {
+
+			int mid = ( lo + hi ) >>> 1;
+
+			if( PART_START_LON[ mid ] - lonInterval/2 <= lon ) {
+
+				part = mid;
+
+				lo = mid + 1;
+			}
+			else
+				hi = mid - 1;
+		}
+
+		if( part < 0 || pointIndex( part, lon, lonInterval ) >= PART_NUM_POINTS[ part ] )
+
+			return -1;
+
+		return part;
+	}
+
+/**
+ *
+ * Finds the run containing the grid point nearest to a given longitude
+ *
+ * @param lon The longitude to look up
+ * @param lonInterval The longitude interval between neighboring points
+ * @return The index of the run or -1 if the longitude does not fall in any run
+ *
+ */
+
+	public int runAt( double lon, double lonInterval ) {
+
+		int part = partAt( lon, lonInterval );
+
+		if( part < 0 )
+
+			return -1;
+
+		int point = pointIndex( part, lon, lonInterval );
+
+		int lo = PART_FIRST_RUN[ part ], hi = PART_FIRST_RUN[ part + 1 ] - 1, run = -1;
+
+		while( lo <= hi ) {
+
+			int mid = ( lo + hi ) >>> 1;
+
+			if( RUN_START[ mid ] <= point ) {
+
+				run = mid;
+
+				lo = mid + 1;
+			}
+			else
+				hi = mid - 1;
+		}
+
+		//skip back over any empty runs starting at the same point
+		while( run >= 0 && RUN_START[ run ] + RUN_LENGTH[ run ] <= point )
+
+			run = run + 1 < PART_FIRST_RUN[ part + 1 ] ? run + 1 : -1;
+
+		return run;
+	}
+
+/**
+ *
+ * Gets the formation index at the grid point nearest to a given longitude
+ *
+ * @param lon The longitude to look up
+ * @param lonInterval The longitude interval between neighboring points
+ * @return The formation index or -1 if the longitude does not fall in any formation
+ *
+ */
+
+	public int formationAt( double lon, double lonInterval ) {
+
+		int run = runAt( lon, lonInterval );
+
+		return run < 0 ? -1 : RUN_FORMATION[ run ];
+	}
+
+/**
+ *
+ * Determines the index of the grid point nearest to a given longitude from the start of a part
+ *
+ * @param part The index of the part
+ * @param lon The longitude
+ * @param lonInterval The longitude interval between neighboring points
+ * @return The index of the point in the part
+ *
+ */
+
+	private int pointIndex( int part, double lon, double lonInterval ) {
+
+		return (int) Math.round( ( lon - PART_START_LON[ part ] ) / lonInterval );
+	}
+
+/**
+ *
+ * Grows the part arrays so that they hold at least a given number of parts
+ *
+ * @param n The number of parts
+ *
+ */
+
+	private void ensureParts( int n ) {
+
+		if( n < PART_START_LON.length )
+
+			return;
+
+		int size = Math.max( n + 1, PART_START_LON.length << 1 );
+
+		PART_START_LON = Arrays.copyOf( PART_START_LON, size );
+
+		PART_NUM_POINTS = Arrays.copyOf( PART_NUM_POINTS, size );
+
+		PART_FIRST_RUN = Arrays.copyOf( PART_FIRST_RUN, size + 1 );
+	}
+
+/**
+ *
+ * Grows the run arrays so that they hold at least a given number of runs
+ *
+ * @param n The number of runs
+ *
+ */
+
+	private void ensureRuns( int n ) {
+
+		if( n <= RUN_FORMATION.length )
+
+			return;
+
+		int size = Math.max( n, RUN_FORMATION.length << 1 );
+
+		RUN_FORMATION = Arrays.copyOf( RUN_FORMATION, size );
+
+		RUN_LENGTH = Arrays.copyOf( RUN_LENGTH, size );
+
+		RUN_START = Arrays.copyOf( RUN_START, size );
+	}
+
+}
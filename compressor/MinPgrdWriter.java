@@ -0,0 +1,511 @@
+package compressor;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *
+ * A class to write a .min.pgrd file line by line from {@link MinPgrdLine} models. Lines are appended in order through
+ * a large buffer and the header offset table is filled in when the writer is closed. A line of at most
+ * {@link #LARGEST_SHARED_LINE} bytes which is identical to the line before it is not written again: its entry in the
+ * offset table points at the line before it, so runs of identical lines (empty lines or lines inside a single
+ * formation) take the room of one line.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class MinPgrdWriter {
+
+/**
+ *
+ * The size of the write buffer
+ *
+ */
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+/**
+ *
+ * The size in bytes of the largest line compared with the line before it
+ *
+ */
+
+	public static final int LARGEST_SHARED_LINE = 4096;
+
+	private RandomAccessFile raf;
+
+	private FileChannel channel;
+
+	private ByteBuffer buffer;
+
+/**
+ *
+ * The header of the file, offset table included
+ *
+ */
+
+	private ByteBuffer header;
+
+/**
+ *
+ * The number of lines of the file
+ *
+ */
+
+	public final int NUMBER_LATITUDE_LINES;
+
+/**
+ *
+ * The index of the next line to be written
+ *
+ */
+
+	private int nextLine;
+
+/**
+ *
+ * Maintains the write offset in the file
+ *
+ */
+
+	private long writeOffset;
+
+/**
+ *
+ * The bytes, size ( -1 if the line is too large to be shared ) and offset of the last line written. The bytes of a
+ * line copied from another channel are only read back from the file when the next line has the same size.
+ *
+ */
+
+	private byte [] lastLine = new byte[ LARGEST_SHARED_LINE ];
+
+	private int lastSize = -1;
+
+	private long lastOffset;
+
+	private boolean lastLoaded = false;
+
+	private ByteBuffer small = ByteBuffer.allocate( LARGEST_SHARED_LINE );
+
+/**
+ *
+ * The attribute dictionary written after the last line, if any
+ *
+ */
+
+	private AttributeDictionary dictionary;
+
+/**
+ *
+ * The width in bytes of the formation identifiers
+ *
+ */
+
+	private int idLength;
+
+/**
+ *
+ * Constructor. Creates (or truncates) the file and reserves room for the header.
+ *
+ * @param fileName The path, name and extension of the file to write
+ * @param minLat The minimum latitude of the bounding box
+ * @param minLon The minimum longitude of the bounding box
+ * @param maxLat The maximum latitude of the bounding box
+ * @param maxLon The maximum longitude of the bounding box
+ * @param latInterval The latitude interval between neighboring lines
+ * @param lonInterval The longitude interval between neighboring points
+ * @param numLines The number of lines of the file
+ * @param identifierType The length in bytes of a formation index, with the format flags in its upper 16 bits
+ * 			(see {@link MinPgrdFile#FLAGS})
+ * @throws IOException
+ *
+ */
+
+	public MinPgrdWriter( String fileName, double minLat, double minLon, double maxLat, double maxLon,
+						  double latInterval, double lonInterval, int numLines, int identifierType ) throws IOException {
+
+		raf = new RandomAccessFile( fileName, "rw" );
+
+		raf.setLength( 0 );
+
+		channel = raf.getChannel();
+
+		NUMBER_LATITUDE_LINES = numLines;
+
+		header = ByteBuffer.allocate( 56 + 4*numLines );
+
+		header.putDouble( minLat )
+			  .putDouble( minLon )
+			  .putDouble( maxLat )
+			  .putDouble( maxLon )
+			  .putDouble( latInterval )
+			  .putDouble( lonInterval )
+			  .putInt( numLines )
+			  .putInt( identifierType );
+
+		idLength = identifierType & 0xFFFF;
+
+		buffer = ByteBuffer.allocate( BUFFER_SIZE );
+
+		writeOffset = header.capacity();
+
+		channel.position( writeOffset );
+
+		nextLine = 0;
+	}
+
+/**
+ *
+ * Constructor for a file with the same header fields ( and attribute dictionary ) as another one
+ *
+ * @param fileName The path, name and extension of the file to write
+ * @param like The file to copy the header fields of
+ * @throws IOException
+ *
+ */
+
+	public MinPgrdWriter( String fileName, MinPgrdFile like ) throws IOException {
+
+		this( fileName, like.MINIMUM_LATITUDE, like.MINIMUM_LONGITUDE, like.MAXIMUM_LATITUDE, like.MAXIMUM_LONGITUDE,
+			  like.LATITUDE_INTERVAL, like.LONGITUDE_INTERVAL, like.NUMBER_LATITUDE_LINES,
+			  like.TYPE_OF_SEGMENT_IDENTIFIER | like.FLAGS << 16 );
+
+		dictionary = like.DICTIONARY;
+	}
+
+/**
+ *
+ * Sets the attribute dictionary written after the last line. The file must be flagged with
+ * {@link MinPgrdFile#ATTRIBUTE_DICTIONARY}.
+ *
+ * @param dictionary The dictionary
+ *
+ */
+
+	public void setDictionary( AttributeDictionary dictionary ) {
+
+		this.dictionary = dictionary;
+	}
+
+/**
+ *
+ * Appends the next line to the file
+ *
+ * @param line The line model to write
+ * @throws IOException
+ *
+ */
+
+	public void writeLine( MinPgrdLine line ) throws IOException {
+
+		int size = line.encodedSize( idLength );
+
+		if( size <= LARGEST_SHARED_LINE ) {
+
+			small.clear();
+
+			line.encode( small, idLength );
+
+			small.flip();
+
+			writeSmallLine( small );
+
+			return;
+		}
+
+		lastSize = -1;
+
+		if( size > buffer.remaining() )
+
+			flush();
+
+		if( size > buffer.capacity() )
+
+			buffer = ByteBuffer.allocate( size );
+
+		startLine();
+
+		line.encode( buffer, idLength );
+
+		writeOffset += size;
+	}
+
+/**
+ *
+ * Appends the next line to the file as it is encoded in another file
+ *
+ * @param encoded A buffer holding exactly the encoded line between its position and limit
+ * @throws IOException
+ *
+ */
+
+	public void writeLine( ByteBuffer encoded ) throws IOException {
+
+		if( encoded.remaining() <= LARGEST_SHARED_LINE ) {
+
+			writeSmallLine( encoded );
+
+			return;
+		}
+
+		lastSize = -1;
+
+		startLine();
+
+		writeOffset += writeBytes( encoded );
+	}
+
+/**
+ *
+ * Appends the next line to the file by copying it from another file channel to channel, without passing the
+ * bytes through the heap unless the line has the size of the line before it and may share its offset
+ *
+ * @param source The channel of the file holding the encoded line
+ * @param position The offset of the line in the source file
+ * @param size The size in bytes of the encoded line
+ * @throws IOException
+ *
+ */
+
+	public void transferLine( FileChannel source, long position, int size ) throws IOException {
+
+		//only a line of the same size as the line before it can share its offset, any other line is copied directly
+		if( size == lastSize ) {
+
+			small.clear();
+
+			small.limit( size );
+
+			while( small.hasRemaining() ) {
+
+				if( source.read( small, position + small.position() ) <= 0 )
+
+					throw new IOException( "Could not copy line from source file" );
+			}
+
+			small.flip();
+
+			writeSmallLine( small );
+
+			return;
+		}
+
+		startLine();
+
+		flush();
+
+		lastSize = size <= LARGEST_SHARED_LINE ? size : -1;
+
+		lastOffset = writeOffset;
+
+		lastLoaded = false;
+
+		long done = 0;
+
+		while( done < size ) {
+
+			long n = source.transferTo( position + done, size - done, channel );
+
+			if( n <= 0 )
+
+				throw new IOException( "Could not copy line from source file" );
+
+			done += n;
+		}
+
+		writeOffset += size;
+	}
+
+/**
+ *
+ * Appends a line of at most {@link #LARGEST_SHARED_LINE} bytes, or only points its offset at the last line written
+ * if it is the same
+ *
+ * @param encoded A buffer holding exactly the encoded line between its position and limit
+ * @throws IOException
+ *
+ */
+
+	private void writeSmallLine( ByteBuffer encoded ) throws IOException {
+
+		int size = encoded.remaining();
+
+		if( size == lastSize && !lastLoaded ) {
+
+			//the last line was copied from another channel and is already out of the write buffer
+			ByteBuffer last = ByteBuffer.wrap( lastLine, 0, size );
+
+			while( last.hasRemaining() ) {
+
+				if( channel.read( last, lastOffset + last.position() ) <= 0 )
+
+					throw new IOException( "Could not read back the last line written" );
+			}
+
+			lastLoaded = true;
+		}
+
+		if( size == lastSize && encoded.equals( ByteBuffer.wrap( lastLine, 0, size ) ) ) {
+
+			startLine( lastOffset );
+
+			return;
+		}
+
+		startLine();
+
+		encoded.mark();
+
+		encoded.get( lastLine, 0, size );
+
+		encoded.reset();
+
+		lastSize = size;
+
+		lastOffset = writeOffset;
+
+		lastLoaded = true;
+
+		writeOffset += writeBytes( encoded );
+	}
+
+/**
+ *
+ * Appends raw bytes to the file at the current write offset without starting a line
+ *
+ * @param bytes A buffer holding the bytes between its position and limit
+ * @return The number of bytes written
+ * @throws IOException
+ *
+ */
+
+	private int writeBytes( ByteBuffer bytes ) throws IOException {
+
+		int size = bytes.remaining();
+
+		if( size > buffer.remaining() )
+
+			flush();
+
+		if( size > buffer.capacity() ) {
+
+			while( bytes.hasRemaining() )
+
+				channel.write( bytes );
+		}
+		else
+			buffer.put( bytes );
+
+		return size;
+	}
+
+/**
+ *
+ * Records the write offset as the offset of the next line in the header
+ *
+ * @throws IOException
+ *
+ */
+
+	private void startLine() throws IOException {
+
+		startLine( writeOffset );
+	}
+
+/**
+ *
+ * Records the offset of the next line in the header
+ *
+ * @param offset The offset of the line, the write offset or the offset of a line already written
+ * @throws IOException
+ *
+ */
+
+	private void startLine( long offset ) throws IOException {
+
+		if( nextLine >= NUMBER_LATITUDE_LINES )
+
+			throw new IOException( "More lines written than declared in the header" );
+
+		if( writeOffset > Integer.MAX_VALUE )
+
+			throw new IOException( "File grew beyond the 2 GB addressable by the line offset table" );
+
+		header.putInt( 56 + 4*nextLine++, (int) offset );
+	}
+
+/**
+ *
+ * Gets the offset at which the next line will be written
+ *
+ * @return The write offset
+ *
+ */
+
+	public long getWriteOffset() {
+
+		return writeOffset;
+	}
+
+/**
+ *
+ * Writes out the buffered lines
+ *
+ * @throws IOException
+ *
+ */
+
+	private void flush() throws IOException {
+
+		buffer.flip();
+
+		while( buffer.hasRemaining() )
+
+			channel.write( buffer );
+
+		buffer.clear();
+	}
+
+/**
+ *
+ * Writes out the buffered lines and the header and closes the file
+ *
+ * @throws IOException
+ *
+ */
+
+	public void close() throws IOException {
+
+		try {
+
+			flush();
+
+			if( nextLine != NUMBER_LATITUDE_LINES )
+
+				throw new IOException( "Only " + nextLine + " of " + NUMBER_LATITUDE_LINES + " lines were written" );
+
+			if( dictionary != null ) {
+
+				ByteBuffer trailer = ByteBuffer.wrap( dictionary.encode( writeOffset ) );
+
+				while( trailer.hasRemaining() )
+
+					channel.write( trailer, writeOffset + trailer.position() );
+			}
+
+			header.rewind();
+
+			while( header.hasRemaining() )
+
+				channel.write( header, header.position() );
+		}
+		finally {
+
+			raf.close();
+		}
+	}
+
+}
@@ -0,0 +1,669 @@
+package compressor;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import utils.RecordOutOfBoundsException;
+
+/**
+ *
+ * A class to expand a .min.pgrd file back into the uncompressed .pgrd layout read by {@link PgrdFile}, or into a
+ * raw row-major raster ( *.bil with an ESRI *.hdr header ). Lines are decoded and encoded by a pool of workers in
+ * blocks, each block being assembled in a single buffer so that the file is written with a few large writes.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class PgrdExpander {
+
+/**
+ *
+ * The number of lines handed to a worker at a time
+ *
+ */
+
+	private static final int LINES_PER_BLOCK = 256;
+
+/**
+ *
+ * The approximate number of bytes of raster a worker writes at a time
+ *
+ */
+
+	private static final int RASTER_BLOCK_BYTES = 1 << 22;
+
+/**
+ *
+ * The raster value of points outside every formation
+ *
+ */
+
+	public static final int RASTER_NO_DATA = 0xFFFF;
+
+/**
+ *
+ * A class to hold a block of encoded .pgrd lines
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+	private static class PgrdBlock {
+
+		public ByteBuffer BYTES;
+
+		public int FIRST_LINE;
+
+		public int [] LINE_SIZES;
+
+		public PgrdBlock( int firstLine, int numLines ) {
+
+			BYTES = ByteBuffer.allocate( 1 << 16 );
+
+			FIRST_LINE = firstLine;
+
+			LINE_SIZES = new int[ numLines ];
+		}
+
+/**
+ *
+ * Makes sure a number of bytes can be put in the buffer
+ *
+ * @param n The number of bytes
+ *
+ */
+
+		public void ensure( int n ) {
+
+			if( BYTES.remaining() < n ) {
+
+				ByteBuffer bigger = ByteBuffer.allocate( Math.max( BYTES.capacity() << 1, BYTES.position() + n ) );
+
+				BYTES.flip();
+
+				bigger.put( BYTES );
+
+				BYTES = bigger;
+			}
+		}
+
+	}
+
+/**
+ *
+ * The file to expand
+ *
+ */
+
+	private MinPgrdFile mpf;
+
+/**
+ *
+ * Constructor
+ *
+ * @param minPgrdFile The file to expand
+ *
+ */
+
+	public PgrdExpander( MinPgrdFile minPgrdFile ) {
+
+		mpf = minPgrdFile;
+	}
+
+/**
+ *
+ * Writes the grid in the .pgrd layout. Each run becomes a segment of its formation whose bounds put the run's points
+ * back on the same longitudes when the file is minified again with the same longitude interval.
+ *
+ * @param fileName The path, name and extension of the .pgrd file to write
+ * @param numThreads The number of worker threads to use
+ * @throws IOException
+ *
+ */
+
+	public void writePgrd( String fileName, int numThreads ) throws IOException {
+
+		final int numLines = mpf.NUMBER_LATITUDE_LINES;
+
+		int headerLength = 48 + 8*numLines;
+
+		RandomAccessFile raf = new RandomAccessFile( fileName, "rw" );
+
+		ExecutorService pool = Executors.newFixedThreadPool( numThreads );
+
+		ArrayDeque< Future< PgrdBlock > > pending = new ArrayDeque< Future< PgrdBlock > >();
+
+		try {
+
+			raf.setLength( 0 );
+
+			FileChannel channel = raf.getChannel();
+
+			ByteBuffer header = ByteBuffer.allocate( headerLength );
+
+			header.putDouble( mpf.MINIMUM_LATITUDE )
+				  .putDouble( mpf.MINIMUM_LONGITUDE )
+				  .putDouble( mpf.MAXIMUM_LATITUDE )
+				  .putDouble( mpf.MAXIMUM_LONGITUDE )
+				  .putDouble( mpf.LATITUDE_INTERVAL )
+				  .putInt( numLines )
+				  .putInt( mpf.TYPE_OF_SEGMENT_IDENTIFIER );
+
+			long writeOffset = headerLength;
+
+			channel.position( headerLength );
+
+			for( int start = 0; start < numLines; start += LINES_PER_BLOCK ) {
+
+				final int blockStart = start;
+
+				pending.add( pool.submit( new Callable< PgrdBlock >() {
+
+					@Override
+					public PgrdBlock call() throws RecordOutOfBoundsException {
+
+						return encodePgrdBlock( blockStart, Math.min( blockStart + LINES_PER_BLOCK, numLines ) );
+					}
+
+				}));
+
+				//keep a bounded number of blocks in flight
+				while( pending.size() > 2*numThreads )
+
+					writeOffset = writePgrdBlock( take( pending.poll() ), channel, header, writeOffset );
+			}
+
+			while( !pending.isEmpty() )
+
+				writeOffset = writePgrdBlock( take( pending.poll() ), channel, header, writeOffset );
+
+			header.rewind();
+
+			channel.write( header, 0 );
+		}
+		finally {
+
+			pool.shutdownNow();
+
+			raf.close();
+		}
+	}
+
+/**
+ *
+ * Appends an encoded block to the .pgrd file and records the offsets of its lines in the header
+ *
+ * @param block The encoded block
+ * @param channel The channel of the .pgrd file, positioned at the end of the previous block
+ * @param header The header of the .pgrd file
+ * @param writeOffset The offset at which the block is written
+ * @return The offset following the block
+ * @throws IOException
+ *
+ */
+
+	private static long writePgrdBlock( PgrdBlock block, FileChannel channel, ByteBuffer header, long writeOffset ) throws IOException {
+
+		for( int l = 0; l < block.LINE_SIZES.length; l++ ) {
+
+			header.putLong( 48 + 8*( block.FIRST_LINE + l ), writeOffset );
+
+			writeOffset += block.LINE_SIZES[ l ];
+		}
+
+		block.BYTES.flip();
+
+		while( block.BYTES.hasRemaining() )
+
+			channel.write( block.BYTES );
+
+		return writeOffset;
+	}
+
+/**
+ *
+ * Encodes a block of lines in the .pgrd layout
+ *
+ * @param start The index of the first line of the block
+ * @param end The index following the last line of the block
+ * @return The encoded block
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	private PgrdBlock encodePgrdBlock( int start, int end ) throws RecordOutOfBoundsException {
+
+		PgrdBlock block = new PgrdBlock( start, end - start );
+
+		MinPgrdLine line = new MinPgrdLine();
+
+		ByteBuffer view = mpf.view();
+
+		long [] order = new long[ 32 ];
+
+		float [] west = new float[ 32 ], east = new float[ 32 ];
+
+		for( int l = start; l < end; l++ ) {
+
+			mpf.getLine( l, line, view );
+
+			double lonInterval = mpf.lineLongitudeInterval( l );
+
+			if( west.length < line.NUM_RUNS ) {
+
+				west = new float[ line.NUM_RUNS << 1 ];
+
+				east = new float[ line.NUM_RUNS << 1 ];
+			}
+
+			segmentBounds( line, lonInterval, west, east );
+
+			//group the runs of the line by formation, keeping them west to east within a formation
+			if( order.length < line.NUM_RUNS )
+
+				order = new long[ line.NUM_RUNS << 1 ];
+
+			int numRuns = 0;
+
+			//runs without points are kept: such a run is the only run of a part too narrow to hold a point
+			for( int r = 0; r < line.NUM_RUNS; r++ )
+
+				order[ numRuns++ ] = ( (long) line.RUN_FORMATION[ r ] << 32 ) | r;
+
+			Arrays.sort( order, 0, numRuns );
+
+			int numFormations = 0;
+
+			for( int r = 0; r < numRuns; r++ ) {
+
+				if( r == 0 || ( order[ r ] >>> 32 ) != ( order[ r - 1 ] >>> 32 ) )
+
+					numFormations++;
+			}
+
+			int lineSize = 8 + 4*numFormations + ( 4 + mpf.TYPE_OF_SEGMENT_IDENTIFIER )*numFormations + 8*numRuns;
+
+			block.ensure( lineSize );
+
+			ByteBuffer out = block.BYTES;
+
+			int lineStart = out.position();
+
+			out.putInt( lineSize ).putInt( numFormations );
+
+			int formationTable = out.position();
+
+			out.position( formationTable + 4*numFormations );
+
+			int f = 0;
+
+			for( int r = 0; r < numRuns; ) {
+
+				int formation = (int) ( order[ r ] >>> 32 );
+
+				int last = r;
+
+				while( last < numRuns && ( order[ last ] >>> 32 ) == formation )
+
+					last++;
+
+				out.putInt( formationTable + 4*f++, out.position() - lineStart );
+
+				out.putInt( last - r );
+
+				MinPgrdLine.putIdentifier( out, formation, mpf.TYPE_OF_SEGMENT_IDENTIFIER );
+
+				for( ; r < last; r++ ) {
+
+					int run = (int) order[ r ];
+
+					out.putFloat( west[ run ] );
+
+					out.putFloat( east[ run ] );
+				}
+			}
+
+			block.LINE_SIZES[ l - start ] = lineSize;
+		}
+
+		return block;
+	}
+
+/**
+ *
+ * Computes the segment bounds of the runs of a line which the minifier turns back into the same runs and parts. The
+ * minifier counts floor( ( east - west )/interval ) points in the first segment of a part, starting at west plus one
+ * interval, and carries the west bound of the next segment by adding the points counted in float arithmetic; the
+ * bounds follow the same arithmetic. Every east bound is the smallest float giving the length of its run, so that it
+ * lies on the last point of the run (within float rounding) and a gap of more than two intervals between two parts
+ * still breaks the part.
+ *
+ * @param line The line
+ * @param lonInterval The longitude interval of the line
+ * @param west The west bound of every run, indexed as the runs of the line
+ * @param east The east bound of every run, indexed as the runs of the line
+ *
+ */
+
+	private static void segmentBounds( MinPgrdLine line, double lonInterval, float [] west, float [] east ) {
+
+		float interval = (float) lonInterval;
+
+		for( int p = 0; p < line.NUM_PARTS; p++ ) {
+
+			float lastWest = 0, lastEast = 0;
+
+			boolean started = false;
+
+			for( int run = line.PART_FIRST_RUN[p]; run < line.PART_FIRST_RUN[ p + 1 ]; run++ ) {
+
+				int length = line.RUN_LENGTH[ run ];
+
+				if( !started ) {
+
+					//the minifier puts the first point of a part one interval east of its west bound
+					float firstPoint = (float) ( line.PART_START_LON[p] + line.RUN_START[ run ]*lonInterval );
+
+					lastWest = firstPoint - interval;
+
+					while( lastWest + interval < firstPoint )
+
+						lastWest = Math.nextUp( lastWest );
+
+					while( lastWest + interval > firstPoint )
+
+						lastWest = Math.nextDown( lastWest );
+
+					west[ run ] = lastWest;
+
+					started = true;
+				}
+				else
+					west[ run ] = lastEast;
+
+				float bound = lastWest + length*interval;
+
+				while( Math.floor( ( bound - lastWest )/lonInterval ) < length )
+
+					bound = Math.nextUp( bound );
+
+				while( Math.floor( ( Math.nextDown( bound ) - lastWest )/lonInterval ) >= length )
+
+					bound = Math.nextDown( bound );
+
+				east[ run ] = lastEast = bound;
+
+				lastWest = length*interval + lastWest;
+			}
+		}
+	}
+
+/**
+ *
+ * Finds the part a run belongs to
+ *
+ * @param line The line holding the run
+ * @param run The index of the run
+ * @return The index of the part
+ *
+ */
+
+	private static int partOf( MinPgrdLine line, int run ) {
+
+		int lo = 0, hi = line.NUM_PARTS - 1;
+
+		while( lo < hi ) {
+
+			int mid = ( lo + hi + 1 ) >>> 1;
+
+			if( line.PART_FIRST_RUN[ mid ] <= run )
+
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+
+		return lo;
+	}
+
+/**
+ *
+ * Writes the grid as a raw raster of unsigned 16 bit big endian formation indices, one row per line from north to
+ * south, along with an ESRI .hdr header describing it. Points outside every formation are set to RASTER_NO_DATA.
+ * Rows have a fixed size so every worker writes its rows straight to their place in the file. Grids with formation
+ * identifiers wider than 16 bits and equal area grids, whose lines do not share columns, are refused.
+ *
+ * @param name The path and name of the raster (without extension)
+ * @param numThreads The number of worker threads to use
+ * @throws IOException
+ *
+ */
+
+	public void writeRaster( String name, int numThreads ) throws IOException {
+
+		if( mpf.TYPE_OF_SEGMENT_IDENTIFIER > 2 )
+
+			throw new IOException( "The formation indices of the grid do not fit in a 16 bit raster" );
+
+		if( ( mpf.FLAGS & MinPgrdFile.EQUAL_AREA ) != 0 )
+
+			throw new IOException( "The lines of an equal area grid do not share the columns of a raster" );
+
+		final int numLines = mpf.NUMBER_LATITUDE_LINES;
+
+		final int numColumns = (int) Math.round( ( mpf.MAXIMUM_LONGITUDE - mpf.MINIMUM_LONGITUDE )/mpf.LONGITUDE_INTERVAL ) + 1;
+
+		final int rowsPerBlock = Math.max( 1, RASTER_BLOCK_BYTES/( 2*numColumns ) );
+
+		RandomAccessFile raf = new RandomAccessFile( name + ".bil", "rw" );
+
+		ExecutorService pool = Executors.newFixedThreadPool( numThreads );
+
+		ArrayDeque< Future< Object > > blocks = new ArrayDeque< Future< Object > >();
+
+		try {
+
+			raf.setLength( 0 );
+
+			raf.setLength( 2L*numColumns*numLines );
+
+			final FileChannel channel = raf.getChannel();
+
+			for( int start = 0; start < numLines; start += rowsPerBlock ) {
+
+				final int blockStart = start;
+
+				blocks.add( pool.submit( new Callable< Object >() {
+
+					@Override
+					public Object call() throws RecordOutOfBoundsException, IOException {
+
+						writeRasterBlock( channel, blockStart, Math.min( blockStart + rowsPerBlock, numLines ), numColumns );
+
+						return null;
+					}
+
+				}));
+			}
+
+			while( !blocks.isEmpty() )
+
+				take( blocks.poll() );
+		}
+		finally {
+
+			pool.shutdownNow();
+
+			raf.close();
+		}
+
+		FileWriter hdr = new FileWriter( name + ".hdr" );
+
+		try {
+
+			hdr.write( "BYTEORDER M\n" );
+			hdr.write( "LAYOUT BIL\n" );
+			hdr.write( "NROWS " + numLines + "\n" );
+			hdr.write( "NCOLS " + numColumns + "\n" );
+			hdr.write( "NBANDS 1\n" );
+			hdr.write( "NBITS 16\n" );
+			hdr.write( "ULXMAP " + mpf.MINIMUM_LONGITUDE + "\n" );
+			hdr.write( "ULYMAP " + mpf.lineLatitude( numLines - 1 ) + "\n" );
+			hdr.write( "XDIM " + mpf.LONGITUDE_INTERVAL + "\n" );
+			hdr.write( "YDIM " + mpf.LATITUDE_INTERVAL + "\n" );
+			hdr.write( "NODATA " + RASTER_NO_DATA + "\n" );
+		}
+		finally {
+
+			hdr.close();
+		}
+	}
+
+/**
+ *
+ * Rasterizes a block of lines and writes the rows to their place in the raster
+ *
+ * @param channel The channel of the raster file
+ * @param start The index of the first line of the block
+ * @param end The index following the last line of the block
+ * @param numColumns The number of columns of the raster
+ * @throws RecordOutOfBoundsException
+ * @throws IOException
+ *
+ */
+
+	private void writeRasterBlock( FileChannel channel, int start, int end, int numColumns ) throws RecordOutOfBoundsException, IOException {
+
+		MinPgrdLine line = new MinPgrdLine();
+
+		ByteBuffer view = mpf.view();
+
+		short [] row = new short[ numColumns ];
+
+		ByteBuffer bytes = ByteBuffer.allocate( 2*numColumns*( end - start ) );
+
+		ShortBuffer shorts = bytes.asShortBuffer();
+
+		//rows run north to south, so the block is filled from its last line to its first
+		for( int l = end - 1; l >= start; l-- ) {
+
+			mpf.getLine( l, line, view );
+
+			Arrays.fill( row, (short) RASTER_NO_DATA );
+
+			for( int p = 0; p < line.NUM_PARTS; p++ ) {
+
+				int firstColumn = (int) Math.round( ( line.PART_START_LON[ p ] - mpf.MINIMUM_LONGITUDE )/mpf.LONGITUDE_INTERVAL );
+
+				for( int r = line.PART_FIRST_RUN[ p ]; r < line.PART_FIRST_RUN[ p + 1 ]; r++ ) {
+
+					int from = Math.max( 0, firstColumn + line.RUN_START[ r ] );
+
+					int to = Math.min( numColumns, firstColumn + line.RUN_START[ r ] + line.RUN_LENGTH[ r ] );
+
+					if( from < to )
+
+						Arrays.fill( row, from, to, (short) line.RUN_FORMATION[ r ] );
+				}
+			}
+
+			shorts.put( row );
+		}
+
+		long position = 2L*numColumns*( mpf.NUMBER_LATITUDE_LINES - end );
+
+		while( bytes.hasRemaining() )
+
+			position += channel.write( bytes, position );
+	}
+
+/**
+ *
+ * Waits for the result of a worker
+ *
+ * @param future The pending result
+ * @return The result
+ * @throws IOException
+ *
+ */
+
+	private static < T > T take( Future< T > future ) throws IOException {
+
+		try {
+
+			return future.get();
+		}
+		catch( InterruptedException ie ) {
+
+			throw new IOException( "Interrupted while expanding file" );
+		}
+		catch( ExecutionException ee ) {
+
+			throw new IOException( "Failed to expand line: " + ee.getCause() );
+		}
+	}
+
+/**
+ *
+ * Expands a .min.pgrd file
+ *
+ * @param args args[0] : path, name and extension of the .min.pgrd file
+ * 				args[1] : path and name of the file to write (without extension)
+ * 				args[2...] : (optional) options:
+ * 					--raw : write a raw raster ( .bil and .hdr ) instead of a .pgrd file
+ * 					--threads n : number of worker threads, defaults to the number of available processors
+ *
+ */
+
+	public static void main( String [] args ) {
+
+		if( args.length < 2 ) {
+
+			System.out.println( "Invalid number of arguments!" );
+
+			return;
+		}
+
+		boolean raw = false;
+
+		int numThreads = Runtime.getRuntime().availableProcessors();
+
+		for( int o = 2; o < args.length; o++ ) {
+
+			switch( args[o] ) {
+
+				case "--raw": raw = true; break;
+
+				case "--threads": numThreads = Math.max( 1, Integer.parseInt( args[++o] ) ); break;
+
+				default: System.out.println( "Unknown option: " + args[o] ); return;
+			}
+		}
+
+		try {
+
+			PgrdExpander expander = new PgrdExpander( new MinPgrdFile( args[0] ) );
+
+			if( raw )
+
+				expander.writeRaster( args[1], numThreads );
+			else
+				expander.writePgrd( args[1] + ".pgrd", numThreads );
+
+		}
+		catch( IOException ioe ) { System.out.println( "Exception thrown! : " + ioe.getMessage() ); }
+	}
+
+}
@@ -171,14 +171,14 @@ public class PgrdFile extends FileModel {
  * 
  * @param lineIndex The index (starting at 0) of the line
  * @param formationIndex The index (starting at 0) of the formation in a given line
- * @return The id index for the geologic formation
+ * @return The id index for the geologic formation, read unsigned in the TYPE_OF_SEGMENT_IDENTIFIER bytes of the identifier
  * @throws RecordOutOfBoundsException
  * 
  */
 	
-	public short getFormationIndex( int lineIndex, int formationIndex ) throws RecordOutOfBoundsException {
+	public int getFormationIndex( int lineIndex, int formationIndex ) throws RecordOutOfBoundsException {
 		
-		return getShortFrom( (short)0, B_END, (long) formationOffset( lineIndex , formationIndex ) + lineOffset( lineIndex ) + 4 );
+		return getUnsignedFrom( (short)0, (long) formationOffset( lineIndex , formationIndex ) + lineOffset( lineIndex ) + 4, TYPE_OF_SEGMENT_IDENTIFIER );
 		
 	}
 	
@@ -200,8 +200,8 @@ public class PgrdFile extends FileModel {
 			throw new RecordOutOfBoundsException();
 		}
 		
-		return new float[] { getFloatFrom( (short)0, B_END, (long) formationOffset( lineIndex , formationIndex ) + lineOffset( lineIndex ) + 6 +8*segmentIndex),
-							 getFloatFrom( (short) 0, B_END, (long) formationOffset( lineIndex , formationIndex ) + lineOffset( lineIndex ) + 10 + 8*segmentIndex)
+		return new float[] { getFloatFrom( (short)0, B_END, (long) formationOffset( lineIndex , formationIndex ) + lineOffset( lineIndex ) + 4 + TYPE_OF_SEGMENT_IDENTIFIER + 8*segmentIndex),
+							 getFloatFrom( (short) 0, B_END, (long) formationOffset( lineIndex , formationIndex ) + lineOffset( lineIndex ) + 8 + TYPE_OF_SEGMENT_IDENTIFIER + 8*segmentIndex)
 						   };
 	} 
 
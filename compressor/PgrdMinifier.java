@@ -6,11 +6,17 @@ import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 
+import utils.BuildCheckpoint;
+import utils.DbfFile;
 import utils.FailedPgrdBuild;
 import utils.FileModel;
 import utils.RecordOutOfBoundsException;
@@ -149,6 +155,9 @@ public class PgrdMinifier extends FileModel {
 		
 		public int lineIndex;
 		
+		//the longitude interval between neighboring points of the line
+		public double lonInterval;
+		
 		public int LINE_SIZE;
 		
 		public int NUM_PARTS;
@@ -173,6 +182,8 @@ public class PgrdMinifier extends FileModel {
 			
 			this.lineIndex = lineIndex;
 			
+			lonInterval = lineLongitudeInterval( lineIndex );
+			
 			startParts = new ArrayList<Integer>();
 			
 			segments = new ArrayList<MinSegment>();
@@ -203,6 +214,8 @@ public class PgrdMinifier extends FileModel {
 			
 			this.lineIndex = lineIndex;
 			
+			lonInterval = lineLongitudeInterval( lineIndex );
+			
 			fillSegments( pSegs );
 			
 			LINE_SIZE = getLineSize();
@@ -225,7 +238,7 @@ public class PgrdMinifier extends FileModel {
 			
 			for( int l = 0; l + 1 < pSegs.size(); l++ ) {
 				
-				if( ( pSegs.get( l+1 ).WEST_BOUND - pSegs.get( l ).EAST_BOUND ) > longitudeInterval ) {
+				if( ( pSegs.get( l+1 ).WEST_BOUND - pSegs.get( l ).EAST_BOUND ) > lonInterval ) {
 					
 					startParts.add( new Integer( l+1 ) );
 					
@@ -255,21 +268,156 @@ public class PgrdMinifier extends FileModel {
 			
 			int numPoints = 0;
 			
+			//the index in startParts of the next part to start, the number of parts started and the index in segments
+			//of the first segment of the current part
+			int nextPart = 0, numParts = 0, partStart = 0;
+			
+			//the longitude of the first point of the current part and the number of points in it so far
+			float partStartLon = 0;
+			
+			int partPoints = 0;
+			
 			for( int l = 0; l < pSegs.size(); l++ ) {
 				
-				if( newPart( l ) ) {
+				if( nextPart < startParts.size() && startParts.get( nextPart ).intValue() == l ) {
+					
+					nextPart++;
+					
+					//the first point of the segment if it started a part
+					float startLon = pSegs.get( l ).WEST_BOUND + (float) lonInterval;
+					
+					long units = noDataRuns && l > 0 ? noDataUnits( partStartLon, partPoints, startLon ) : -1;
+					
+					//a no-data run and its offset entry take 8 bytes against 12 for a new part ( part offset, start
+					//longitude and number of points ), and the points east of the gap are those of the new part
+					if( units >= 0 ) {
+						
+						segments.add( new MinSegment( (float) ( partStartLon + partPoints*lonInterval ),
+													  (int) ( units/MinPgrdLine.NO_DATA_OFFSET_UNITS ), MinPgrdLine.NO_DATA ) );
+						
+						segments.add( new MinSegment( startLon, (int) ( units%MinPgrdLine.NO_DATA_OFFSET_UNITS ), MinPgrdLine.NO_DATA ) );
+						
+						partStartLon = startLon;
+						
+						partPoints = 0;
+					}
+					else {
+						
+						//parts are counted in segments, which hold the no-data runs
+						startParts.set( numParts++, Integer.valueOf( segments.size() ) );
+						
+						partStart = segments.size();
+						
+						partStartLon = startLon;
+						
+						partPoints = 0;
+					}
 					
+					//the points are counted as in a new part either way
 					lastWestBound = pSegs.get(l).WEST_BOUND;
 				}					
 				
-				numPoints = (int) Math.floor( ( pSegs.get( l ).EAST_BOUND - lastWestBound )/longitudeInterval );
+				numPoints = (int) Math.floor( ( pSegs.get( l ).EAST_BOUND - lastWestBound )/lonInterval );
+				
+				addSegment( lastWestBound+(float)lonInterval, numPoints, pSegs.get(l).FORM_INDEX, partStart );
 				
-				segments.add( new MinSegment( lastWestBound+(float)longitudeInterval, numPoints, pSegs.get(l).FORM_INDEX ) );
+				lastWestBound = (  numPoints* (float) lonInterval) + lastWestBound ; 
 				
-				lastWestBound = (  numPoints* (float) longitudeInterval) + lastWestBound ; 
+				partPoints += numPoints;
 
 			}
 			
+			while( startParts.size() > numParts )
+				
+				startParts.remove( startParts.size() - 1 );
+			
+		}
+		
+/**
+ * 
+ * A function to find the length of a no-data run and of its offset entry which would start the next stretch of the
+ * current part at a given longitude
+ * 
+ * @param stretchStart The longitude of the first point of the current stretch of the part
+ * @param stretchPoints The number of points of the current stretch
+ * @param startLon The longitude of the first point east of the gap
+ * @return The gap in units of {@link MinPgrdLine#NO_DATA_OFFSET_UNITS} per interval ( the length of the no-data run
+ * 			times the units plus the length of the offset entry ), or -1 if the gap does not fit a short or no offset
+ * 			gives back the longitude exactly
+ * 
+ */
+		
+		private long noDataUnits( float stretchStart, int stretchPoints, float startLon ) {
+			
+			double units = ( ( startLon - stretchStart )/lonInterval - stretchPoints )*MinPgrdLine.NO_DATA_OFFSET_UNITS;
+			
+			if( units < 0 || units >= ( ShortOverflow.MAX_SIGNED_SHORT - 1.0 )*MinPgrdLine.NO_DATA_OFFSET_UNITS )
+				
+				return -1;
+			
+			long nearest = Math.round( units );
+			
+			//the rounding of the float sum may favour a neighboring unit
+			for( long u = nearest - 2; u <= nearest + 2; u++ ) {
+				
+				int gap = (int) ( u/MinPgrdLine.NO_DATA_OFFSET_UNITS ), offset = (int) ( u%MinPgrdLine.NO_DATA_OFFSET_UNITS );
+				
+				if( u >= 0 && MinPgrdLine.stretchStart( stretchStart, stretchPoints + gap, offset, lonInterval ) == startLon )
+					
+					return u;
+			}
+			
+			return -1;
+		}
+		
+/**
+ * 
+ * A function to add a segment to the current part, coalescing it with the segment before it when both have the
+ * same formation index. A segment without points adds nothing to a part which already has one, and the first
+ * segment of a part takes the formation of the next one while it has no points ( the grid is not changed, as the
+ * points of a run only depend on the lengths of the runs before it ).
+ * 
+ * @param minLon The longitude of the western-most point of the segment
+ * @param numPoints The number of points of the segment
+ * @param formationIndex The formation index of the segment
+ * @param partStart The index in segments of the first segment of the current part
+ * 
+ */
+		
+		private void addSegment( float minLon, int numPoints, int formationIndex, int partStart ) {
+			
+			if( segments.size() > partStart ) {
+				
+				MinSegment last = segments.get( segments.size() - 1 );
+				
+				//a stretch following a no-data run keeps its first segment, as a part does
+				if( numPoints == 0 && last.FORMATION_INDEX != MinPgrdLine.NO_DATA )
+					
+					return;
+				
+				//the offset entry of a no-data run keeps its length even when it is 0
+				if( last.NUM_POINTS == 0 && last.FORMATION_INDEX != MinPgrdLine.NO_DATA ) {
+					
+					last.NUM_POINTS = numPoints;
+					
+					last.FORMATION_INDEX = formationIndex;
+					
+					return;
+				}
+				
+				//lengths which overflow a short are only kept if the overflow table gives them back
+				int length = last.NUM_POINTS + numPoints;
+				
+				if( last.FORMATION_INDEX == formationIndex
+					&& ShortOverflow.overflowingShortAsInt( ShortOverflow.overflowIndex( length ), ShortOverflow.overflowValue( length ) ) == length ) {
+					
+					last.NUM_POINTS = length;
+					
+					return;
+				}
+			}
+			
+			segments.add( new MinSegment( minLon, numPoints, formationIndex ) );
 		}
 		
 /**
@@ -297,7 +445,11 @@ public class PgrdMinifier extends FileModel {
 				
 				for( int n = lowerBound ; n < upperBound; n++ ) {
 					
-						numPoints += segments.get( n ).NUM_POINTS;
+						//the offset entry of a no-data run holds a fraction of an interval, not points
+						if( n == lowerBound || segments.get( n ).FORMATION_INDEX != MinPgrdLine.NO_DATA
+							|| segments.get( n - 1 ).FORMATION_INDEX != MinPgrdLine.NO_DATA )
+						
+							numPoints += segments.get( n ).NUM_POINTS;
 						
 						if( ShortOverflow.overflowIndex( segments.get( n ).NUM_POINTS ) > 0 ) {
 							
@@ -330,60 +482,101 @@ public class PgrdMinifier extends FileModel {
 		
 /**
  * 
- * Determines whether a given segment of the sorted PgrdSegment array list represents the wester-most start of a new part
+ * A function to get the number of parts in a given segment
  * 
- * @param index The index of the PgrdSegment in the array list
- * @return True if the index corresponds to the wester-most segment in a part of the line, false otherwise
+ * @param partNum The index of the part
+ * @return The number of parts in a segment or -1 if invalid argument is given
  * 
  */
 		
-		private boolean newPart( int index ) {
+		public int getNumSegments( int partNum ) {
+			
+			if( partNum < ( NUM_PARTS - 1 ) && partNum >= 0 ) {
+				
+				return startParts.get( partNum + 1 ).intValue() - startParts.get( partNum ).intValue();
+				
+			}
+			else if( partNum + 1 == NUM_PARTS ) {
+				
+				return segments.size() - startParts.get( partNum ).intValue();
+				
+			}
+			else
+				return -1;
 			
-			boolean ret = false;
+		}
+		
+/**
+ * 
+ * Determines whether the line is written with the same bytes as another line
+ * 
+ * @param other The other line
+ * @return True if both lines have the same parts and segments
+ * 
+ */
+		
+		public boolean sameLine( PgrdMinLine other ) {
 			
-			for( int k = 0; k < startParts.size(); k++ ) {
+			if( LINE_SIZE != other.LINE_SIZE || NUM_PARTS != other.NUM_PARTS || segments.size() != other.segments.size()
+				|| !startParts.equals( other.startParts ) )
 				
-				if( startParts.get(k).intValue() == index ) {
-					
-					ret = true;
+				return false;
+			
+			for( int m = 0; m < NUM_PARTS; m++ ) {
+				
+				if( Float.floatToIntBits( PARTS.get( m ).START_LON ) != Float.floatToIntBits( other.PARTS.get( m ).START_LON )
+					|| PARTS.get( m ).NUM_POINTS != other.PARTS.get( m ).NUM_POINTS )
 					
-					break;
-				}
+					return false;
+			}
+			
+			for( int n = 0; n < segments.size(); n++ ) {
 				
+				if( segments.get( n ).FORMATION_INDEX != other.segments.get( n ).FORMATION_INDEX
+					|| segments.get( n ).NUM_POINTS != other.segments.get( n ).NUM_POINTS )
+					
+					return false;
 			}
 			
-			return ret;
+			return true;
 		}
 		
 /**
  * 
- * A function to get the number of parts in a given segment
+ * Encodes a line of at most one run ( an empty line or a line inside a single formation ) in one go
  * 
- * @param partNum The index of the part
- * @return The number of parts in a segment or -1 if invalid argument is given
+ * @param bytes The buffer to encode the line into, with room for {@link #LINE_SIZE} bytes
  * 
  */
 		
-		public int getNumSegments( int partNum ) {
+		public void encodeSingleRun( ByteBuffer bytes ) {
 			
-			if( partNum < ( NUM_PARTS - 1 ) && partNum >= 0 ) {
+			bytes.clear();
+			
+			bytes.putInt( LINE_SIZE ).putInt( NUM_PARTS ).putInt( overflows.size() );
+			
+			if( overflows.size() > 0 )
 				
-				return startParts.get( partNum + 1 ).intValue() - startParts.get( partNum ).intValue();
+				bytes.putInt( 0 ).putShort( overflowIndices.get( 0 ).shortValue() );
+			
+			if( NUM_PARTS > 0 ) {
 				
-			}
-			else if( partNum + 1 == NUM_PARTS ) {
+				MinSegment run = segments.get( 0 );
 				
-				return segments.size() - startParts.get( partNum ).intValue();
+				//the only part starts after the line header, the overflow table and its own offset
+				bytes.putInt( 16 + 6*overflows.size() ).putFloat( PARTS.get( 0 ).START_LON ).putInt( PARTS.get( 0 ).NUM_POINTS );
+				
+				for( int b = idLength - 1; b >= 0; b-- )
+					
+					bytes.put( (byte) ( run.FORMATION_INDEX >>> 8*b ) );
 				
+				bytes.putShort( (short) ShortOverflow.overflowValue( run.NUM_POINTS ) );
 			}
-			else
-				return -1;
-			
 		}
 		
 		private int getLineSize() {
 			
-			return 12+NUM_PARTS*12+segments.size()*4+overflows.size()*6;
+			return 12+NUM_PARTS*12+segments.size()*( idLength + 2 )+overflows.size()*6;
 			
 			
 		}
@@ -458,6 +651,23 @@ public class PgrdMinifier extends FileModel {
 	
 	private ArrayList< PgrdSegment > orderedLineSegments= new ArrayList< PgrdSegment >();
 	
+/**
+ * 
+ * Orders segments from west to east
+ * 
+ */
+	
+	private final Comparator< PgrdSegment > BY_EAST_BOUND = new Comparator< PgrdSegment >() {
+		
+		@Override
+		public int compare( PgrdSegment s1, PgrdSegment s2 ) {
+			
+			return Float.compare(s1.EAST_BOUND, s2.EAST_BOUND);
+			
+		}
+		
+	};
+	
 /**
  * 
  * A singleton instance to store a model of compressed latitude line from PgrdFile
@@ -466,6 +676,99 @@ public class PgrdMinifier extends FileModel {
 	
 	private PgrdMinLine minLine;
 	
+/**
+ * 
+ * The model of the line written before the current one and its offset in the compressed file, kept to share
+ * the offset of identical consecutive lines
+ * 
+ */
+	
+	private PgrdMinLine previousLine;
+	
+/**
+ * 
+ * The bytes of a line of at most one run, written in a single write
+ * 
+ */
+	
+	private ByteBuffer singleRun = ByteBuffer.allocate( 12 + 6 + 12 + MinPgrdLine.MAXIMUM_IDENTIFIER_LENGTH + 2 );
+	
+	private int previousOffset;
+	
+/**
+ * 
+ * The name of the compressed file without extensions
+ * 
+ */
+	
+	private String minPgrdName;
+	
+/**
+ * 
+ * Collects the inverted formation index while lines are written, null unless enabled with writeFormationIndex
+ * 
+ */
+	
+	private FormationIndexWriter formationIndex;
+	
+/**
+ * 
+ * The number of lines of the pgrd file per line of the compressed file ( 1 unless set with setLineStride )
+ * 
+ */
+	
+	private int lineStride = 1;
+	
+/**
+ * 
+ * True if the build continues from its last checkpoint
+ * 
+ */
+	
+	private boolean resume = false;
+	
+/**
+ * 
+ * True if short gaps between the segments of a line are written as no-data runs rather than as new parts
+ * 
+ */
+	
+	private boolean noDataRuns = false;
+	
+/**
+ * 
+ * The formation index written for each formation index of the pgrd file, null unless the runs are coalesced by
+ * attribute with setAttributeRuns
+ * 
+ */
+	
+	private int [] attributeIndices;
+	
+/**
+ * 
+ * The dictionary written after the last line, null unless the file is a grid of attribute values
+ * 
+ */
+	
+	private AttributeDictionary dictionary;
+	
+/**
+ * 
+ * The width in bytes of the formation identifiers written, that of the pgrd file unless the file is a grid of
+ * attribute values, whose identifiers are as narrow as the number of values allows
+ * 
+ */
+	
+	private int idLength = MinPgrdLine.MINIMUM_IDENTIFIER_LENGTH;
+	
+/**
+ * 
+ * True if the longitude interval of every line is scaled with its latitude ( see setEqualArea )
+ * 
+ */
+	
+	private boolean equalArea = false;
+	
 /**
  * 
  * Constructor
@@ -488,9 +791,169 @@ public class PgrdMinifier extends FileModel {
 		
 		pgrd = pgrdFile;
 		
+		minPgrdName = pgrdCompressedFile;
+		
 		writeOffset = 0L;
 	}
 	
+/**
+ * 
+ * Enables the inverted formation index sidecar ( *.min.pgrd.fidx ) which is written next to the compressed file
+ * when the build completes. See {@link FormationIndexFile}.
+ * 
+ */
+	
+	public void writeFormationIndex() {
+		
+		formationIndex = new FormationIndexWriter();
+	}
+	
+/**
+ * 
+ * Makes the build continue from its last checkpoint ( *.min.pgrd.ckpt ) if there is one. The checkpoint is removed
+ * once the build completes.
+ * 
+ */
+	
+	public void resume() {
+		
+		resume = true;
+	}
+	
+/**
+ * 
+ * Makes the build write each gap between two segments of a line as a no-data run ( formation index
+ * {@link MinPgrdLine#NO_DATA} ) and its offset entry instead of starting a new part: the run counts the whole
+ * intervals of the gap and the offset entry the fraction of an interval left, so the points east of the gap are those
+ * of the new part a build without the option would start. A gap is written as a new part when it overflows a short
+ * or when no offset gives back the start of the new part exactly. Readers split parts at no-data runs.
+ * 
+ */
+	
+	public void setNoDataRuns() {
+		
+		noDataRuns = true;
+	}
+	
+/**
+ * 
+ * Makes the build space the points of every line by the same ground distance rather than by the same longitude:
+ * the longitude interval of a line is the longitude interval of the build divided by the cosine of the latitude of
+ * the line ( see {@link MinPgrdFile#lineLongitudeInterval(int)} ), so northern lines hold fewer points. The file is
+ * flagged with {@link MinPgrdFile#EQUAL_AREA} and the interval of a line is derived from its latitude by readers.
+ * 
+ */
+	
+	public void setEqualArea() {
+		
+		equalArea = true;
+	}
+	
+/**
+ * 
+ * Makes the build coalesce runs by the value of a .dbf attribute rather than by formation index: every formation
+ * index is replaced by the index of the first record with the same value of the field, so that neighboring records
+ * sharing a value ( or the parts of a multipart record ) are written as a single run. The file is flagged with
+ * {@link MinPgrdFile#ATTRIBUTE_RUNS}; looking up the attribute of a formation index gives the value of its run.
+ * 
+ * @param dbf The attribute table of the shapefile the pgrd file was built from
+ * @param fieldIndex The index of the field
+ * @throws RecordOutOfBoundsException
+ * 
+ */
+	
+	public void setAttributeRuns( DbfFile dbf, int fieldIndex ) throws RecordOutOfBoundsException {
+		
+		HashMap<String, Integer> firstRecords = new HashMap<String, Integer>();
+		
+		attributeIndices = new int[ dbf.numRecords ];
+		
+		for( int r = 0; r < dbf.numRecords; r++ ) {
+			
+			String value = dbf.getString( r, fieldIndex );
+			
+			Integer first = firstRecords.get( value );
+			
+			if( first == null ) {
+				
+				first = Integer.valueOf( r );
+				
+				firstRecords.put( value, first );
+			}
+			
+			attributeIndices[ r ] = first.intValue();
+		}
+	}
+	
+/**
+ * 
+ * Makes the build write a grid of the values of a .dbf attribute: every formation index is replaced by the index
+ * of the value of its record in a dictionary of the values of the field, written after the last line of the file
+ * ( see {@link AttributeDictionary} ). Runs are coalesced as with setAttributeRuns, the formation indices of the file
+ * are numbered from 0 to the number of values and lookups give the values without the .dbf file.
+ * 
+ * @param dbf The attribute table of the shapefile the pgrd file was built from
+ * @param fieldIndex The index of the field
+ * @throws IOException if the field has too many values
+ * @throws RecordOutOfBoundsException
+ * 
+ */
+	
+	public void setAttributeGrid( DbfFile dbf, int fieldIndex ) throws IOException, RecordOutOfBoundsException {
+		
+		attributeIndices = new int[ dbf.numRecords ];
+		
+		dictionary = AttributeDictionary.fromDbf( dbf, fieldIndex, attributeIndices );
+	}
+	
+/**
+ * 
+ * Builds a coarser level of the compressed file from the same pgrd file. Only every stride-th line of the pgrd
+ * file is compressed ( the last of each group of stride lines, so that each compressed line keeps the latitude of
+ * the pgrd line it is built from ) and the latitude interval is multiplied by stride. The crossings stored in the
+ * pgrd file are thus reused instead of being computed again from the shapefile.
+ * 
+ * @param stride The number of pgrd lines per compressed line
+ * 
+ */
+	
+	public void setLineStride( int stride ) {
+		
+		lineStride = stride;
+	}
+	
+/**
+ * 
+ * Determines the number of lines of the compressed file
+ * 
+ * @return The number of lines
+ * 
+ */
+	
+	private int numberLines() {
+		
+		return pgrd.NUMBER_LATITUDE_LINES / lineStride;
+	}
+	
+/**
+ * 
+ * Determines the longitude interval between neighboring points of a line of the compressed file
+ * 
+ * @param lineIndex The index of the line in the compressed file
+ * @return The longitude interval
+ * 
+ */
+	
+	private double lineLongitudeInterval( int lineIndex ) {
+		
+		if( !equalArea )
+			
+			return longitudeInterval;
+		
+		//the latitude of the line as readers compute it from the header
+		return MinPgrdFile.equalAreaInterval( longitudeInterval, pgrd.MINIMUM_LATITUDE + ( lineIndex + 1 )*( pgrd.LATITUDE_INTERVAL*lineStride ) );
+	}
+	
 /**
  * 
  * A function to build and write the header of the compressed .pgrd file.
@@ -507,16 +970,19 @@ public class PgrdMinifier extends FileModel {
 												 pgrd.MINIMUM_LONGITUDE,
 												 pgrd.MAXIMUM_LATITUDE,
 												 pgrd.MAXIMUM_LONGITUDE,
-												 pgrd.LATITUDE_INTERVAL,
+												 pgrd.LATITUDE_INTERVAL*lineStride,
 												 longitudeInterval 	};
 		
-		int [] headerInts = new int[2 + pgrd.NUMBER_LATITUDE_LINES]; 
+		int [] headerInts = new int[2 + numberLines()]; 
 		
 		Arrays.fill( headerInts, 0 );
 		
-		headerInts[0] = pgrd.NUMBER_LATITUDE_LINES;
+		headerInts[0] = numberLines();
+		
+		int flags = ( noDataRuns ? MinPgrdFile.NO_DATA_RUNS : 0 ) | ( attributeIndices != null ? MinPgrdFile.ATTRIBUTE_RUNS : 0 )
+					| ( dictionary != null ? MinPgrdFile.ATTRIBUTE_DICTIONARY : 0 ) | ( equalArea ? MinPgrdFile.EQUAL_AREA : 0 );
 		
-		headerInts[1] = pgrd.TYPE_OF_SEGMENT_IDENTIFIER;
+		headerInts[1] = idLength | flags << 16;
 		
 		try {
 			
@@ -538,13 +1004,13 @@ public class PgrdMinifier extends FileModel {
 			
 		} catch( IOException ioe ) {
 			
-			_error_log( "Error, could not write following bytes of header: 47 - "+(pgrd.NUMBER_LATITUDE_LINES*4)+56 );
+			_error_log( "Error, could not write following bytes of header: 47 - "+(numberLines()*4)+56 );
 			
 			return false; 
 			
 		}
 
-		i( 8 + pgrd.NUMBER_LATITUDE_LINES*4 );
+		i( 8 + numberLines()*4 );
 		
 		return true;
 		
@@ -596,6 +1062,14 @@ public class PgrdMinifier extends FileModel {
 				numSegments = pgrd.numberFormationSegments( lineIndex, i );
 				
 				ind = pgrd.getFormationIndex(lineIndex, i);
+				
+				if( attributeIndices != null && ind >= 0 && ind < attributeIndices.length )
+					
+					ind = attributeIndices[ ind ];
+				
+				if( ind < 0 || ind > MinPgrdLine.largestIndex( idLength ) )
+					
+					_error_log( "line "+lineIndex+": formation index "+( ind & 0xFFFFFFFFL )+" does not fit a "+idLength+" byte identifier" );
 			}
 			catch( RecordOutOfBoundsException robe ) {
 				
@@ -624,18 +1098,18 @@ public class PgrdMinifier extends FileModel {
 				
 				orderedLineSegments.add( new PgrdSegment( f[1], f[0], ind ) );				
 			}
+						
+		}
+		
+		//the segments of a single formation come in order, so lines inside one formation are not sorted
+		for( int l = 0; l + 1 < orderedLineSegments.size(); l++ ) {
 			
-			Collections.sort( orderedLineSegments, new Comparator< PgrdSegment >() {
+			if( Float.compare( orderedLineSegments.get( l ).EAST_BOUND, orderedLineSegments.get( l + 1 ).EAST_BOUND ) > 0 ) {
 				
-				@Override
-				public int compare( PgrdSegment s1, PgrdSegment s2 ) {
-					
-					return Float.compare(s1.EAST_BOUND, s2.EAST_BOUND);
-					
-				}
+				Collections.sort( orderedLineSegments, BY_EAST_BOUND );
 				
-			});
-						
+				break;
+			}
 		}
 		
 		return true;
@@ -646,7 +1120,7 @@ public class PgrdMinifier extends FileModel {
  * 
  * A function build a compressed model of a latitude line in a pgrd file and write line to parent file
  * 
- * @param lineIndex The index of the line in the pgrd file to build a model for
+ * @param lineIndex The index of the line in the compressed file to build a model for
  * 
  */
 	
@@ -654,22 +1128,55 @@ public class PgrdMinifier extends FileModel {
 		
 		int startLineOffset = (int) writeOffset;
 		
-		orderLineSegments( lineIndex );
+		orderLineSegments( ( lineIndex + 1 )*lineStride - 1 );
+		
+		//the models of the current line and of the line before it are swapped from line to line
+		PgrdMinLine line = previousLine;
 		
-		if( minLine != null ) {
+		previousLine = minLine;
+		
+		if( line != null ) {
 			
-			minLine.clear();
+			line.clear();
 			
-			minLine.build( lineIndex, orderedLineSegments );
+			line.build( lineIndex, orderedLineSegments );
 		}
 		else
-			minLine = new PgrdMinLine( lineIndex, orderedLineSegments );
+			line = new PgrdMinLine( lineIndex, orderedLineSegments );
+		
+		minLine = line;
 		
 		try {
 			
+			//a line identical to the line before it only gets its offset
+			if( previousLine != null && minLine.LINE_SIZE <= MinPgrdWriter.LARGEST_SHARED_LINE && minLine.sameLine( previousLine ) ) {
+				
+				putIntAt( (short)0, 56 + 4*lineIndex, previousOffset );
+				
+				indexLine( lineIndex );
+				
+				return true;
+			}
+			
+			previousOffset = startLineOffset;
+			
 			//Write line offset in file header
 			putIntAt( (short)0, 56 + 4*lineIndex, (int) writeOffset );
 			
+			//an empty line or a line inside a single formation skips the field by field writes
+			if( minLine.segments.size() <= 1 ) {
+				
+				minLine.encodeSingleRun( singleRun );
+				
+				putBytesAt( (short)0, writeOffset, singleRun.array(), singleRun.position() );
+				
+				i( minLine.LINE_SIZE );
+				
+				indexLine( lineIndex );
+				
+				return true;
+			}
+			
 			//write length of line in bytes in line header
 			putIntAt( (short)0, writeOffset, minLine.LINE_SIZE );
 			
@@ -735,9 +1242,9 @@ public class PgrdMinifier extends FileModel {
 				for( int k = startIndex ; k < endIndex; k++) {
 					
 					//writes formation index
-					putShortAt( (short) 0, writeOffset, (short) minLine.segments.get( k ).FORMATION_INDEX );
+					putUnsignedAt( (short) 0, writeOffset, minLine.segments.get( k ).FORMATION_INDEX, idLength );
 					
-					i( 2 );
+					i( idLength );
 					
 					//writes number of points formation lives for
 					putShortAt( (short) 0, writeOffset, (short) ShortOverflow.overflowValue( minLine.segments.get( k ).NUM_POINTS ) );
@@ -757,30 +1264,318 @@ public class PgrdMinifier extends FileModel {
 			
 		}
 		
+		indexLine( lineIndex );
+		
 		return true;
 	}
 	
+/**
+ * 
+ * Adds the segments of the current line model to the formation index, if there is one
+ * 
+ * @param lineIndex The index of the line in the compressed file
+ * 
+ */
+	
+	private void indexLine( int lineIndex ) {
+		
+		if( formationIndex == null )
+			
+			return;
+		
+		//runs are counted as in the decoded line, where parts are split at no-data runs
+		int run = 0;
+		
+		for( int j = 0; j < minLine.NUM_PARTS; j++ ) {
+			
+			int startIndex = minLine.startParts.get( j ).intValue();
+			
+			int endIndex = startIndex + minLine.getNumSegments( j );
+			
+			//the number of points of the current stretch of the part so far
+			int partPoint = 0;
+			
+			float startLon = minLine.PARTS.get( j ).START_LON;
+			
+			for( int k = startIndex ; k < endIndex; k++) {
+				
+				//a no-data run and its offset entry start a new stretch
+				if( minLine.segments.get( k ).FORMATION_INDEX == MinPgrdLine.NO_DATA ) {
+					
+					int gap = minLine.segments.get( k ).NUM_POINTS, offset = k + 1 < endIndex ? minLine.segments.get( ++k ).NUM_POINTS : 0;
+					
+					startLon = MinPgrdLine.stretchStart( startLon, partPoint + gap, offset, minLine.lonInterval );
+					
+					partPoint = 0;
+					
+					continue;
+				}
+				
+				if( minLine.segments.get( k ).NUM_POINTS > 0 ) {
+					
+					float westLon = startLon + (float) ( partPoint*minLine.lonInterval );
+					
+					formationIndex.add( minLine.segments.get( k ).FORMATION_INDEX, 
+										lineIndex, 
+										run, 
+										westLon, 
+										westLon + (float) ( ( minLine.segments.get( k ).NUM_POINTS - 1 )*minLine.lonInterval ) );
+				}
+				
+				partPoint += minLine.segments.get( k ).NUM_POINTS;
+				
+				run++;
+			}
+		}
+	}
+	
 	public void build( float longInt, PgrdMinifierEvent pme ) throws FailedPgrdBuild {
 		
-		int num_lines = pgrd.NUMBER_LATITUDE_LINES;
+		int num_lines = numberLines();
+		
+		String checkpointName = minPgrdName + ".min.pgrd" + BuildCheckpoint.EXTENSION;
+		
+		idLength = dictionary != null ? MinPgrdLine.identifierLength( dictionary.VALUES.length - 1 ) : pgrd.TYPE_OF_SEGMENT_IDENTIFIER;
+		
+		//a rebuilt .pgrd of the same extent would be spliced onto the lines already written
+		long fingerprint = BuildCheckpoint.fingerprint( new long[] { pgrd.contentHash( (short) 0 ) },
+														pgrd.MINIMUM_LATITUDE, pgrd.MINIMUM_LONGITUDE, pgrd.MAXIMUM_LATITUDE, 
+														pgrd.MAXIMUM_LONGITUDE, pgrd.LATITUDE_INTERVAL, pgrd.NUMBER_LATITUDE_LINES,
+														pgrd.TYPE_OF_SEGMENT_IDENTIFIER, longInt, lineStride, noDataRuns ? 1 : 0,
+														attributeIndices == null ? 0 : Arrays.hashCode( attributeIndices ), 
+														dictionary == null ? 0 : Arrays.hashCode( dictionary.VALUES ),
+														equalArea ? 1 : 0 );
 		
-		buildCompressedHeader( longInt );
+		//a sidecar of an earlier build would describe another grid
+		if( formationIndex == null )
+			
+			new File( minPgrdName + ".min.pgrd" + FormationIndexFile.EXTENSION ).delete();
+		
+		BuildCheckpoint checkpoint;
+		
+		try {
+			
+			checkpoint = resume ? BuildCheckpoint.read( checkpointName ) : null;
+			
+			if( checkpoint != null ) {
+				
+				longitudeInterval = longInt;
+				
+				if( !checkpointValid( checkpoint, fingerprint ) )
+					
+					throw new FailedPgrdBuild( "Checkpoint "+checkpointName+" does not match this build" );
+				
+				//drop anything written after the checkpoint
+				truncate( (short) 0, checkpoint.WRITE_OFFSET );
+				
+				writeOffset = checkpoint.WRITE_OFFSET;
+				
+				if( formationIndex != null )
+					
+					restoreFormationIndex( checkpoint.NEXT_LINE );
+				
+				if( checkpoint.NEXT_LINE > 0 )
+					
+					restorePreviousLine( checkpoint.NEXT_LINE - 1 );
+			}
+			else {
+				
+				buildCompressedHeader( longInt );
+				
+				checkpoint = new BuildCheckpoint( num_lines, fingerprint );
+			}
+		}
+		catch( IOException ioe ) {
+			
+			throw new FailedPgrdBuild( "Failed to read checkpoint "+checkpointName );
+		}
 		
 		pme.onStartFileWrite();
 		
-		for( int a = 0 ; a < num_lines; a++ ) {
+		for( int a = checkpoint.NEXT_LINE ; a < num_lines; a++ ) {
 
 			if( !writeCompressedLine( a ) )
 				
 				throw new FailedPgrdBuild();
 			
+			if( ( a + 1 ) % BuildCheckpoint.INTERVAL == 0 && a + 1 < num_lines )
+				
+				saveCheckpoint( checkpoint, checkpointName, a + 1 );
 			
 			pme.onLineWriteComplete( a, num_lines );
 		}
 		
+		if( dictionary != null ) {
+			
+			try {
+				
+				raf_list[ 0 ].seek( writeOffset );
+				
+				raf_list[ 0 ].write( dictionary.encode( writeOffset ) );
+			}
+			catch( IOException ioe ) {
+				
+				_error_log( "Failed to write attribute dictionary" );
+				
+				throw new FailedPgrdBuild( "Failed to write attribute dictionary" );
+			}
+		}
+		
+		if( formationIndex != null ) {
+			
+			try {
+				
+				formationIndex.write( minPgrdName + ".min.pgrd" + FormationIndexFile.EXTENSION, minPgrdName + ".min.pgrd" );
+			}
+			catch( IOException ioe ) {
+				
+				_error_log( "Failed to write formation index sidecar" );
+				
+				throw new FailedPgrdBuild( "Failed to write formation index sidecar" );
+			}
+		}
+		
+		BuildCheckpoint.delete( checkpointName );
+		
 		pme.onFinishFileWrite();	
 	}
 	
+/**
+ * 
+ * Flushes the compressed file to disk and records the number of lines written in the checkpoint file
+ * 
+ * @param checkpoint The checkpoint of the build
+ * @param checkpointName The path, name and extension of the checkpoint file
+ * @param nextLine The index of the next line to be written
+ * 
+ */
+	
+	private void saveCheckpoint( BuildCheckpoint checkpoint, String checkpointName, int nextLine ) {
+		
+		try {
+			
+			sync( (short) 0 );
+			
+			checkpoint.NEXT_LINE = nextLine;
+			
+			checkpoint.WRITE_OFFSET = writeOffset;
+			
+			checkpoint.write( checkpointName );
+		}
+		catch( IOException ioe ) {
+			
+			_error_log( "Failed to save checkpoint at line "+nextLine );
+		}
+	}
+	
+/**
+ * 
+ * Checks that a checkpoint belongs to this build and agrees with the partially written compressed file: the last
+ * line recorded in the offset table must end at the checkpointed write offset
+ * 
+ * @param checkpoint The checkpoint read from the checkpoint file
+ * @param fingerprint The fingerprint of this build
+ * @return True if the build can continue from the checkpoint
+ * @throws IOException
+ * 
+ */
+	
+	private boolean checkpointValid( BuildCheckpoint checkpoint, long fingerprint ) throws IOException {
+		
+		if( checkpoint.FINGERPRINT != fingerprint || checkpoint.NUMBER_LINES != numberLines()
+			|| checkpoint.NEXT_LINE > checkpoint.NUMBER_LINES || getFileLength() < checkpoint.WRITE_OFFSET )
+			
+			return false;
+		
+		raf_list[ 0 ].seek( 48 );
+		
+		if( raf_list[ 0 ].readInt() != numberLines() )
+			
+			return false;
+		
+		if( checkpoint.NEXT_LINE == 0 )
+			
+			return checkpoint.WRITE_OFFSET == 56 + 4*numberLines();
+		
+		//identical lines share an offset, so the last line written is the one with the greatest offset
+		byte [] offsets = new byte[ 4*checkpoint.NEXT_LINE ];
+		
+		raf_list[ 0 ].seek( 56 );
+		
+		raf_list[ 0 ].readFully( offsets );
+		
+		ByteBuffer table = ByteBuffer.wrap( offsets );
+		
+		long lastLine = 0;
+		
+		for( int l = 0; l < checkpoint.NEXT_LINE; l++ )
+			
+			lastLine = Math.max( lastLine, table.getInt( 4*l ) );
+		
+		raf_list[ 0 ].seek( lastLine );
+		
+		return lastLine + raf_list[ 0 ].readInt() == checkpoint.WRITE_OFFSET;
+	}
+	
+/**
+ * 
+ * Rebuilds the model of the last line written before the checkpoint, so that the line following it can share
+ * its offset as in a build without resume
+ * 
+ * @param lineIndex The index of the last line written
+ * @throws IOException
+ * 
+ */
+	
+	private void restorePreviousLine( int lineIndex ) throws IOException {
+		
+		orderLineSegments( ( lineIndex + 1 )*lineStride - 1 );
+		
+		minLine = new PgrdMinLine( lineIndex, orderedLineSegments );
+		
+		raf_list[ 0 ].seek( 56 + 4*lineIndex );
+		
+		previousOffset = raf_list[ 0 ].readInt();
+	}
+	
+/**
+ * 
+ * Collects the formation index entries of the lines written before the checkpoint from the compressed file
+ * 
+ * @param numLines The number of lines written before the checkpoint
+ * @throws IOException
+ * 
+ */
+	
+	private void restoreFormationIndex( int numLines ) throws IOException {
+		
+		MappedByteBuffer written = raf_list[ 0 ].getChannel().map( MapMode.READ_ONLY, 0, writeOffset );
+		
+		MinPgrdLine line = new MinPgrdLine();
+		
+		for( int l = 0; l < numLines; l++ ) {
+			
+			line.decode( written, written.getInt( 56 + 4*l ), l );
+			
+			double lonInterval = lineLongitudeInterval( l );
+			
+			for( int p = 0; p < line.NUM_PARTS; p++ ) {
+				
+				for( int r = line.PART_FIRST_RUN[ p ]; r < line.PART_FIRST_RUN[ p + 1 ]; r++ ) {
+					
+					if( line.RUN_LENGTH[ r ] <= 0 )
+						
+						continue;
+					
+					//same arithmetic as writeCompressedLine so that the sidecar does not depend on the resume
+					float westLon = line.PART_START_LON[ p ] + (float) ( line.RUN_START[ r ]*lonInterval );
+					
+					formationIndex.add( line.RUN_FORMATION[ r ], l, r, westLon, westLon + (float) ( ( line.RUN_LENGTH[ r ] - 1 )*lonInterval ) );
+				}
+			}
+		}
+	}
+	
 /**
  * 
  * A function to succinctly change the offset of the write position in compressed file.
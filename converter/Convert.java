@@ -1,4 +1,5 @@
 package converter;
+import compressor.MinPgrdLine;
 import utils.ShapeFile;
 
 public class Convert {
@@ -11,18 +12,98 @@ public class Convert {
  *		arg[1] : The path and name of the pgrd file to be written
  *		arg[2] : The name and extension of the error log file to be written to
  *		arg[3] : The interval between equal latitude lines
+ *		arg[4] : The longitude interval of the grid the file will be compressed to, only used to report the number of points
+ *			moved by --simplify (any other value, eg. "false", is ignored), the build options follow it
+ *		arg[5...] : (optional) build options:
+ *			--resume : continue an interrupted build from its last checkpoint ( *.pgrd.ckpt )
+ *			--edge-table : read the records from the edge table of the shapefile ( *.edges ), building it if needed
+ *			--band-lines n : build the lines in bands of n lines, loading only the records crossing the band being built
+ *			--incremental : carry the crossings of every record from one line to the next (reads the edge table)
+ *			--simplify f : simplify the records with a tolerance of f times the latitude interval before rasterizing them
+ *				( see {@link PolygonSimplifier}, reads the simplified edge table *.simplified.edges )
+ *			--fixed-point : compute the crossings in integer arithmetic from the points quantized to the grid
+ *				( see {@link FixedPointCrossings}, takes the place of --edge-table, --incremental and --simplify crossings )
+ *			--shard first end : only rasterize the lines first to end - 1 (starting at 0), the others are left empty
  */
 	public static void main( String [] arg ) {
 		
 		try {
 			ShapeFile shpf = new ShapeFile(arg[0]);
 
-			PgrdBuilder builder = new PgrdBuilder(arg[1], arg[2], shpf );
+			EdgeTable edges = null;
+			
+			for( int o = 5; o < arg.length; o++ ) {
+				
+				if( arg[o].equals( "--simplify" ) && o + 1 < arg.length )
+					
+					edges = EdgeTable.open( shpf, arg[0] + EdgeTable.SIMPLIFIED_EXTENSION, Double.parseDouble( arg[++o] )*Double.parseDouble( arg[3] ) );
+			}
+			
+			for( int o = 5; o < arg.length && edges == null; o++ ) {
+				
+				if( arg[o].equals( "--edge-table" ) || arg[o].equals( "--incremental" ) )
+					
+					edges = EdgeTable.open( shpf, arg[0] + EdgeTable.EXTENSION );
+			}
+			
+			if( edges != null )
+				
+				System.out.println(" Crossing kernel: " + edges.getKernel().name() );
+
+			if( edges != null && edges.tolerance() > 0 )
+
+				reportSimplification( edges, Double.parseDouble( arg[3] ), arg[4] );
+
+			PgrdBuilder builder = new PgrdBuilder(arg[1], arg[2], shpf, edges );
+			
+			for( int o = 5; o < arg.length; o++ ) {
+				
+				if( arg[o].equals( "--resume" ) )
+					
+					builder.resume();
+
+				else if( arg[o].equals( "--band-lines" ) && o + 1 < arg.length )
+
+					builder.setBandLines( Integer.parseInt( arg[++o] ) );
+
+				else if( arg[o].equals( "--incremental" ) )
+
+					builder.setIncremental();
+
+				else if( arg[o].equals( "--fixed-point" ) )
+
+					builder.setFixedPoint();
+
+				else if( arg[o].equals( "--shard" ) && o + 2 < arg.length )
+
+					builder.setLineRange( Integer.parseInt( arg[++o] ), Integer.parseInt( arg[++o] ) );
+			}
 		
-			builder.build( shpf, Double.parseDouble( arg[3] ), 2 );
+			builder.build( shpf, Double.parseDouble( arg[3] ), MinPgrdLine.identifierLength( shpf.recordCount() - 1 ) );
 
 		} catch( Exception e ) { System.out.println("Exception thrown! : "+e.getMessage() ); }
 	}
 
+	//A function to print the number of points of the grid the simplification of the records may change
+	private static void reportSimplification( EdgeTable edges, double latInterval, String lonInterval ) {
+
+		double perLine = edges.movedArea()/latInterval;
+
+		try {
+
+			double lonInt = Double.parseDouble( lonInterval );
+
+			if( lonInt > 0 ) {
+
+				System.out.println(" Simplified records move about " + Math.round( perLine/lonInt ) + " points of the grid at a longitude interval of " + lonInterval );
+
+				return;
+			}
+		}
+		catch( NumberFormatException nfe ) {}
+
+		System.out.println(" Simplified records move about " + (float) perLine + " degrees of longitude summed over the lines" );
+	}
+
 
 }
@@ -0,0 +1,39 @@
+package converter;
+
+import java.util.ArrayList;
+
+/**
+ * An interface for the computation of the longitudes at which a latitude line crosses a range of edges of an
+ * {@link EdgeTable}, the innermost loop of a build
+ * 
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public interface CrossingKernel {
+	
+/**
+ * Gets the name of the kernel
+ * 
+ * @return The name
+ * 
+ */
+	
+	public String name();
+	
+/**
+ * Finds the longitudes at which a latitude line crosses a range of edges, with the results of
+ * {@link EdgeTable#crosses(float, float, float)} and {@link EdgeTable#intersection(byte, float, float, float, float)}
+ * on every edge
+ * 
+ * @param edges The edge table
+ * @param first The index of the first edge
+ * @param end The index following the last edge
+ * @param latitude The latitude of the line
+ * @param intersects The list the valid intersection longitudes are added to, in the order of the edges
+ * 
+ */
+	
+	public void crossings( EdgeTable edges, int first, int end, float latitude, ArrayList<Float> intersects );
+
+}
@@ -0,0 +1,650 @@
+package converter;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import utils.RecordOutOfBoundsException;
+import utils.ShapeFile;
+
+/**
+ * <p>A class to model the edge table of a shapefile: the record bounding boxes sorted by minimum latitude and, for every
+ * edge of every part, the values {@link EqualLatitudePointPlace} needs to intersect it with a latitude line. The table
+ * does not depend on the latitude interval, so it is saved in a sidecar file ( *.edges ) next to the shapefile and
+ * memory mapped by later builds instead of decoding the records again. The sidecar is keyed by a hash of the .shp and
+ * .shx files and is rebuilt when they change.
+ *
+ * <p>Sidecar layout (big endian):
+ * <pre>
+ *	int magic, int version, long shp hash, long shx hash, int number of records, int number of edges,
+ *	double simplification tolerance (0 if the records were not simplified), double area moved by the simplification
+ *	double [number of records][5] bounding boxes ( index, minimum latitude, minimum longitude, maximum latitude, maximum longitude ) sorted by minimum latitude
+ *	int [number of records + 1] index of the first edge of every record
+ *	float [number of edges] latitude of the start point of every edge
+ *	float [number of edges] longitude of the start point of every edge
+ *	float [number of edges] latitude of the end point of every edge
+ *	float [number of edges] slope ( change in longitude over change in latitude ) of every edge
+ *	byte [number of edges] flags of every edge
+ * </pre>
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class EdgeTable {
+
+/**
+ * The extension appended to the name of the shapefile to name its edge table
+ *
+ */
+
+	public static final String EXTENSION = ".edges";
+
+/**
+ * The extension appended to the name of the shapefile to name its simplified edge table
+ *
+ */
+
+	public static final String SIMPLIFIED_EXTENSION = ".simplified.edges";
+
+	private static final int MAGIC = 0x45444745;
+
+	private static final int VERSION = 3;
+
+	private static final int HEADER_LENGTH = 48;
+
+/**
+ * The arrays of floats of the table: latitude and longitude of the start point, latitude of the end point and
+ * slope of every edge
+ *
+ */
+
+	public static final int START_LATITUDE = 0, START_LONGITUDE = 1, END_LATITUDE = 2, SLOPE = 3;
+
+/**
+ * The name of the system property forcing the scalar crossing kernel ( -Dshp2pgrd.crossings=scalar )
+ *
+ */
+
+	public static final String KERNEL_PROPERTY = "shp2pgrd.crossings";
+
+	//the start point of the edge is a strict local extreme in latitude
+	private static final byte EXTREME = 1;
+
+	//the point before the start point has the longitude of the start point (only used on a line through the start point)
+	private static final byte PREVIOUS_VERTICAL = 2;
+
+	//the point before the start point has the latitude of the start point (only used on a line through the start point)
+	private static final byte PREVIOUS_HORIZONTAL = 4;
+
+	private int numRecords, numEdges;
+
+	private double tolerance, movedArea;
+
+	private DoubleBuffer boundBoxes;
+
+	private IntBuffer firstEdge;
+
+	private ByteBuffer [] floats = new ByteBuffer[4];
+
+	private ByteBuffer flags;
+
+	private CrossingKernel kernel;
+
+/**
+ * Opens the edge table of a shapefile, building its sidecar file first if it is missing or was built from another
+ * version of the shapefile
+ *
+ * @param sf The shapefile
+ * @param fileName The path, name and extension of the sidecar file
+ * @return The edge table
+ * @throws IOException
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public static EdgeTable open( ShapeFile sf, String fileName ) throws IOException, RecordOutOfBoundsException {
+
+		return open( sf, fileName, 0 );
+	}
+
+/**
+ * Opens the edge table of a shapefile whose records are simplified (see {@link PolygonSimplifier}), building its
+ * sidecar file first if it is missing, was built from another version of the shapefile or with another tolerance
+ *
+ * @param sf The shapefile
+ * @param fileName The path, name and extension of the sidecar file
+ * @param tolerance The simplification tolerance in degrees, or 0 to keep every vertex
+ * @return The edge table
+ * @throws IOException
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public static EdgeTable open( ShapeFile sf, String fileName, double tolerance ) throws IOException, RecordOutOfBoundsException {
+
+		long shpHash = sf.fileHash( sf.SHP_EXTENSION ), shxHash = sf.fileHash( sf.SHX_EXTENSION );
+
+		File file = new File( fileName );
+
+		if( !current( file, shpHash, shxHash, tolerance ) ) {
+
+			System.out.println(" Building edge table "+fileName+"..." );
+
+			build( sf, file, shpHash, shxHash, tolerance > 0 ? new PolygonSimplifier( tolerance ) : null );
+		}
+
+		return new EdgeTable( file );
+	}
+
+	//A function to check that a sidecar file is complete and was built from the current shapefile
+	private static boolean current( File file, long shpHash, long shxHash, double tolerance ) throws IOException {
+
+		if( !file.exists() || file.length() < HEADER_LENGTH )
+
+			return false;
+
+		DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+
+		try {
+
+			if( in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != shpHash || in.readLong() != shxHash )
+
+				return false;
+
+			in.readLong();
+
+			return in.readDouble() == tolerance;
+		}
+		finally {
+
+			in.close();
+		}
+	}
+
+	//A function to read the points of every part of a record, simplified if there is a simplifier
+	private static float [][][] readRecord( ShapeFile sf, int recordIndex, PolygonSimplifier simplifier ) throws IOException, RecordOutOfBoundsException {
+
+		float [][][] parts = new float[ sf.partCount( recordIndex ) ][][];
+
+		for( int l = 0; l < parts.length; l++ ) {
+
+			parts[l] = new float[ sf.partLength( recordIndex, l ) ][];
+
+			for( int m = 0; m < parts[l].length; m++ )
+
+				parts[l][m] = sf.getLatLon( recordIndex, l, m );
+		}
+
+		return simplifier == null ? parts : simplifier.simplify( parts );
+	}
+
+	//A function to get the length in bytes of the arrays of a number of edges, which are each mapped as one buffer
+	private static int arrayLength( long numEdges, int width ) throws IOException {
+
+		if( numEdges*width > Integer.MAX_VALUE )
+
+			throw new IOException( "Too many edges for an edge table: " + numEdges );
+
+		return (int) numEdges*width;
+	}
+
+/**
+ * Writes the sidecar file of a shapefile. It is written to a temporary file of its own which is renamed once on disk,
+ * so that builds running at the same time never read or write a partial sidecar.
+ *
+ * @param sf The shapefile
+ * @param file The sidecar file
+ * @param shpHash The hash of the .shp file
+ * @param shxHash The hash of the .shx file
+ * @param simplifier The simplifier of the records, or null to keep every vertex
+ * @throws IOException
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	private static void build( ShapeFile sf, File file, long shpHash, long shxHash, PolygonSimplifier simplifier ) throws IOException, RecordOutOfBoundsException {
+
+		int recNum = sf.recordCount();
+
+		double [][] boxes = new double[recNum][5];
+
+		int [] first = new int[ recNum + 1 ];
+
+		long edgeCount = 0;
+
+		for( int k = 0; k < recNum; k++ ) {
+
+			boxes[k][0] = (double) k;
+
+			boxes[k][1] = sf.minLat(k);
+
+			boxes[k][2] = sf.minLon(k);
+
+			boxes[k][3] = sf.maxLat(k);
+
+			boxes[k][4] = sf.maxLon(k);
+
+			first[k] = (int) edgeCount;
+
+			for( float [][] part : readRecord( sf, k, simplifier ) )
+
+				edgeCount += Math.max( 0, part.length - 1 );
+
+			arrayLength( edgeCount, 4 );
+		}
+
+		first[ recNum ] = (int) edgeCount;
+
+		long vertices = simplifier == null ? 0 : simplifier.numberVertices(), kept = simplifier == null ? 0 : simplifier.numberKept();
+
+		double area = simplifier == null ? 0 : simplifier.movedArea();
+
+		//the same (stable) sort as the EqualLatitudePointPlace constructor
+		Arrays.sort( boxes, new Comparator<double[]>() {
+			@Override
+			public int compare( double[] coors1, double[] coors2 ) {
+
+				return Double.compare( coors1[1], coors2[1] );
+			}
+		});
+
+		int edges = (int) edgeCount;
+
+		long boxesOffset = HEADER_LENGTH, firstOffset = boxesOffset + recNum*40L, edgesOffset = firstOffset + ( recNum + 1 )*4L;
+
+		File temp = File.createTempFile( file.getName(), ".tmp", file.getAbsoluteFile().getParentFile() );
+
+		RandomAccessFile raf = new RandomAccessFile( temp, "rw" );
+
+		try {
+
+			FileChannel channel = raf.getChannel();
+
+			raf.setLength( edgesOffset + edges*17L );
+
+			ByteBuffer table = channel.map( MapMode.READ_WRITE, boxesOffset, edgesOffset - boxesOffset );
+
+			for( double [] box : boxes )
+
+				for( double value : box )
+
+					table.putDouble( value );
+
+			for( int f : first )
+
+				table.putInt( f );
+
+			MappedByteBuffer [] arrays = new MappedByteBuffer[5];
+
+			for( int a = 0; a < 4; a++ )
+
+				arrays[a] = channel.map( MapMode.READ_WRITE, edgesOffset + a*4L*edges, arrayLength( edges, 4 ) );
+
+			arrays[4] = channel.map( MapMode.READ_WRITE, edgesOffset + 16L*edges, edges );
+
+			float [] point_1, midpoint, point_2;
+
+			for( int k = 0; k < recNum; k++ ) {
+
+				//the records are read (and simplified) again rather than kept from the count
+				for( float [][] part : readRecord( sf, k, simplifier ) ) {
+
+					int numPoints = part.length;
+
+					if( numPoints < 2 )
+
+						continue;
+
+					//the same points as EqualLatitudePointPlace.partIntersects
+					point_1 = part[ numPoints - 2 ];
+
+					midpoint = part[0];
+
+					for( int m = 0; m + 1 < numPoints; m++ ) {
+
+						point_2 = part[ m+1 ];
+
+						byte flag = 0;
+
+						if( ( midpoint[0] > point_1[0] && midpoint[0] > point_2[0] ) || ( midpoint[0] < point_1[0] && midpoint[0] < point_2[0] ) )
+
+							flag |= EXTREME;
+
+						if( point_1[1] == midpoint[1] )
+
+							flag |= PREVIOUS_VERTICAL;
+
+						if( point_1[0] == midpoint[0] )
+
+							flag |= PREVIOUS_HORIZONTAL;
+
+						arrays[0].putFloat( midpoint[0] );
+
+						arrays[1].putFloat( midpoint[1] );
+
+						arrays[2].putFloat( point_2[0] );
+
+						arrays[3].putFloat( ( point_2[1] - midpoint[1] )/( point_2[0] - midpoint[0] ) );
+
+						arrays[4].put( flag );
+
+						point_1 = midpoint;
+
+						midpoint = point_2;
+					}
+				}
+			}
+
+			for( MappedByteBuffer array : arrays )
+
+				array.force();
+
+			((MappedByteBuffer) table).force();
+
+			ByteBuffer header = ByteBuffer.allocate( HEADER_LENGTH );
+
+			header.putInt( MAGIC ).putInt( VERSION ).putLong( shpHash ).putLong( shxHash ).putInt( recNum ).putInt( edges )
+				  .putDouble( simplifier == null ? 0 : simplifier.getTolerance() ).putDouble( area );
+
+			header.flip();
+
+			channel.write( header, 0 );
+
+			channel.force( false );
+		}
+		finally {
+
+			raf.close();
+		}
+
+		Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+		if( simplifier != null )
+
+			System.out.println(" Simplified records: kept " + kept + " of " + vertices + " vertices ("
+								+ Math.round( 100.0*kept/Math.max( 1, vertices ) ) + "%)" );
+	}
+
+/**
+ * Constructor. Maps a sidecar file.
+ *
+ * @param file The sidecar file
+ * @throws IOException
+ *
+ */
+
+	private EdgeTable( File file ) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile( file, "r" );
+
+		try {
+
+			FileChannel channel = raf.getChannel();
+
+			ByteBuffer header = ByteBuffer.allocate( HEADER_LENGTH );
+
+			channel.read( header, 0 );
+
+			numRecords = header.getInt( 24 );
+
+			numEdges = header.getInt( 28 );
+
+			tolerance = header.getDouble( 32 );
+
+			movedArea = header.getDouble( 40 );
+
+			long firstOffset = HEADER_LENGTH + numRecords*40L, edgesOffset = firstOffset + ( numRecords + 1 )*4L;
+
+			boundBoxes = channel.map( MapMode.READ_ONLY, HEADER_LENGTH, numRecords*40L ).asDoubleBuffer();
+
+			firstEdge = channel.map( MapMode.READ_ONLY, firstOffset, ( numRecords + 1 )*4L ).asIntBuffer();
+
+			int length = arrayLength( numEdges, 4 );
+
+			for( int a = 0; a < 4; a++ )
+
+				floats[a] = channel.map( MapMode.READ_ONLY, edgesOffset + a*(long) length, length );
+
+			flags = channel.map( MapMode.READ_ONLY, edgesOffset + 4L*length, numEdges );
+		}
+		finally {
+
+			//the mappings stay valid once the channel is closed
+			raf.close();
+		}
+
+		kernel = newKernel();
+	}
+
+/**
+ * Creates the kernel computing crossings: the SIMD kernel ( vector.VectorCrossings ) when it was compiled and the
+ * jdk.incubator.vector module is loaded, otherwise the scalar kernel
+ *
+ * @return The kernel
+ *
+ */
+
+	public static CrossingKernel newKernel() {
+
+		if( !"scalar".equals( System.getProperty( KERNEL_PROPERTY ) ) ) {
+
+			//loaded by name, since it is only compiled and linked where the jdk.incubator.vector module is available
+			try {
+
+				return (CrossingKernel) Class.forName( "vector.VectorCrossings" ).getDeclaredConstructor().newInstance();
+			}
+			catch( Exception e ) {}
+
+			catch( LinkageError le ) {}
+		}
+
+		return new ScalarCrossings();
+	}
+
+/**
+ * Gets the tolerance the records of the table were simplified with
+ *
+ * @return The tolerance in degrees, or 0 if the records were not simplified
+ *
+ */
+
+	public double tolerance() {
+
+		return tolerance;
+	}
+
+/**
+ * Gets the area between the records of the table and the records they were simplified from (see
+ * {@link PolygonSimplifier#movedArea()})
+ *
+ * @return The area in square degrees, or 0 if the records were not simplified
+ *
+ */
+
+	public double movedArea() {
+
+		return movedArea;
+	}
+
+/**
+ * Gets the kernel computing the crossings of the table
+ *
+ * @return The kernel
+ *
+ */
+
+	public CrossingKernel getKernel() {
+
+		return kernel;
+	}
+
+/**
+ * Sets the kernel computing the crossings of the table
+ *
+ * @param kernel The kernel
+ *
+ */
+
+	public void setKernel( CrossingKernel kernel ) {
+
+		this.kernel = kernel;
+	}
+
+/**
+ * Gets the number of records of the shapefile
+ *
+ * @return The number of records
+ *
+ */
+
+	public int numberRecords() {
+
+		return numRecords;
+	}
+
+/**
+ * Gets the number of edges of the shapefile
+ *
+ * @return The number of edges
+ *
+ */
+
+	public int numberEdges() {
+
+		return numEdges;
+	}
+
+/**
+ * Gets the bounding boxes of the records ( index, minimum latitude, minimum longitude, maximum latitude, maximum
+ * longitude ) sorted by minimum latitude
+ *
+ * @return The bounding boxes
+ *
+ */
+
+	public double [][] boundBoxes() {
+
+		double [][] boxes = new double[ numRecords ][5];
+
+		for( int k = 0; k < numRecords; k++ )
+
+			for( int c = 0; c < 5; c++ )
+
+				boxes[k][c] = boundBoxes.get( k*5 + c );
+
+		return boxes;
+	}
+
+/**
+ * Gets an array of floats of the table (big endian, 4 bytes per edge)
+ *
+ * @param array START_LATITUDE, START_LONGITUDE, END_LATITUDE or SLOPE
+ * @return The mapped array
+ *
+ */
+
+	public ByteBuffer floats( int array ) {
+
+		return floats[ array ];
+	}
+
+/**
+ * Gets the flags of the edges (1 byte per edge)
+ *
+ * @return The mapped array
+ *
+ */
+
+	public ByteBuffer flags() {
+
+		return flags;
+	}
+
+/**
+ * Gets the index of the first edge of a record
+ *
+ * @param recordIndex The index of the record (starts at 0), or the number of records to get the number of edges
+ * @return The index of the edge
+ *
+ */
+
+	public int firstEdge( int recordIndex ) {
+
+		return firstEdge.get( recordIndex );
+	}
+
+/**
+ * Tests whether an edge crosses a latitude line
+ *
+ * @param startLatitude The latitude of the start point of the edge
+ * @param endLatitude The latitude of the end point of the edge
+ * @param latitude The latitude of the line
+ * @return true if the edge crosses the line
+ *
+ */
+
+	public static boolean crosses( float startLatitude, float endLatitude, float latitude ) {
+
+		return ( startLatitude >= latitude && endLatitude < latitude ) || ( startLatitude <= latitude && endLatitude > latitude );
+	}
+
+/**
+ * Computes the longitude at which an edge crossing a latitude line intersects it, with the same result as
+ * {@link EqualLatitudePointPlace#getIntersectLon(float, float[], float[], float[])}
+ *
+ * @param flag The flags of the edge
+ * @param latitude The latitude of the line
+ * @param startLatitude The latitude of the start point of the edge
+ * @param startLongitude The longitude of the start point of the edge
+ * @param slope The slope of the edge
+ * @return The longitude, or an invalid longitude (see {@link EqualLatitudePointPlace#validLon(float)}) if the
+ * 			crossing is not counted
+ *
+ */
+
+	public static float intersection( byte flag, float latitude, float startLatitude, float startLongitude, float slope ) {
+
+		if( latitude == startLatitude ) {
+
+			if( ( flag & EXTREME ) != 0 )
+
+				return 180.1F;
+
+			if( ( flag & PREVIOUS_VERTICAL ) != 0 )
+
+				return startLongitude;
+
+			if( ( flag & PREVIOUS_HORIZONTAL ) != 0 )
+
+				return 180.1F;
+		}
+
+		return slope*( latitude - startLatitude ) + startLongitude;
+	}
+
+/**
+ * Finds the longitudes at which a latitude line intersects the edges of a record, with the same results as
+ * {@link EqualLatitudePointPlace#getIntersectLon(float, float[], float[], float[])} on every edge
+ *
+ * @param recordIndex The index of the record (starts at 0)
+ * @param latitude The latitude of the line
+ * @param intersects The list the valid intersection longitudes are added to (unsorted)
+ *
+ */
+
+	public void crossings( int recordIndex, float latitude, ArrayList<Float> intersects ) {
+
+		kernel.crossings( this, firstEdge.get( recordIndex ), firstEdge.get( recordIndex + 1 ), latitude, intersects );
+	}
+
+}
@@ -37,16 +37,32 @@ public class EqualLatitudePointPlace {
 	
 	private double [][] boundBoxes;
 	
+	private EdgeTable edges;
+	
+	private IncrementalCrossings incremental;
+	
+	private FixedPointCrossings fixed;
+	
+	//orders bounding boxes by minimum latitude
+	private static final Comparator<double[]> BY_MINIMUM_LATITUDE = new Comparator<double[]>() {
+        @Override
+        public int compare(double[] coors1, double[] coors2) {
+        	
+            return Double.compare(coors1[1], coors2[1]);
+            
+        } 
+    };
+	
 	public ArrayList<Integer> encloseRecords;
 	
 	//pool variables to control use of memory
 	
-		//pool variables for setEndIndex function
-		private boolean indexNotFound;
-		private int uI;
-		private int mI;
-		private int lI;
-		private int eLen;
+		//pool variables for getEnclosingBoxes function: the boxes crossed by the last line (indices in boundBoxes, in
+		//increasing order), the first box not reached yet and the latitude of the last line
+		private int [] activeBoxes = new int[ 16 ];
+		private int numActive;
+		private int nextBox;
+		private double activeLatitude = Double.NaN;
 		
 		//pool variable for east intersect
 
@@ -99,67 +115,102 @@ public class EqualLatitudePointPlace {
 			
 		}
 
-        Arrays.sort(boundBoxes, new Comparator<double[]>() {
-            @Override
-            public int compare(double[] coors1, double[] coors2) {
-            	
-                return Double.compare(coors1[1], coors2[1]);
-                
-            } 
-        }); 
+        Arrays.sort(boundBoxes, BY_MINIMUM_LATITUDE); 
 
 	}
 	
-	
 /**
- * Determines the first point in the boundBoxes array for which the minimum latitude is greater than the
- * latitude passed in as a parameter.
+ * Constructor for an instance which reads the bounding boxes and edges of the records from the edge table of the
+ * shapefile instead of decoding the records
  * 
- * @param latitude
+ * @param sf {@link ShapeFile} instance containing connections to *.shp, *.shx, *.dbf in which points are to be placed
+ * @param edges The {@link EdgeTable} of the same shapefile
  * 
  */
 	
-	private void setEndIndex(double latitude) {
+	public EqualLatitudePointPlace( ShapeFile sf, EdgeTable edges ) {
 		
-		if( boundBoxes[0][1] > latitude) eLen =  -1 ;
+		encloseRecords = new ArrayList<Integer>();
+		
+		boundBoxes = edges.boundBoxes();
+		
+		this.edges = edges;
+	}
+	
+/**
+ * Constructor for an instance which only places points in a selection of records, eg. the records crossing a band
+ * of latitude. Lines crossed by no other record get the same enclosing records as with all the records.
+ * 
+ * @param sf {@link ShapeFile} instance containing connections to *.shp, *.shx, *.dbf in which points are to be placed
+ * @param edges The {@link EdgeTable} of the same shapefile, or null to decode the records
+ * @param records The indexes of the records in increasing order
+ * @throws IOException
+ * @throws RecordOutOfBoundsException
+ * 
+ */
+	
+	public EqualLatitudePointPlace( ShapeFile sf, EdgeTable edges, ArrayList<Integer> records ) throws IOException, RecordOutOfBoundsException {
 		
-		//upper index: uI, lower index: lI, middleIndex: mI
+		encloseRecords = new ArrayList<Integer>();
 		
-		uI = boundBoxes.length - 1;
-		mI = -1;
-		lI = 0;
-		indexNotFound = true;
+		boundBoxes = new double[records.size()][5];
 		
-		while(indexNotFound && (uI - lI) > 1) {
+		for(int k = 0; k < records.size(); k++) {
 			
-			mI = ((uI - lI) >> 1) + lI;
+			int r = records.get(k).intValue();
 			
-			if(boundBoxes[mI][1] < latitude)  {
-				lI = mI;
-			}
+			boundBoxes[k][0] = (double) r;
 			
-			else if(boundBoxes[mI][1] > latitude) 
-				uI = mI;
+			boundBoxes[k][1] = sf.minLat(r);
 			
-			else 
-				indexNotFound = false;
+			boundBoxes[k][2] = sf.minLon(r);
+			
+			boundBoxes[k][3] = sf.maxLat(r);
+			
+			boundBoxes[k][4] = sf.maxLon(r);
 			
 		}
 		
-		if(!indexNotFound) eLen = mI;
+		//a stable sort keeps the order the records have among all the records
+		Arrays.sort(boundBoxes, BY_MINIMUM_LATITUDE);
 		
-		if(boundBoxes[lI][1] < latitude )
-			eLen = uI;
-		else 
-			eLen = lI;		
+		this.edges = edges;
+	}
+	
+	
+/**
+ * Makes the instance carry the crossings of every record from one latitude line to the next (see
+ * {@link IncrementalCrossings}), for lines taken in increasing latitude. The instance must read its records from
+ * an edge table.
+ * 
+ */
+	
+	public void setIncremental() {
 		
+		incremental = new IncrementalCrossings( edges );
 	}
 	
-	//pool variables for getEnclosingBoxes function
+/**
+ * Makes the instance find crossings in fixed point arithmetic (see {@link FixedPointCrossings}) when given the
+ * latitude of a line at full precision, instead of the crossing functions above
+ * 
+ * @param sf The shapefile
+ * @param latOrigin The latitude of the grid origin
+ * @param lonOrigin The longitude of the grid origin
+ * @param interval The interval between latitude lines
+ * 
+ */
+	
+	public void setFixedPoint( ShapeFile sf, double latOrigin, double lonOrigin, double interval ) {
+		
+		fixed = new FixedPointCrossings( sf, latOrigin, lonOrigin, interval );
+	}
 	
 /**
  * Finds the indexes associated with the records in the original shape file in which the latitude line
- * fed to the parameter fits. Stores the values in the encloseRecords ArrayList.
+ * fed to the parameter fits. Stores the values in the encloseRecords ArrayList. Lines taken in increasing latitude
+ * only visit the boxes crossed by the line before and those starting since, so a line crossing one box costs as much
+ * as that box; a line south of the last one starts over from the first box.
  * 
  * @param latitude 
  * 
@@ -167,18 +218,44 @@ public class EqualLatitudePointPlace {
 	
 	public ArrayList<Integer> getEnclosingBoxes( double latitude ) {
 		
-		setEndIndex( latitude );
+		if( !( latitude >= activeLatitude ) ) {
+			
+			numActive = 0;
+			
+			nextBox = 0;
+		}
+		
+		activeLatitude = latitude;
+		
+		//the boxes are sorted by minimum latitude, so the boxes reached by the line follow the last one reached
+		for( ; nextBox < boundBoxes.length && boundBoxes[nextBox][1] <= latitude; nextBox++ ) {
+			
+			if( numActive == activeBoxes.length )
+				
+				activeBoxes = Arrays.copyOf( activeBoxes, numActive*2 );
+			
+			activeBoxes[ numActive++ ] = nextBox;
+		}
 		
 		encloseRecords.clear();
 		
-		for(int l = 0; l < eLen; l++) {
+		//a box south of the line is south of every line after it
+		int kept = 0;
+		
+		for(int a = 0; a < numActive; a++) {
+			
+			int l = activeBoxes[a];
 			
-			if(boundBoxes[l][3] >= latitude) 
+			if(boundBoxes[l][3] >= latitude) {
+				
+				activeBoxes[ kept++ ] = l;
 					
 				encloseRecords.add(new Integer((int) boundBoxes[l][0]));
-			
+			}
 		}
 		
+		numActive = kept;
+		
 		return encloseRecords;
 	}
 
@@ -261,13 +338,24 @@ public class EqualLatitudePointPlace {
 		
 		try {
 			
-			numParts = sf.partCount( recordIndex );
+			if( incremental != null )
+				
+				incremental.crossings( recordIndex, latitude, intersects );
+			
+			else if( edges != null )
+				
+				edges.crossings( recordIndex, latitude, intersects );
+			
+			else {
+			
+				numParts = sf.partCount( recordIndex );
 			
-			for(int l = 0 ; l < numParts;  l++) {
+				for(int l = 0 ; l < numParts;  l++) {
 				
-				partIntersects( sf, recordIndex, l, latitude );
+					partIntersects( sf, recordIndex, l, latitude );
 
-			}	
+				}
+			}
 			
 			Collections.sort( intersects );
 			
@@ -292,6 +380,43 @@ public class EqualLatitudePointPlace {
 		return intersects;
 	}
 
+/**
+ * Finds the longitude ranges over which a latitude line falls inside a record polygon, in fixed point arithmetic if
+ * the instance was set to (see {@link #setFixedPoint(ShapeFile, double, double, double)})
+ * 
+ * @param sf The {@link ShapeFile} instance containing relevant connection to the .shp file of interest
+ * @param recordIndex The index of the polygon record in the file where the 0 index represents the first record
+ * @param latitude The latitude of the line at full precision
+ * @return The sorted intersection longitudes
+ * @throws PointPlaceException
+ * 
+ */
+	
+	public ArrayList<Float> interiorSegments(ShapeFile sf, int recordIndex, double latitude) throws PointPlaceException {
+		
+		if( fixed == null )
+			
+			return interiorSegments( sf, recordIndex, (float) latitude );
+		
+		intersects.clear();
+		
+		try {
+			
+			fixed.crossings( sf, recordIndex, latitude, intersects );
+		}
+		catch(IOException ioe) { 
+			
+			throw new PointPlaceException(" Record Error: " + Integer.toString(recordIndex));
+		}		
+		
+		catch(RecordOutOfBoundsException robe) {
+			
+			throw new PointPlaceException(" Record Error: " + Integer.toString(recordIndex));
+		}
+		
+		return intersects;
+	}
+
 /**
  * Determines the the intersection longitude of a latitude line with a line segment defined by two points
  * 
@@ -309,14 +434,16 @@ public class EqualLatitudePointPlace {
 			if( ( midpoint[0] > point1[0] && midpoint[0] > point2[0] ) || (midpoint[0] < point1[0] && midpoint[0] < point2[0]) )
 				
 				return 180.1F;
-		}
-		if(point1[1] == midpoint[1])
-			
-			return point1[1];
 		
-		if (point1[0] == midpoint[0] )
-
-			return 180.1F;
+			//the rules on the previous edge only apply to the vertex on the line, not to the whole edge
+			if(point1[1] == midpoint[1])
+				
+				return point1[1];
+			
+			if (point1[0] == midpoint[0] )
+	
+				return 180.1F;
+		}
 		
 		return (((point2[1] - midpoint[1])/(point2[0] - midpoint[0]))*(latLine-midpoint[0])) + midpoint[1];
 		
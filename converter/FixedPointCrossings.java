@@ -0,0 +1,224 @@
+package converter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import utils.RecordOutOfBoundsException;
+import utils.ShapeFile;
+
+/**
+ * <p>A class to find the crossings of records with latitude lines in integer (fixed point) arithmetic. The points of
+ * a record are read at full precision when the record is first needed and quantized to ints counting units of
+ * 2^-bits latitude intervals from the grid origin, so every latitude line falls exactly on a unit (line n at n*2^bits)
+ * and the number of bits is the greatest, up to 16, for which the extent of the shapefile fits in 29 bits. A crossing
+ * is computed as an exact product and a rounded division of longs, the crossings of a record are sorted as ints and
+ * only converted back to float longitudes once sorted, so the output does not depend on float rounding.
+ *
+ * <p>An edge crosses a line when exactly one of its ends lies above the line (half open edges). A vertex lying on a
+ * line is then crossed once by a part passing through the line and zero or two times by a part turning back at the
+ * line, so no crossing has to be dropped as invalid.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class FixedPointCrossings {
+
+/**
+ * The greatest number of bits dividing a latitude interval
+ *
+ */
+
+	public static final int MAXIMUM_BITS = 16;
+
+/**
+ * The quantized points of a record
+ *
+ */
+
+	private class FixedRecord {
+
+		//the points of all the parts of the record, one part after the other
+		public int [] LATITUDES;
+
+		public int [] LONGITUDES;
+
+		//the index following the last point of every part
+		public int [] PART_ENDS;
+
+		//the greatest latitude of the record
+		public int TOP;
+	}
+
+	private double latOrigin, lonOrigin, unit;
+
+	private int bits;
+
+	private HashMap<Integer, FixedRecord> records = new HashMap<Integer, FixedRecord>();
+
+	private int lastLine = Integer.MIN_VALUE;
+
+	private int [] crossings = new int[ 16 ];
+
+/**
+ * Constructor
+ *
+ * @param sf The shapefile
+ * @param latOrigin The latitude of the grid origin (latitude line n lies at latOrigin + n*interval)
+ * @param lonOrigin The longitude of the grid origin
+ * @param interval The interval between latitude lines
+ *
+ */
+
+	public FixedPointCrossings( ShapeFile sf, double latOrigin, double lonOrigin, double interval ) {
+
+		this.latOrigin = latOrigin;
+
+		this.lonOrigin = lonOrigin;
+
+		long extent = (long) Math.ceil( Math.max( sf.latMax - latOrigin, sf.lonMax - lonOrigin )/interval ) + 1;
+
+		bits = Math.max( 0, Math.min( MAXIMUM_BITS, 29 - ( 64 - Long.numberOfLeadingZeros( extent ) ) ) );
+
+		unit = interval/( 1 << bits );
+	}
+
+/**
+ * Gets the number of bits dividing a latitude interval
+ *
+ * @return The number of bits
+ *
+ */
+
+	public int getBits() {
+
+		return bits;
+	}
+
+	//A function to quantize a coordinate
+	private int quantize( double coordinate, double origin ) {
+
+		return (int) Math.round( ( coordinate - origin )/unit );
+	}
+
+	//A function to read and quantize the points of a record
+	private FixedRecord load( ShapeFile sf, int recordIndex ) throws IOException, RecordOutOfBoundsException {
+
+		FixedRecord record = new FixedRecord();
+
+		record.PART_ENDS = new int[ sf.partCount( recordIndex ) ];
+
+		int numPoints = 0;
+
+		for( int l = 0; l < record.PART_ENDS.length; l++ ) {
+
+			numPoints += sf.partLength( recordIndex, l );
+
+			record.PART_ENDS[l] = numPoints;
+		}
+
+		record.LATITUDES = new int[ numPoints ];
+
+		record.LONGITUDES = new int[ numPoints ];
+
+		record.TOP = Integer.MIN_VALUE;
+
+		for( int l = 0, p = 0; l < record.PART_ENDS.length; l++ ) {
+
+			for( int m = 0; p < record.PART_ENDS[l]; m++, p++ ) {
+
+				double [] point = sf.getLatLonDouble( recordIndex, l, m );
+
+				record.LATITUDES[p] = quantize( point[0], latOrigin );
+
+				record.LONGITUDES[p] = quantize( point[1], lonOrigin );
+
+				record.TOP = Math.max( record.TOP, record.LATITUDES[p] );
+			}
+		}
+
+		return record;
+	}
+
+/**
+ * Finds the longitudes at which a latitude line intersects the edges of a record. Records are kept quantized until
+ * a line north of them is asked for.
+ *
+ * @param sf The shapefile
+ * @param recordIndex The index of the record (starts at 0)
+ * @param latitude The latitude of the line
+ * @param intersects The list the intersection longitudes are added to, in increasing order
+ * @throws IOException
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public void crossings( ShapeFile sf, int recordIndex, double latitude, ArrayList<Float> intersects ) throws IOException, RecordOutOfBoundsException {
+
+		int line = quantize( latitude, latOrigin );
+
+		//drop the records left behind
+		if( line > lastLine ) {
+
+			for( Iterator<FixedRecord> it = records.values().iterator(); it.hasNext(); ) {
+
+				if( it.next().TOP < line )
+
+					it.remove();
+			}
+
+			lastLine = line;
+		}
+
+		FixedRecord record = records.get( recordIndex );
+
+		if( record == null ) {
+
+			record = load( sf, recordIndex );
+
+			records.put( recordIndex, record );
+		}
+
+		int [] lat = record.LATITUDES, lon = record.LONGITUDES;
+
+		int count = 0, start = 0;
+
+		for( int end : record.PART_ENDS ) {
+
+			for( int m = start; m + 1 < end; m++ ) {
+
+				if( ( lat[m] > line ) == ( lat[ m+1 ] > line ) )
+
+					continue;
+
+				//longitude = start longitude + dLon*( line - start latitude )/dLat, rounded to the nearest unit
+				long dLat = (long) lat[ m+1 ] - lat[m], product = ( (long) lon[ m+1 ] - lon[m] )*( (long) line - lat[m] );
+
+				if( dLat < 0 ) {
+
+					dLat = -dLat;
+
+					product = -product;
+				}
+
+				if( count == crossings.length )
+
+					crossings = Arrays.copyOf( crossings, count*2 );
+
+				crossings[ count++ ] = lon[m] + (int) Math.floorDiv( 2*product + dLat, 2*dLat );
+			}
+
+			start = end;
+		}
+
+		Arrays.sort( crossings, 0, count );
+
+		for( int c = 0; c < count; c++ )
+
+			intersects.add( Float.valueOf( (float) ( lonOrigin + crossings[c]*unit ) ) );
+	}
+
+}
@@ -0,0 +1,236 @@
+package converter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * <p>A class to find the crossings of records with latitude lines taken in increasing latitude, carrying the edges
+ * crossing a record (its active edges) from one line to the next instead of testing every edge on every line. The
+ * edges of a record are sorted once by the latitude at which they start crossing lines; on every line the edges
+ * reached are added to the active edges and those left behind are removed, so the work of a line depends on the
+ * number of crossings rather than on the number of edges.
+ *
+ * <p>The active edges are kept in order of their last crossing longitude and sorted again by insertion sort, which
+ * is fast on the almost sorted crossings of consecutive lines, so the crossings come out sorted. Each crossing
+ * longitude is computed from the edge (slope*( latitude - start latitude ) + start longitude) rather than by adding a
+ * step to the longitude of the previous line, so that no rounding error builds up and the crossings are exactly
+ * those of {@link EdgeTable#crossings(int, float, ArrayList)}.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class IncrementalCrossings {
+
+/**
+ * The active edges of a record
+ *
+ */
+
+	private class ActiveEdges {
+
+		//the edges of the record in increasing order of the lowest latitude they cross
+		public int [] ORDER;
+
+		//the index in ORDER of the next edge to add
+		public int NEXT;
+
+		//the active edges and their last crossing longitudes
+		public int [] EDGES;
+
+		public float [] LONGITUDES;
+
+		public int COUNT;
+
+		//the greatest latitude crossed by an edge of the record
+		public float TOP;
+	}
+
+	private EdgeTable edges;
+
+	private ByteBuffer startLat, startLon, endLat, slope, flags;
+
+	private HashMap<Integer, ActiveEdges> records = new HashMap<Integer, ActiveEdges>();
+
+	private float lastLatitude = Float.NEGATIVE_INFINITY;
+
+/**
+ * Constructor
+ *
+ * @param edges The edge table of the shapefile
+ *
+ */
+
+	public IncrementalCrossings( EdgeTable edges ) {
+
+		this.edges = edges;
+
+		startLat = edges.floats( EdgeTable.START_LATITUDE );
+
+		startLon = edges.floats( EdgeTable.START_LONGITUDE );
+
+		endLat = edges.floats( EdgeTable.END_LATITUDE );
+
+		slope = edges.floats( EdgeTable.SLOPE );
+
+		flags = edges.flags();
+	}
+
+	//A function to get the lowest latitude crossed by an edge
+	private float bottom( int edge ) {
+
+		return Math.min( startLat.getFloat( edge*4 ), endLat.getFloat( edge*4 ) );
+	}
+
+	//A function to sort the edges of a record by the lowest latitude they cross, leaving out horizontal edges
+	private ActiveEdges activate( int recordIndex ) {
+
+		int first = edges.firstEdge( recordIndex ), end = edges.firstEdge( recordIndex + 1 );
+
+		ArrayList<Integer> crossing = new ArrayList<Integer>( end - first );
+
+		ActiveEdges record = new ActiveEdges();
+
+		record.TOP = Float.NEGATIVE_INFINITY;
+
+		for( int e = first; e < end; e++ ) {
+
+			if( startLat.getFloat( e*4 ) == endLat.getFloat( e*4 ) )
+
+				continue;
+
+			crossing.add( e );
+
+			record.TOP = Math.max( record.TOP, Math.max( startLat.getFloat( e*4 ), endLat.getFloat( e*4 ) ) );
+		}
+
+		Integer [] order = crossing.toArray( new Integer[ crossing.size() ] );
+
+		Arrays.sort( order, new Comparator<Integer>() {
+			@Override
+			public int compare( Integer edge1, Integer edge2 ) {
+
+				return Float.compare( bottom( edge1 ), bottom( edge2 ) );
+			}
+		});
+
+		record.ORDER = new int[ order.length ];
+
+		for( int o = 0; o < order.length; o++ )
+
+			record.ORDER[o] = order[o];
+
+		record.EDGES = new int[ 16 ];
+
+		record.LONGITUDES = new float[ 16 ];
+
+		return record;
+	}
+
+/**
+ * Finds the longitudes at which a latitude line intersects the edges of a record. Lines are expected in increasing
+ * latitude; a line south of the previous one starts over from the edge table.
+ *
+ * @param recordIndex The index of the record (starts at 0)
+ * @param latitude The latitude of the line
+ * @param intersects The list the valid intersection longitudes are added to, in increasing order
+ *
+ */
+
+	public void crossings( int recordIndex, float latitude, ArrayList<Float> intersects ) {
+
+		if( latitude < lastLatitude )
+
+			records.clear();
+
+		//drop the records left behind
+		if( latitude != lastLatitude ) {
+
+			for( Iterator<ActiveEdges> it = records.values().iterator(); it.hasNext(); ) {
+
+				if( it.next().TOP < latitude )
+
+					it.remove();
+			}
+
+			lastLatitude = latitude;
+		}
+
+		ActiveEdges record = records.get( recordIndex );
+
+		if( record == null ) {
+
+			record = activate( recordIndex );
+
+			records.put( recordIndex, record );
+		}
+
+		//add the edges reached
+		for( ; record.NEXT < record.ORDER.length && bottom( record.ORDER[ record.NEXT ] ) <= latitude; record.NEXT++ ) {
+
+			if( record.COUNT == record.EDGES.length ) {
+
+				record.EDGES = Arrays.copyOf( record.EDGES, record.COUNT*2 );
+
+				record.LONGITUDES = Arrays.copyOf( record.LONGITUDES, record.COUNT*2 );
+			}
+
+			record.EDGES[ record.COUNT ] = record.ORDER[ record.NEXT ];
+
+			record.LONGITUDES[ record.COUNT++ ] = Float.NEGATIVE_INFINITY;
+		}
+
+		int count = 0;
+
+		for( int a = 0; a < record.COUNT; a++ ) {
+
+			int e = record.EDGES[a];
+
+			float mLat = startLat.getFloat( e*4 ), eLat = endLat.getFloat( e*4 );
+
+			if( !EdgeTable.crosses( mLat, eLat, latitude ) ) {
+
+				//an edge is only left behind above its highest latitude (it may be reached at an open lowest latitude)
+				if( latitude >= Math.max( mLat, eLat ) )
+
+					continue;
+
+				record.EDGES[ count ] = e;
+
+				record.LONGITUDES[ count++ ] = Float.NEGATIVE_INFINITY;
+
+				continue;
+			}
+
+			float il = EdgeTable.intersection( flags.get( e ), latitude, mLat, startLon.getFloat( e*4 ), slope.getFloat( e*4 ) );
+
+			//insertion sort on the longitudes (invalid crossings are kept for the next line with their longitude)
+			int i = count++;
+
+			for( ; i > 0 && Float.compare( record.LONGITUDES[ i - 1 ], il ) > 0; i-- ) {
+
+				record.EDGES[i] = record.EDGES[ i - 1 ];
+
+				record.LONGITUDES[i] = record.LONGITUDES[ i - 1 ];
+			}
+
+			record.EDGES[i] = e;
+
+			record.LONGITUDES[i] = il;
+		}
+
+		record.COUNT = count;
+
+		for( int a = 0; a < count; a++ ) {
+
+			if( EqualLatitudePointPlace.validLon( record.LONGITUDES[a] ) )
+
+				intersects.add( Float.valueOf( record.LONGITUDES[a] ) );
+		}
+	}
+
+}
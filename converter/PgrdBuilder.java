@@ -3,11 +3,13 @@ package converter;
 import java.io.*;
 import java.util.*;
 
+import utils.BuildCheckpoint;
 import utils.FileBuildError;
 import utils.FileModel;
 import utils.PointPlaceException;
 import utils.RecordOutOfBoundsException;
 import utils.ShapeFile;
+import utils.ShardRange;
 
 public class PgrdBuilder extends FileModel {
 
@@ -127,10 +129,66 @@ public class PgrdBuilder extends FileModel {
 	
 	private EqualLatitudePointPlace elpp;
 	
+/**
+ * The edge table of the shapefile, or null to decode the records
+ * 
+ */
+	
+	private EdgeTable edges;
+	
+/**
+ * The number of lines of a band, or 0 to build all lines with all the records
+ * 
+ */
+	
+	private int bandLines = 0;
+	
+/**
+ * True if crossings are carried from one line to the next
+ * 
+ */
+	
+	private boolean incremental = false;
+	
+/**
+ * True if crossings are computed in fixed point arithmetic
+ * 
+ */
+	
+	private boolean fixedPoint = false;
+	
+/**
+ * The range of lines built (first line and line following the last), the other lines are written empty
+ * 
+ */
+	
+	private int firstLine = 0, endLine = Integer.MAX_VALUE;
+	
 	private long writeOffset = 0;
 	
 	private BufferedWriter error_log;
 	
+/**
+ * The path, name and extension of the checkpoint file of the build
+ * 
+ */
+	
+	private String checkpointName;
+	
+/**
+ * The path, name and extension of the file recording the range of lines of a shard
+ * 
+ */
+	
+	private String shardRangeName;
+	
+/**
+ * True if the build continues from its last checkpoint
+ * 
+ */
+	
+	private boolean resume = false;
+	
 	
 /**
  * <<Constructor>> Constructor that takes the name of pgrd file to be written to
@@ -144,6 +202,22 @@ public class PgrdBuilder extends FileModel {
 	
 	PgrdBuilder( String pgrdName, String errorLogFile, ShapeFile shp ) throws FileNotFoundException, IOException, RecordOutOfBoundsException {
 		
+		this( pgrdName, errorLogFile, shp, null );
+	}
+	
+/**
+ * <<Constructor>> Constructor that takes the name of pgrd file to be written to
+ * 	
+ * @param pgrdName The name of the pgrd file to be written to
+ * @param errorLogFile The name of a text file to write error messages to
+ * @param edges The {@link EdgeTable} of the shapefile, or null to decode the records
+ * @throws FileNotFoundException
+ * @throws IOException
+ * 
+ */
+	
+	PgrdBuilder( String pgrdName, String errorLogFile, ShapeFile shp, EdgeTable edges ) throws FileNotFoundException, IOException, RecordOutOfBoundsException {
+		
 		super( new RandomAccessFile[] {
 				
 				new RandomAccessFile( pgrdName+".pgrd", "rw" )
@@ -155,12 +229,127 @@ public class PgrdBuilder extends FileModel {
 		
 		Form_h = new FormationHeader();
 		
-		elpp = new EqualLatitudePointPlace( shp );
+		this.edges = edges;
 		
 		error_log = new BufferedWriter( new FileWriter( new File( errorLogFile ), true ) );
+		
+		checkpointName = pgrdName + ".pgrd" + BuildCheckpoint.EXTENSION;
+		
+		shardRangeName = pgrdName + ".pgrd" + ShardRange.EXTENSION;
 			
 	}
 	
+/**
+ * Makes the build continue from its last checkpoint ( *.pgrd.ckpt ) if there is one. The checkpoint of a complete
+ * build is kept, so that resuming it does nothing.
+ * 
+ */
+	
+	public void resume() {
+		
+		resume = true;
+	}
+	
+/**
+ * Makes the build process the lines in bands of a given number of lines. Only the records crossing a band (found
+ * through the record index of the shapefile) are loaded while its lines are written, so the memory used depends on
+ * the size of the bands rather than on the number of records. The file is the same as without bands.
+ * 
+ * @param lines The number of lines of a band, or 0 to build all lines with all the records
+ * 
+ */
+	
+	public void setBandLines( int lines ) {
+		
+		bandLines = lines;
+	}
+	
+/**
+ * Makes the build carry the crossings of every record from one line to the next instead of testing all the edges
+ * of the record on every line (see {@link IncrementalCrossings}). The file is the same as without it.
+ * 
+ * @throws FileBuildError if the builder does not read the records from an edge table
+ * 
+ */
+	
+	public void setIncremental() throws FileBuildError {
+		
+		if( edges == null )
+			
+			throw new FileBuildError( "Incremental crossings need an edge table" );
+		
+		incremental = true;
+	}
+	
+/**
+ * Makes the build compute crossings in fixed point arithmetic from the points of the records at full precision
+ * (see {@link FixedPointCrossings}) rather than in float arithmetic. The longitudes of the file may differ from a
+ * float build by the float rounding of the points, and parts touching a line at a vertex are kept.
+ * 
+ */
+	
+	public void setFixedPoint() {
+		
+		fixedPoint = true;
+	}
+	
+/**
+ * Makes the build rasterize only a range of lines, as a shard of a build split between several processes. The
+ * other lines are written without any formation, so that the shards can be joined line by line. The range is
+ * saved in a sidecar file ( *.pgrd.shard ) when the build completes.
+ * 
+ * @param first The index of the first line to build
+ * @param end The index following the last line to build
+ * 
+ */
+	
+	public void setLineRange( int first, int end ) {
+		
+		firstLine = first;
+		
+		endLine = end;
+	}
+	
+/**
+ * Loads the records crossing a band of lines
+ * 
+ * @param sf The ShapeFile the pgrd is built from
+ * @param first The index of the first line of the band
+ * @param end The index following the last line of the band
+ * @throws FileBuildError
+ * 
+ */
+	
+	private void loadBand( ShapeFile sf, int first, int end ) throws FileBuildError {
+		
+		//line k is written at latitude minimum latitude + ( k + 1 )*latitude interval
+		double south = File_h.MINIMUM_LATITUDE + ( first + 1 )*File_h.LATITUDE_INTERVAL,
+			   north = File_h.MINIMUM_LATITUDE + end*File_h.LATITUDE_INTERVAL;
+		
+		elpp = null;
+		
+		try {
+			
+			elpp = new EqualLatitudePointPlace( sf, edges, sf.recordsInBand( south, north ) );
+			
+			if( incremental )
+				
+				elpp.setIncremental();
+			
+			if( fixedPoint )
+				
+				elpp.setFixedPoint( sf, File_h.MINIMUM_LATITUDE, File_h.MINIMUM_LONGITUDE, File_h.LATITUDE_INTERVAL );
+		}
+		catch( IOException ioe ) {
+			
+			throw new FileBuildError( "Failed to load the records of lines "+first+" to "+( end - 1 ) );
+		}
+		catch( RecordOutOfBoundsException robe ) {
+			
+			throw new FileBuildError( "Failed to load the records of lines "+first+" to "+( end - 1 ) );
+		}
+	}
+	
 /**
  * A bus function used to capture and record all errors associated with thrown exceptions in the process of building the file
  * 
@@ -264,6 +453,26 @@ public class PgrdBuilder extends FileModel {
 		
 		enclosingRecords.clear();
 		
+		latitude = File_h.MINIMUM_LATITUDE + num_line*File_h.LATITUDE_INTERVAL;
+			
+		enclosingRecords = elpp.getEnclosingBoxes( latitude );
+		
+		//a line crossing no bounding box is written without any formation
+		if( enclosingRecords.isEmpty() ) {
+			
+			writeEmptyLine( num_line );
+			
+			return;
+		}
+		
+		//a line crossing a single bounding box can only hold that record
+		if( enclosingRecords.size() == 1 ) {
+			
+			writeSingleFormationLine( sf, num_line, enclosingRecords.get( 0 ).intValue() );
+			
+			return;
+		}
+		
 		Line_h.clear();
 		
 		try {
@@ -276,10 +485,6 @@ public class PgrdBuilder extends FileModel {
 			
 		}
 		
-		latitude = File_h.MINIMUM_LATITUDE + num_line*File_h.LATITUDE_INTERVAL;
-			
-		enclosingRecords = elpp.getEnclosingBoxes( latitude );
-		
 		//set header data
 		Line_h.START_OFFSET = writeOffset;
 		Line_h.NUMBER_OF_FORMATIONS = enclosingRecords.size();
@@ -324,6 +529,133 @@ public class PgrdBuilder extends FileModel {
 
 	}
 	
+/**
+ * Writes a latitude line without any formation to the growing pgrd file
+ * 
+ * @param num_line The latitude line number starting from the smallest latitude northward
+ * 
+ */
+	
+	protected void writeEmptyLine( int num_line ) {
+		
+		try {
+			
+			putLongAt( (short) 0, 40 + num_line*8, writeOffset );
+			
+			putIntAt( (short) 0, writeOffset, 8 );
+			
+			putIntAt( (short) 0, writeOffset + 4, 0 );
+		}
+		catch( IOException ioe ) {
+			
+			_error_log( " Failed to write empty line number "+num_line );
+		}
+		
+		writeOffset += 8;
+	}
+	
+/**
+ * Writes a latitude line crossing the bounding box of a single record to the growing pgrd file, with the same bytes
+ * as {@link #writeLine(ShapeFile, int)} but without its line header model
+ * 
+ * @param sf The ShapeFile where the data for writing originates
+ * @param num_line The latitude line number starting from the smallest latitude northward
+ * @param formationIndex The index of the record
+ * 
+ */
+	
+	private void writeSingleFormationLine( ShapeFile sf, int num_line, int formationIndex ) {
+		
+		long start = writeOffset;
+		
+		//the line header holds its length, one formation and the offset of the formation within the line
+		writeOffset += 12;
+		
+		int length = 12;
+		
+		try {
+			
+			length += writeFormation( sf, formationIndex, latitude );
+		}
+		catch( PointPlaceException ppe ) {
+			
+			_error_log( " Failed to write a formation due to PointPlaceException at: line "+num_line+ ", record 0" );
+		}
+		
+		try {
+			
+			putLongAt( (short) 0, 40 + num_line*8, start );
+			
+			putIntAt( (short) 0, start, length );
+			
+			putIntAt( (short) 0, start + 4, 1 );
+			
+			putIntAt( (short) 0, start + 8, 12 );
+		}
+		catch( IOException ioe ) {
+			
+			_error_log(" Failed to write line header for line number "+num_line );
+		}
+	}
+	
+/**
+ * Flushes the file to disk and records the number of lines written in the checkpoint file
+ * 
+ * @param checkpoint The checkpoint of the build
+ * @param nextLine The index of the next line to be written
+ * 
+ */
+	
+	private void saveCheckpoint( BuildCheckpoint checkpoint, int nextLine ) {
+		
+		try {
+			
+			sync( (short) 0 );
+			
+			checkpoint.NEXT_LINE = nextLine;
+			
+			checkpoint.WRITE_OFFSET = writeOffset;
+			
+			checkpoint.write( checkpointName );
+		}
+		catch( IOException ioe ) {
+			
+			_error_log( " Failed to save checkpoint at: line "+nextLine );
+		}
+	}
+	
+/**
+ * Checks that a checkpoint belongs to this build and agrees with the partially written file: the last line
+ * recorded in the offset table must end at the checkpointed write offset
+ * 
+ * @param checkpoint The checkpoint read from the checkpoint file
+ * @param fingerprint The fingerprint of this build
+ * @return True if the build can continue from the checkpoint
+ * @throws IOException
+ * 
+ */
+	
+	private boolean checkpointValid( BuildCheckpoint checkpoint, long fingerprint ) throws IOException {
+		
+		if( checkpoint.FINGERPRINT != fingerprint || checkpoint.NUMBER_LINES != File_h.NUMBER_OF_LATITUDE_LINES 
+			|| checkpoint.NEXT_LINE > checkpoint.NUMBER_LINES || getFileLength() < checkpoint.WRITE_OFFSET )
+			
+			return false;
+		
+		if( checkpoint.NEXT_LINE == 0 )
+			
+			return checkpoint.WRITE_OFFSET == File_h.LENGTH;
+		
+		//line k is written through writeLine( sf, k+1 ), its offset is at 40 + ( k+1 )*8
+		raf_list[ 0 ].seek( 40 + checkpoint.NEXT_LINE*8 );
+		
+		long lastLine = raf_list[ 0 ].readLong();
+		
+		raf_list[ 0 ].seek( lastLine );
+		
+		return lastLine + raf_list[ 0 ].readInt() == checkpoint.WRITE_OFFSET;
+	}
+	
 /**
  * Writes a formation to a line and its header 
  * 
@@ -340,7 +672,7 @@ public class PgrdBuilder extends FileModel {
 		
 		intersections.clear();
 		
-		intersections = elpp.interiorSegments( sf, formationIndex , (float) latitude );
+		intersections = elpp.interiorSegments( sf, formationIndex , latitude );
 		
 		Form_h.clear();
 		
@@ -352,7 +684,7 @@ public class PgrdBuilder extends FileModel {
 		
 			writeOffset += 4;
 			
-			putShortAt( (short) 0, writeOffset, (short) formationIndex );
+			putUnsignedAt( (short) 0, writeOffset, formationIndex, File_h.LENGTH_OF_FORMATION_ID );
 			
 			writeOffset += File_h.LENGTH_OF_FORMATION_ID;
 		
@@ -381,27 +713,133 @@ public class PgrdBuilder extends FileModel {
  */
 	public void build( ShapeFile sf, double lat_interval, int formation_index_size ) throws FileBuildError {
 		
+		build( sf, lat_interval, formation_index_size, null );
+	}
+	
+/**
+ * Builds the pgrd file rasterizing only a selection of its lines. The other lines are written without any formation.
+ * 
+ * @param sf The ShapeFile instance based on which the pgrd is to be written
+ * @param lat_interval The interval between successive latitude lines 
+ * @param formation_index_size The length in bytes of a formation index
+ * @param lines A flag for every line of the file telling whether it is rasterized, or null to rasterize all lines
+ * @throws FileBuildError
+ * 
+ */
+	public void build( ShapeFile sf, double lat_interval, int formation_index_size, boolean [] lines ) throws FileBuildError {
+		
 		System.out.println(" Beginning pgrd build...");
 		
 		latitude = File_h.MINIMUM_LATITUDE;
 		
+		//a revision of the shapefile or other crossing settings would be spliced onto the lines already written
+		long fingerprint = BuildCheckpoint.fingerprint( new long[] { sf.fileHash( sf.SHP_EXTENSION ), sf.fileHash( sf.SHX_EXTENSION ),
+																	 lines == null ? 0 : Arrays.hashCode( lines ) },
+														sf.fileLength, sf.latMin, sf.latMax, sf.lonMin, sf.lonMax, lat_interval, formation_index_size,
+														fixedPoint ? 1 : 0, incremental ? 1 : 0, bandLines, edges == null ? 0 : edges.tolerance(),
+														firstLine, endLine );
+		
+		//the range of an earlier build would describe another file until this one is complete
+		ShardRange.delete( shardRangeName );
+		
+		BuildCheckpoint checkpoint;
+		
 		try {
 			
-			writeHeader( lat_interval, formation_index_size, sf );
+			checkpoint = resume ? BuildCheckpoint.read( checkpointName ) : null;
+			
+			if( checkpoint != null ) {
+				
+				setHeaderData( lat_interval, formation_index_size, sf );
+				
+				if( !checkpointValid( checkpoint, fingerprint ) )
+					
+					throw new FileBuildError( "Checkpoint "+checkpointName+" does not match this build" );
+				
+				//drop anything written after the checkpoint
+				truncate( (short) 0, checkpoint.WRITE_OFFSET );
+				
+				writeOffset = checkpoint.WRITE_OFFSET;
+				
+				System.out.println(" Resuming from line "+checkpoint.NEXT_LINE );
+			}
+			else {
+				
+				writeHeader( lat_interval, formation_index_size, sf );
+				
+				checkpoint = new BuildCheckpoint( File_h.NUMBER_OF_LATITUDE_LINES, fingerprint );
+			}
 		}
 		catch( IOException ioe ) {
 			
 			throw new FileBuildError("Failed to write header.");
 		}
 		
+		if( bandLines == 0 ) {
+			
+			try {
+				
+				elpp = edges == null ? new EqualLatitudePointPlace( sf ) : new EqualLatitudePointPlace( sf, edges );
+				
+				if( incremental )
+					
+					elpp.setIncremental();
+				
+				if( fixedPoint )
+					
+					elpp.setFixedPoint( sf, File_h.MINIMUM_LATITUDE, File_h.MINIMUM_LONGITUDE, File_h.LATITUDE_INTERVAL );
+			}
+			catch( IOException ioe ) {
+				
+				throw new FileBuildError( "Failed to load the records." );
+			}
+			catch( RecordOutOfBoundsException robe ) {
+				
+				throw new FileBuildError( "Failed to load the records." );
+			}
+		}
+		
 		String progress_base =  " of " + File_h.NUMBER_OF_LATITUDE_LINES + " lines complete";
 		
-		for( int k = 0; k < File_h.NUMBER_OF_LATITUDE_LINES; k++ ) {
+		int loadedBand = -1;
+		
+		for( int k = checkpoint.NEXT_LINE; k < File_h.NUMBER_OF_LATITUDE_LINES; k++ ) {
 			
 			if( k % 50 == 0 && k!=0)
 				System.out.print( '\r' +" "+ k + progress_base );
 			
-			writeLine( sf, k+1 );
+			if( ( lines == null || lines[ k ] ) && k >= firstLine && k < endLine ) {
+				
+				//a band is loaded when its first line to build is reached
+				if( bandLines > 0 && k/bandLines != loadedBand ) {
+					
+					loadedBand = k/bandLines;
+					
+					loadBand( sf, k, Math.min( ( loadedBand + 1 )*bandLines, File_h.NUMBER_OF_LATITUDE_LINES ) );
+				}
+				
+				writeLine( sf, k+1 );
+			}
+			
+			else
+				
+				writeEmptyLine( k+1 );
+			
+			if( ( k+1 ) % BuildCheckpoint.INTERVAL == 0 || k+1 == File_h.NUMBER_OF_LATITUDE_LINES )
+				
+				saveCheckpoint( checkpoint, k+1 );
+		}
+		
+		if( firstLine > 0 || endLine < File_h.NUMBER_OF_LATITUDE_LINES ) {
+			
+			try {
+				
+				new ShardRange( File_h.NUMBER_OF_LATITUDE_LINES, firstLine, endLine ).write( shardRangeName );
+			}
+			catch( IOException ioe ) {
+				
+				throw new FileBuildError( "Failed to write the shard range "+shardRangeName );
+			}
 		}
 		
 		System.out.println('\r' + " Pgrd build complete!               ");
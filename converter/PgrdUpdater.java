@@ -0,0 +1,305 @@
+package converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import compressor.MinPgrdFile;
+import compressor.MinPgrdLine;
+import compressor.MinPgrdWriter;
+import compressor.PgrdFile;
+import compressor.PgrdMinifier;
+import compressor.PgrdMinifierEvent;
+import utils.BuildCheckpoint;
+import utils.FailedPgrdBuild;
+import utils.FileBuildError;
+import utils.RecordOutOfBoundsException;
+import utils.ShapeFile;
+
+/**
+ *
+ * Updates a .min.pgrd file after a revision of its shapefile by rebuilding only the latitude lines crossed by the
+ * records that were added, removed or changed. Records are compared by index (the formation index of a record is its
+ * index) through a hash of their geometry. The lines within the latitude extent of the old or new version of a
+ * changed record are rasterized and compressed again; every other line is copied from the old file.
+ *
+ * The shapefile must keep its bounding box, since the grid of the file depends on it.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class PgrdUpdater {
+
+	private ShapeFile oldShp, newShp;
+
+	private MinPgrdFile oldMin;
+
+/**
+ *
+ * A flag for every line telling whether it has to be rebuilt
+ *
+ */
+
+	private boolean [] dirty;
+
+	private int changedRecords, dirtyLines;
+
+/**
+ *
+ * Constructor. Finds the changed records and the lines they cross.
+ *
+ * @param oldShp The shapefile the old file was built from
+ * @param newShp The revised shapefile
+ * @param oldMin The file built from the old shapefile
+ * @throws IOException if the revised shapefile or the old file do not fit the grid of the old file, or if the
+ * 			runs of the old file are coalesced by attribute
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public PgrdUpdater( ShapeFile oldShp, ShapeFile newShp, MinPgrdFile oldMin ) throws IOException, RecordOutOfBoundsException {
+
+		this.oldShp = oldShp;
+
+		this.newShp = newShp;
+
+		this.oldMin = oldMin;
+
+		if( oldShp.latMin != newShp.latMin || oldShp.latMax != newShp.latMax || oldShp.lonMin != newShp.lonMin || oldShp.lonMax != newShp.lonMax )
+
+			throw new IOException( "The bounding box of the shapefile changed, a full build is needed" );
+
+		if( oldMin.NUMBER_LATITUDE_LINES != (int) ( ( oldShp.latMax - oldShp.latMin )/oldMin.LATITUDE_INTERVAL )
+			|| oldMin.MINIMUM_LATITUDE != oldShp.latMin )
+
+			throw new IOException( "The old file was not built from the old shapefile" );
+
+		//the formation index of a record depends on the attributes of every record, which are not compared
+		if( ( oldMin.FLAGS & MinPgrdFile.ATTRIBUTE_RUNS ) != 0 )
+
+			throw new IOException( "The runs of the old file are coalesced by attribute, a full build is needed" );
+
+		//the lines copied from the old file keep its formation identifiers
+		if( MinPgrdLine.identifierLength( newShp.recordCount() - 1 ) > oldMin.TYPE_OF_SEGMENT_IDENTIFIER )
+
+			throw new IOException( "The records of the new shapefile do not fit the formation identifiers of the old file, a full build is needed" );
+
+		dirty = new boolean[ oldMin.NUMBER_LATITUDE_LINES ];
+
+		changedRecords = 0;
+
+		int oldCount = oldShp.recordCount(), newCount = newShp.recordCount();
+
+		for( int r = 0; r < Math.max( oldCount, newCount ); r++ ) {
+
+			if( r < oldCount && r < newCount && oldShp.geometryHash( r ) == newShp.geometryHash( r ) )
+
+				continue;
+
+			changedRecords++;
+
+			if( r < oldCount )
+
+				markLines( oldShp.minLat( r ), oldShp.maxLat( r ) );
+
+			if( r < newCount )
+
+				markLines( newShp.minLat( r ), newShp.maxLat( r ) );
+		}
+
+		dirtyLines = 0;
+
+		for( boolean d : dirty ) {
+
+			if( d )
+
+				dirtyLines++;
+		}
+	}
+
+/**
+ *
+ * Flags the lines crossing a latitude range (with one line to spare on each side for the rounding of latitudes
+ * when lines are rasterized)
+ *
+ * @param minLat The minimum latitude of the range
+ * @param maxLat The maximum latitude of the range
+ *
+ */
+
+	private void markLines( double minLat, double maxLat ) {
+
+		double latInterval = oldMin.LATITUDE_INTERVAL;
+
+		//line k lies at latitude minimum latitude + ( k + 1 )*latitude interval
+		int first = (int) Math.max( 0, Math.ceil( ( minLat - oldMin.MINIMUM_LATITUDE )/latInterval ) - 2 );
+
+		int last = (int) Math.min( dirty.length - 1, Math.floor( ( maxLat - oldMin.MINIMUM_LATITUDE )/latInterval ) );
+
+		for( int k = first; k <= last; k++ )
+
+			dirty[ k ] = true;
+	}
+
+/**
+ *
+ * Gets the number of records added, removed or changed
+ *
+ * @return The number of records
+ *
+ */
+
+	public int numberChangedRecords() {
+
+		return changedRecords;
+	}
+
+/**
+ *
+ * Gets the number of lines to rebuild
+ *
+ * @return The number of lines
+ *
+ */
+
+	public int numberDirtyLines() {
+
+		return dirtyLines;
+	}
+
+/**
+ *
+ * Writes the updated file
+ *
+ * @param oldMinName The path, name and extension of the old .min.pgrd file
+ * @param newName The path and name of the updated file to write (without extension)
+ * @param errorLog The path, name and extension of the error log file
+ * @throws IOException
+ * @throws FileBuildError
+ * @throws FailedPgrdBuild
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public void write( String oldMinName, String newName, String errorLog ) throws IOException, FileBuildError, FailedPgrdBuild, RecordOutOfBoundsException {
+
+		if( new File( oldMinName ).getCanonicalPath().equals( new File( newName + ".min.pgrd" ).getCanonicalPath() ) )
+
+			throw new IOException( "The updated file can not replace the old file" );
+
+		String partialName = newName + ".partial";
+
+		//rasterize and compress the dirty lines only, the others are left empty
+		PgrdBuilder builder = new PgrdBuilder( partialName, errorLog, newShp );
+
+		builder.build( newShp, oldMin.LATITUDE_INTERVAL, oldMin.TYPE_OF_SEGMENT_IDENTIFIER, dirty );
+
+		builder.close();
+
+		PgrdMinifier minifier = new PgrdMinifier( new PgrdFile( partialName + ".pgrd" ), partialName, errorLog );
+
+		//the rebuilt lines are encoded as the old ones
+		if( ( oldMin.FLAGS & MinPgrdFile.NO_DATA_RUNS ) != 0 )
+
+			minifier.setNoDataRuns();
+
+		if( ( oldMin.FLAGS & MinPgrdFile.EQUAL_AREA ) != 0 )
+
+			minifier.setEqualArea();
+
+		minifier.build( (float) oldMin.LONGITUDE_INTERVAL, new PgrdMinifierEvent() {
+
+			@Override
+			public void onLineWriteComplete( int a, int n ) {}
+
+			@Override
+			public void onStartFileWrite() {}
+
+			@Override
+			public void onFinishFileWrite() {}
+
+		});
+
+		minifier.close();
+
+		MinPgrdFile partial = new MinPgrdFile( partialName + ".min.pgrd" );
+
+		RandomAccessFile oldSource = new RandomAccessFile( oldMinName, "r" );
+
+		RandomAccessFile partialSource = new RandomAccessFile( partialName + ".min.pgrd", "r" );
+
+		MinPgrdWriter writer = new MinPgrdWriter( newName + ".min.pgrd", oldMin );
+
+		try {
+
+			for( int k = 0; k < dirty.length; k++ ) {
+
+				if( dirty[ k ] )
+
+					writer.transferLine( partialSource.getChannel(), partial.lineOffset( k ), partial.lineSize( k ) );
+
+				else
+
+					writer.transferLine( oldSource.getChannel(), oldMin.lineOffset( k ), oldMin.lineSize( k ) );
+			}
+		}
+		finally {
+
+			writer.close();
+
+			oldSource.close();
+
+			partialSource.close();
+
+			partial.close();
+
+			new File( partialName + ".pgrd" ).delete();
+
+			new File( partialName + ".min.pgrd" ).delete();
+
+			BuildCheckpoint.delete( partialName + ".pgrd" + BuildCheckpoint.EXTENSION );
+
+			BuildCheckpoint.delete( partialName + ".min.pgrd" + BuildCheckpoint.EXTENSION );
+		}
+	}
+
+/**
+ *
+ * Updates a .min.pgrd file after a revision of its shapefile
+ *
+ * @param args args[0] : path and name of the shapefile the old file was built from (without .shp extension)
+ * 				args[1] : path and name of the revised shapefile (without .shp extension)
+ * 				args[2] : path, name and extension of the old .min.pgrd file
+ * 				args[3] : path and name of the updated file to write (without extension)
+ * 				args[4] : (optional) path, name and extension of the error log file
+ *
+ */
+
+	public static void main( String [] args ) {
+
+		if( args.length < 4 ) {
+
+			System.out.println( "Invalid number of arguments!" );
+
+			return;
+		}
+
+		try {
+
+			MinPgrdFile oldMin = new MinPgrdFile( args[2] );
+
+			PgrdUpdater updater = new PgrdUpdater( new ShapeFile( args[0] ), new ShapeFile( args[1] ), oldMin );
+
+			System.out.println( " " + updater.numberChangedRecords() + " records changed, rebuilding "
+								+ updater.numberDirtyLines() + " of " + oldMin.NUMBER_LATITUDE_LINES + " lines" );
+
+			updater.write( args[2], args[3], args.length > 4 ? args[4] : "error_log.txt" );
+
+			System.out.println( " Update complete!" );
+
+		}
+		catch( Exception e ) { System.out.println( "Exception thrown! : " + e.getMessage() ); }
+	}
+
+}
@@ -0,0 +1,435 @@
+package converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p>A class to simplify the parts (rings) of polygon records with the Douglas-Peucker algorithm before they are
+ * rasterized, dropping the vertices which are closer than a tolerance to the simplified ring. With a tolerance below
+ * the latitude interval most dropped vertices could not change a point of the grid, while every vertex costs time on
+ * every line crossing its part.
+ *
+ * <p>The simplification keeps the topology of a record: every ring keeps at least four distinct vertices, and
+ * wherever a simplified edge crosses or touches another edge of the record (of the same ring or of another part) the
+ * farthest vertex it dropped is put back, until no simplified edge crosses another. Records are simplified one at a
+ * time, so the common boundary of two records may move apart by up to the tolerance.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class PolygonSimplifier {
+
+	private double tolerance;
+
+	private long verticesIn = 0, verticesOut = 0;
+
+	private double area = 0;
+
+/**
+ * Constructor
+ *
+ * @param tolerance The greatest distance (in degrees, latitude and longitude taken as plane coordinates) between a
+ * 			dropped vertex and the simplified ring
+ *
+ */
+
+	public PolygonSimplifier( double tolerance ) {
+
+		this.tolerance = tolerance;
+	}
+
+/**
+ * Gets the tolerance
+ *
+ * @return The tolerance in degrees
+ *
+ */
+
+	public double getTolerance() {
+
+		return tolerance;
+	}
+
+/**
+ * Gets the number of vertices of the parts simplified so far
+ *
+ * @return The number of vertices
+ *
+ */
+
+	public long numberVertices() {
+
+		return verticesIn;
+	}
+
+/**
+ * Gets the number of vertices kept in the parts simplified so far
+ *
+ * @return The number of vertices
+ *
+ */
+
+	public long numberKept() {
+
+		return verticesOut;
+	}
+
+/**
+ * Gets the area between the parts simplified so far and their simplified rings: the area of the points of the grid
+ * which may change formation, so divided by the area of a cell (latitude interval times longitude interval) it
+ * estimates the number of points the simplification changes
+ *
+ * @return The area in square degrees (latitude and longitude taken as plane coordinates)
+ *
+ */
+
+	public double movedArea() {
+
+		return area;
+	}
+
+/**
+ * Simplifies the parts of a record
+ *
+ * @param parts The points ( latitude, longitude ) of every part of the record, the last point of a part repeating
+ * 			the first one
+ * @return The points kept of every part
+ *
+ */
+
+	public float [][][] simplify( float [][][] parts ) {
+
+		boolean [][] keep = new boolean[ parts.length ][];
+
+		for( int p = 0; p < parts.length; p++ ) {
+
+			keep[p] = new boolean[ parts[p].length ];
+
+			if( parts[p].length < 5 ) {
+
+				Arrays.fill( keep[p], true );
+
+				continue;
+			}
+
+			int last = parts[p].length - 1, farthest = 1;
+
+			for( int i = 2; i < last; i++ ) {
+
+				if( distance( parts[p][i], parts[p][0], parts[p][0] ) > distance( parts[p][farthest], parts[p][0], parts[p][0] ) )
+
+					farthest = i;
+			}
+
+			keep[p][0] = keep[p][ farthest ] = keep[p][ last ] = true;
+
+			//each half keeps at least one inner vertex, so that the ring keeps four distinct vertices
+			simplify( parts[p], keep[p], 0, farthest, true );
+
+			simplify( parts[p], keep[p], farthest, last, true );
+		}
+
+		while( restoreCrossings( parts, keep ) );
+
+		float [][][] simplified = new float[ parts.length ][][];
+
+		for( int p = 0; p < parts.length; p++ ) {
+
+			ArrayList<float[]> points = new ArrayList<float[]>();
+
+			for( int i = 0; i < parts[p].length; i++ ) {
+
+				if( keep[p][i] )
+
+					points.add( parts[p][i] );
+			}
+
+			simplified[p] = points.toArray( new float[ points.size() ][] );
+
+			for( int i = 0, j = 1; j < parts[p].length; j++ ) {
+
+				if( keep[p][j] ) {
+
+					area += movedArea( parts[p], i, j );
+
+					i = j;
+				}
+			}
+
+			verticesIn += parts[p].length;
+
+			verticesOut += simplified[p].length;
+		}
+
+		return simplified;
+	}
+
+	//A function to run Douglas-Peucker on the vertices between two kept vertices of a ring
+	private void simplify( float [][] points, boolean [] keep, int start, int end, boolean force ) {
+
+		int [] stack = new int[ 64 ];
+
+		int top = 0;
+
+		stack[ top++ ] = start;
+
+		stack[ top++ ] = end;
+
+		while( top > 0 ) {
+
+			int j = stack[ --top ], i = stack[ --top ];
+
+			int k = farthest( points, i, j );
+
+			if( k < 0 || !force && distance( points[k], points[i], points[j] ) <= tolerance )
+
+				continue;
+
+			force = false;
+
+			keep[k] = true;
+
+			if( top + 4 > stack.length )
+
+				stack = Arrays.copyOf( stack, stack.length*2 );
+
+			stack[ top++ ] = i;
+
+			stack[ top++ ] = k;
+
+			stack[ top++ ] = k;
+
+			stack[ top++ ] = j;
+		}
+	}
+
+	//A function to find the vertex between two vertices of a ring farthest from the segment joining them (-1 if none)
+	private static int farthest( float [][] points, int i, int j ) {
+
+		int k = -1;
+
+		double greatest = -1;
+
+		for( int m = i + 1; m < j; m++ ) {
+
+			double d = distance( points[m], points[i], points[j] );
+
+			if( d > greatest ) {
+
+				greatest = d;
+
+				k = m;
+			}
+		}
+
+		return k;
+	}
+
+	//A function to get the area between the vertices from one kept vertex to the next and the edge joining them: the
+	//area crossed an odd number of times by the loop they make, which is where points inside one of them are outside
+	//the other. Taking the simplified edge as the axis, the dropped edges are linear between the projections of the
+	//vertices, so the loop is cut at every perpendicular in the middle of two projections.
+	private static double movedArea( float [][] points, int i, int j ) {
+
+		double dLat = points[j][0] - points[i][0], dLon = points[j][1] - points[i][1], length = Math.sqrt( dLat*dLat + dLon*dLon );
+
+		if( j - i < 2 || length == 0 )
+
+			return 0;
+
+		double [] along = new double[ j - i + 1 ], across = new double[ j - i + 1 ];
+
+		for( int m = i; m <= j; m++ ) {
+
+			double lat = points[m][0] - points[i][0], lon = points[m][1] - points[i][1];
+
+			along[ m - i ] = ( lat*dLat + lon*dLon )/length;
+
+			across[ m - i ] = ( lon*dLat - lat*dLon )/length;
+		}
+
+		double [] cuts = along.clone(), heights = new double[ along.length ];
+
+		Arrays.sort( cuts );
+
+		double moved = 0;
+
+		for( int c = 0; c + 1 < cuts.length; c++ ) {
+
+			double width = cuts[ c+1 ] - cuts[c], middle = ( cuts[c] + cuts[ c+1 ] )/2;
+
+			if( width <= 0 )
+
+				continue;
+
+			//the simplified edge crosses every perpendicular at 0 when it lies between its ends
+			int n = 0;
+
+			if( middle > 0 && middle < length )
+
+				heights[ n++ ] = 0;
+
+			for( int m = 0; m + 1 < along.length; m++ ) {
+
+				if( ( along[m] < middle ) != ( along[ m+1 ] < middle ) )
+
+					heights[ n++ ] = across[m] + ( across[ m+1 ] - across[m] )*( middle - along[m] )/( along[ m+1 ] - along[m] );
+			}
+
+			Arrays.sort( heights, 0, n );
+
+			for( int h = 0; h + 1 < n; h += 2 )
+
+				moved += width*( heights[ h+1 ] - heights[h] );
+		}
+
+		return moved;
+	}
+
+	//A function to get the distance between a point and a segment
+	private static double distance( float [] point, float [] a, float [] b ) {
+
+		double dLat = b[0] - a[0], dLon = b[1] - a[1], length = dLat*dLat + dLon*dLon;
+
+		double t = length == 0 ? 0 : Math.max( 0, Math.min( 1, ( ( point[0] - a[0] )*dLat + ( point[1] - a[1] )*dLon )/length ) );
+
+		double lat = point[0] - a[0] - t*dLat, lon = point[1] - a[1] - t*dLon;
+
+		return Math.sqrt( lat*lat + lon*lon );
+	}
+
+	//A function to get the orientation of three points (1 counterclockwise, -1 clockwise, 0 aligned)
+	private static int orientation( float [] a, float [] b, float [] c ) {
+
+		double cross = ( (double) b[0] - a[0] )*( (double) c[1] - a[1] ) - ( (double) b[1] - a[1] )*( (double) c[0] - a[0] );
+
+		return cross > 0 ? 1 : cross < 0 ? -1 : 0;
+	}
+
+	//A function to test whether a point aligned with a segment lies on it
+	private static boolean onSegment( float [] point, float [] a, float [] b ) {
+
+		return Math.min( a[0], b[0] ) <= point[0] && point[0] <= Math.max( a[0], b[0] )
+				&& Math.min( a[1], b[1] ) <= point[1] && point[1] <= Math.max( a[1], b[1] );
+	}
+
+	//A function to test whether two segments cross or touch
+	private static boolean intersect( float [] a, float [] b, float [] c, float [] d ) {
+
+		int o1 = orientation( a, b, c ), o2 = orientation( a, b, d ), o3 = orientation( c, d, a ), o4 = orientation( c, d, b );
+
+		if( o1 != o2 && o3 != o4 )
+
+			return true;
+
+		return o1 == 0 && onSegment( c, a, b ) || o2 == 0 && onSegment( d, a, b )
+				|| o3 == 0 && onSegment( a, c, d ) || o4 == 0 && onSegment( b, c, d );
+	}
+
+/**
+ * Puts back the farthest dropped vertex of every simplified edge crossing or touching another edge of the record
+ * (edges sharing an end point excepted)
+ *
+ * @param parts The points of every part of the record
+ * @param keep The vertices kept in every part
+ * @return true if a vertex was put back
+ *
+ */
+
+	private boolean restoreCrossings( final float [][][] parts, boolean [][] keep ) {
+
+		//the edges of the simplified record: part, start vertex and end vertex
+		ArrayList<int[]> segments = new ArrayList<int[]>();
+
+		for( int p = 0; p < parts.length; p++ ) {
+
+			int start = -1;
+
+			for( int i = 0; i < parts[p].length; i++ ) {
+
+				if( !keep[p][i] )
+
+					continue;
+
+				if( start >= 0 )
+
+					segments.add( new int[] { p, start, i } );
+
+				start = i;
+			}
+		}
+
+		int [][] edges = segments.toArray( new int[ segments.size() ][] );
+
+		//sweep the edges in increasing minimum latitude
+		Arrays.sort( edges, new Comparator<int[]>() {
+			@Override
+			public int compare( int[] s1, int[] s2 ) {
+
+				return Float.compare( Math.min( parts[ s1[0] ][ s1[1] ][0], parts[ s1[0] ][ s1[2] ][0] ),
+									  Math.min( parts[ s2[0] ][ s2[1] ][0], parts[ s2[0] ][ s2[2] ][0] ) );
+			}
+		});
+
+		boolean [] crossing = new boolean[ edges.length ];
+
+		ArrayList<Integer> active = new ArrayList<Integer>();
+
+		for( int s = 0; s < edges.length; s++ ) {
+
+			float [] a = parts[ edges[s][0] ][ edges[s][1] ], b = parts[ edges[s][0] ][ edges[s][2] ];
+
+			float south = Math.min( a[0], b[0] );
+
+			for( int n = active.size() - 1; n >= 0; n-- ) {
+
+				int t = active.get( n );
+
+				float [] c = parts[ edges[t][0] ][ edges[t][1] ], d = parts[ edges[t][0] ][ edges[t][2] ];
+
+				if( Math.max( c[0], d[0] ) < south ) {
+
+					active.remove( n );
+
+					continue;
+				}
+
+				if( Arrays.equals( a, c ) || Arrays.equals( a, d ) || Arrays.equals( b, c ) || Arrays.equals( b, d ) )
+
+					continue;
+
+				if( intersect( a, b, c, d ) ) {
+
+					crossing[s] = true;
+
+					crossing[t] = true;
+				}
+			}
+
+			active.add( s );
+		}
+
+		boolean restored = false;
+
+		for( int s = 0; s < edges.length; s++ ) {
+
+			if( !crossing[s] )
+
+				continue;
+
+			int k = farthest( parts[ edges[s][0] ], edges[s][1], edges[s][2] );
+
+			if( k >= 0 ) {
+
+				keep[ edges[s][0] ][k] = true;
+
+				restored = true;
+			}
+		}
+
+		return restored;
+	}
+
+}
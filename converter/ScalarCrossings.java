@@ -0,0 +1,43 @@
+package converter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * A {@link CrossingKernel} testing one edge at a time
+ * 
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class ScalarCrossings implements CrossingKernel {
+	
+	@Override
+	public String name() {
+		
+		return "scalar";
+	}
+	
+	@Override
+	public void crossings( EdgeTable edges, int first, int end, float latitude, ArrayList<Float> intersects ) {
+		
+		ByteBuffer startLat = edges.floats( EdgeTable.START_LATITUDE ), startLon = edges.floats( EdgeTable.START_LONGITUDE ),
+				   endLat = edges.floats( EdgeTable.END_LATITUDE ), slope = edges.floats( EdgeTable.SLOPE ), flags = edges.flags();
+		
+		for( int e = first; e < end; e++ ) {
+			
+			float mLat = startLat.getFloat( e*4 );
+			
+			if( !EdgeTable.crosses( mLat, endLat.getFloat( e*4 ), latitude ) )
+				
+				continue;
+			
+			float il = EdgeTable.intersection( flags.get( e ), latitude, mLat, startLon.getFloat( e*4 ), slope.getFloat( e*4 ) );
+			
+			if( EqualLatitudePointPlace.validLon( il ) )
+				
+				intersects.add( Float.valueOf( il ) );
+		}
+	}
+
+}
@@ -5,6 +5,8 @@ b="/bin"
 util_path="./utils"
 convert_path="./converter"
 compress_path="./compressor"
+tools_path="./tools"
+vector_path="./vector"
 parent_folder="/shp2pgrd"
 main_implement_class=" Shp2pgrd"
 
@@ -28,9 +30,16 @@ if [ -d $install_location ]; then
     
     echo "Installing..."
     
-    javac -d $install_location1 $util_path$j $convert_path$j $compress_path$j *.java
+    javac -d $install_location1 $util_path$j $convert_path$j $compress_path$j $tools_path$j *.java
     compile_status=$?
     
+# Compile the SIMD crossing kernel where the jdk.incubator.vector module is available (optional)
+    vector_option=""
+    if javac --add-modules jdk.incubator.vector -classpath $install_location1 -d $install_location1 $vector_path$j 2> /dev/null
+    then
+        vector_option=" --add-modules jdk.incubator.vector"
+    fi
+    
 # Make sure javac compiled source code cleanly
     if [ $compile_status==0 ]
     then
@@ -38,7 +47,7 @@ if [ -d $install_location ]; then
 # Writes alias 'shp2pgrd'     
         if [ -f ~/.bashrc ]
         then
-            program_run_command="java -classpath $install_location1 $main_implement_class"
+            program_run_command="java$vector_option -classpath $install_location1 $main_implement_class"
             
             echo "alias shp2pgrd='$program_run_command'" >> ~/.bashrc
         fi
@@ -0,0 +1,170 @@
+package tools;
+
+import java.util.ArrayList;
+
+import converter.CrossingKernel;
+import converter.EdgeTable;
+import converter.EqualLatitudePointPlace;
+import converter.ScalarCrossings;
+import utils.ShapeFile;
+
+/**
+ *
+ * Times the crossing kernels on the lines of a shapefile: the scalar kernel against the kernel a build selects
+ * (the SIMD kernel when the jdk.incubator.vector module is loaded). Every round computes the crossings of every
+ * enclosing record of every line with each kernel in turn, after as many warm up rounds; the best time of each
+ * kernel is reported along with a checksum of its crossings, which must be the same for both.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class CrossingBenchmark {
+
+	private EdgeTable edges;
+
+	//the latitude of every line and the records enclosing it
+	private float [] latitudes;
+
+	private int [][] records;
+
+	private ArrayList<Float> intersects = new ArrayList<Float>();
+
+/**
+ *
+ * Constructor. Finds the records enclosing every line.
+ *
+ * @param sf The shapefile
+ * @param edges The edge table of the shapefile
+ * @param latInterval The interval between lines
+ *
+ */
+
+	public CrossingBenchmark( ShapeFile sf, EdgeTable edges, double latInterval ) {
+
+		this.edges = edges;
+
+		EqualLatitudePointPlace elpp = new EqualLatitudePointPlace( sf, edges );
+
+		int numLines = (int) ( ( sf.latMax - sf.latMin )/latInterval );
+
+		latitudes = new float[ numLines ];
+
+		records = new int[ numLines ][];
+
+		for( int k = 0; k < numLines; k++ ) {
+
+			double latitude = sf.latMin + ( k + 1 )*latInterval;
+
+			ArrayList<Integer> enclosing = elpp.getEnclosingBoxes( latitude );
+
+			latitudes[k] = (float) latitude;
+
+			records[k] = new int[ enclosing.size() ];
+
+			for( int r = 0; r < records[k].length; r++ )
+
+				records[k][r] = enclosing.get( r ).intValue();
+		}
+	}
+
+/**
+ *
+ * Runs one round with a kernel
+ *
+ * @param kernel The kernel
+ * @param checksum An array receiving the number of crossings and the sum of their longitudes
+ * @return The time taken in nanoseconds
+ *
+ */
+
+	public long round( CrossingKernel kernel, double [] checksum ) {
+
+		edges.setKernel( kernel );
+
+		checksum[0] = checksum[1] = 0;
+
+		long start = System.nanoTime();
+
+		for( int k = 0; k < latitudes.length; k++ ) {
+
+			for( int r : records[k] ) {
+
+				intersects.clear();
+
+				edges.crossings( r, latitudes[k], intersects );
+
+				checksum[0] += intersects.size();
+
+				for( Float lon : intersects )
+
+					checksum[1] += lon.floatValue();
+			}
+		}
+
+		return System.nanoTime() - start;
+	}
+
+/**
+ *
+ * Times the crossing kernels
+ *
+ * @param args args[0] : path and name of the shapefile (without .shp extension)
+ * 				args[1] : interval between latitude lines
+ * 				args[2] : (optional) number of rounds, 5 by default
+ *
+ */
+
+	public static void main( String [] args ) {
+
+		if( args.length < 2 ) {
+
+			System.out.println( "Invalid number of arguments!" );
+
+			return;
+		}
+
+		try {
+
+			ShapeFile sf = new ShapeFile( args[0] );
+
+			EdgeTable edges = EdgeTable.open( sf, args[0] + EdgeTable.EXTENSION );
+
+			int rounds = args.length > 2 ? Integer.parseInt( args[2] ) : 5;
+
+			CrossingBenchmark benchmark = new CrossingBenchmark( sf, edges, Double.parseDouble( args[1] ) );
+
+			CrossingKernel [] kernels = { new ScalarCrossings(), EdgeTable.newKernel() };
+
+			long [] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+
+			double [][] checksums = new double[2][2];
+
+			for( int r = 0; r < 2*rounds; r++ ) {
+
+				for( int k = 0; k < kernels.length; k++ ) {
+
+					long time = benchmark.round( kernels[k], checksums[k] );
+
+					//the first rounds warm up the compiler
+					if( r >= rounds )
+
+						best[k] = Math.min( best[k], time );
+				}
+			}
+
+			System.out.println( " " + edges.numberEdges() + " edges, " + benchmark.latitudes.length + " lines" );
+
+			for( int k = 0; k < kernels.length; k++ )
+
+				System.out.println( " " + kernels[k].name() + " : " + best[k]/1000000 + " ms, "
+									+ (long) checksums[k][0] + " crossings, checksum " + checksums[k][1] );
+
+			if( checksums[0][0] != checksums[1][0] || checksums[0][1] != checksums[1][1] )
+
+				System.out.println( " The kernels found different crossings!" );
+
+		} catch( Exception e ) { System.out.println( "Exception thrown! : " + e.getMessage() ); }
+	}
+
+}
@@ -0,0 +1,140 @@
+package tools;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+import compressor.FormationIndexFile;
+import compressor.MinPgrdFile;
+import utils.RecordOutOfBoundsException;
+
+/**
+ *
+ * Answers where a formation occurs in a .min.pgrd file from its inverted formation index sidecar, without scanning
+ * the grid itself.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class FormationLocator {
+
+/**
+ *
+ * The grid the sidecar belongs to
+ *
+ */
+
+	private MinPgrdFile mpf;
+
+/**
+ *
+ * The inverted formation index of the grid
+ *
+ */
+
+	private FormationIndexFile fidx;
+
+/**
+ *
+ * Constructor
+ *
+ * @param minPgrdFile The grid
+ * @param indexFile The inverted formation index sidecar of the grid
+ *
+ */
+
+	public FormationLocator( MinPgrdFile minPgrdFile, FormationIndexFile indexFile ) {
+
+		mpf = minPgrdFile;
+
+		fidx = indexFile;
+	}
+
+/**
+ *
+ * Determines the bounding box of a formation
+ *
+ * @param formation The formation index
+ * @return A four part array with the minimum latitude, minimum longitude, maximum latitude and maximum longitude
+ * 			of the formation's points, or null if the formation does not occur in the grid
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public double [] boundingBox( int formation ) throws RecordOutOfBoundsException {
+
+		if( formation >= fidx.NUMBER_FORMATIONS || fidx.numberOccurrences( formation ) == 0 )
+
+			return null;
+
+		return new double[] { mpf.lineLatitude( fidx.minLine( formation ) ),
+							  fidx.minLon( formation ),
+							  mpf.lineLatitude( fidx.maxLine( formation ) ),
+							  fidx.maxLon( formation ) };
+	}
+
+/**
+ *
+ * Writes the bounding box of a formation followed by every line (and run in the line) it occurs in
+ *
+ * @param formation The formation index
+ * @param out The stream to write to
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public void write( int formation, PrintStream out ) throws RecordOutOfBoundsException {
+
+		double [] bbox = boundingBox( formation );
+
+		if( bbox == null ) {
+
+			out.println( "Formation " + formation + " does not occur in the grid" );
+
+			return;
+		}
+
+		out.println( "bbox," + bbox[0] + "," + bbox[1] + "," + bbox[2] + "," + bbox[3] );
+
+		out.println( "line,latitude,run" );
+
+		for( int o = 0; o < fidx.numberOccurrences( formation ); o++ ) {
+
+			int line = fidx.occurrenceLine( formation, o );
+
+			out.println( line + "," + mpf.lineLatitude( line ) + "," + fidx.occurrenceRun( formation, o ) );
+		}
+	}
+
+/**
+ *
+ * Prints where a formation occurs in a .min.pgrd file
+ *
+ * @param args args[0] : path, name and extension of the .min.pgrd file (its .fidx sidecar must be next to it)
+ * 				args[1] : the formation index to locate
+ *
+ */
+
+	public static void main( String [] args ) {
+
+		if( args.length != 2 ) {
+
+			System.out.println( "Invalid number of arguments!" );
+
+			return;
+		}
+
+		try {
+
+			MinPgrdFile mpf = new MinPgrdFile( args[0] );
+
+			FormationLocator locator = new FormationLocator( mpf, new FormationIndexFile( args[0] + FormationIndexFile.EXTENSION, mpf ) );
+
+			locator.write( Integer.parseInt( args[1] ), System.out );
+
+		}
+		catch( IOException ioe ) { System.out.println( "Exception thrown! : " + ioe.getMessage() ); }
+		catch( RecordOutOfBoundsException robe ) { System.out.println( "Invalid formation index: " + args[1] ); }
+	}
+
+}
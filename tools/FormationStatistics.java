@@ -0,0 +1,331 @@
+package tools;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import compressor.MinPgrdFile;
+import compressor.MinPgrdLine;
+import utils.RecordOutOfBoundsException;
+
+/**
+ *
+ * Computes the number of points and the true area covered by every formation of a .min.pgrd file from a single
+ * linear scan of its runs. Lines are split into blocks which worker threads pull one at a time, each worker
+ * accumulating into its own tables that are merged once all lines are done.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class FormationStatistics {
+
+/**
+ *
+ * The mean radius of the earth in kilometers
+ *
+ */
+
+	public static final double EARTH_RADIUS_KM = 6371.0088;
+
+/**
+ *
+ * The number of lines handed to a worker at a time
+ *
+ */
+
+	private static final int LINES_PER_BLOCK = 256;
+
+/**
+ *
+ * A class to hold the per formation totals of a single worker
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+	private class Accumulator {
+
+		public long [] POINTS = new long[ 256 ];
+
+		public double [] AREA = new double[ 256 ];
+
+/**
+ *
+ * Adds a run to the totals
+ *
+ * @param formation The formation index of the run
+ * @param numPoints The number of points in the run
+ * @param cellArea The area (in square kilometers) of a single point of the run
+ *
+ */
+
+		public void add( int formation, int numPoints, double cellArea ) {
+
+			if( formation >= POINTS.length ) {
+
+				int size = Math.max( formation + 1, POINTS.length << 1 );
+
+				POINTS = Arrays.copyOf( POINTS, size );
+
+				AREA = Arrays.copyOf( AREA, size );
+			}
+
+			POINTS[ formation ] += numPoints;
+
+			AREA[ formation ] += numPoints*cellArea;
+		}
+
+/**
+ *
+ * Adds the totals of another accumulator to this one
+ *
+ * @param acc The accumulator to merge in
+ *
+ */
+
+		public void merge( Accumulator acc ) {
+
+			if( acc.POINTS.length > POINTS.length ) {
+
+				POINTS = Arrays.copyOf( POINTS, acc.POINTS.length );
+
+				AREA = Arrays.copyOf( AREA, acc.AREA.length );
+			}
+
+			for( int f = 0; f < acc.POINTS.length; f++ ) {
+
+				POINTS[ f ] += acc.POINTS[ f ];
+
+				AREA[ f ] += acc.AREA[ f ];
+			}
+		}
+
+	}
+
+/**
+ *
+ * The file the statistics are computed from
+ *
+ */
+
+	private MinPgrdFile mpf;
+
+/**
+ *
+ * The merged totals, null until compute has been called
+ *
+ */
+
+	private Accumulator totals;
+
+/**
+ *
+ * Constructor
+ *
+ * @param minPgrdFile The .min.pgrd file to compute statistics for
+ *
+ */
+
+	public FormationStatistics( MinPgrdFile minPgrdFile ) {
+
+		mpf = minPgrdFile;
+	}
+
+/**
+ *
+ * Determines the area covered by one point of a line
+ *
+ * @param lineIndex The index (starting at 0) of the line
+ * @return The area in square kilometers
+ *
+ */
+
+	public double cellArea( int lineIndex ) {
+
+		double radians = Math.PI/180.0;
+
+		return EARTH_RADIUS_KM*EARTH_RADIUS_KM
+				* Math.cos( mpf.lineLatitude( lineIndex )*radians )
+				* ( mpf.LATITUDE_INTERVAL*radians )
+				* ( mpf.lineLongitudeInterval( lineIndex )*radians );
+	}
+
+/**
+ *
+ * Scans every line of the file and accumulates the totals
+ *
+ * @param numThreads The number of worker threads to use
+ * @throws IOException if a line could not be read
+ *
+ */
+
+	public void compute( int numThreads ) throws IOException {
+
+		final AtomicInteger nextBlock = new AtomicInteger( 0 );
+
+		final int numLines = mpf.NUMBER_LATITUDE_LINES;
+
+		ExecutorService pool = Executors.newFixedThreadPool( numThreads );
+
+		ArrayList< Future< Accumulator > > workers = new ArrayList< Future< Accumulator > >();
+
+		for( int t = 0; t < numThreads; t++ ) {
+
+			workers.add( pool.submit( new Callable< Accumulator >() {
+
+				@Override
+				public Accumulator call() throws RecordOutOfBoundsException {
+
+					Accumulator acc = new Accumulator();
+
+					MinPgrdLine line = new MinPgrdLine();
+
+					ByteBuffer view = mpf.view();
+
+					int start;
+
+					while( ( start = nextBlock.getAndIncrement()*LINES_PER_BLOCK ) < numLines ) {
+
+						int end = Math.min( start + LINES_PER_BLOCK, numLines );
+
+						for( int l = start; l < end; l++ ) {
+
+							mpf.getLine( l, line, view );
+
+							double cellArea = cellArea( l );
+
+							for( int r = 0; r < line.NUM_RUNS; r++ )
+
+								acc.add( line.RUN_FORMATION[ r ], line.RUN_LENGTH[ r ], cellArea );
+						}
+					}
+
+					return acc;
+				}
+
+			}));
+		}
+
+		pool.shutdown();
+
+		totals = new Accumulator();
+
+		try {
+
+			for( Future< Accumulator > worker : workers )
+
+				totals.merge( worker.get() );
+
+		}
+		catch( InterruptedException ie ) {
+
+			throw new IOException( "Interrupted while computing formation statistics" );
+		}
+		catch( ExecutionException ee ) {
+
+			throw new IOException( "Failed to read line while computing formation statistics: " + ee.getCause() );
+		}
+		finally {
+
+			pool.shutdownNow();
+		}
+
+	}
+
+/**
+ *
+ * Gets the number of points of a formation
+ *
+ * @param formation The formation index
+ * @return The number of points found for the formation
+ *
+ */
+
+	public long points( int formation ) {
+
+		return formation >= 0 && formation < totals.POINTS.length ? totals.POINTS[ formation ] : 0L;
+	}
+
+/**
+ *
+ * Gets the area of a formation
+ *
+ * @param formation The formation index
+ * @return The area of the formation in square kilometers
+ *
+ */
+
+	public double area( int formation ) {
+
+		return formation >= 0 && formation < totals.AREA.length ? totals.AREA[ formation ] : 0.0;
+	}
+
+/**
+ *
+ * Writes the totals of every formation found in the file as comma separated values
+ *
+ * @param out The stream to write to
+ *
+ */
+
+	public void write( PrintStream out ) {
+
+		//a grid of attribute values also gets the value of each index
+		out.println( mpf.DICTIONARY == null ? "formation,points,area_km2" : "formation,points,area_km2," + mpf.DICTIONARY.NAME );
+
+		for( int f = 0; f < totals.POINTS.length; f++ ) {
+
+			if( totals.POINTS[ f ] == 0 )
+
+				continue;
+
+			String value = mpf.DICTIONARY == null || mpf.DICTIONARY.value( f ) == null ? ""
+						   : ",\"" + mpf.DICTIONARY.value( f ).replace( "\"", "\"\"" ) + "\"";
+
+			out.println( f + "," + totals.POINTS[ f ] + "," + String.format( "%.6f", totals.AREA[ f ] ) + value );
+		}
+	}
+
+/**
+ *
+ * Prints per formation statistics of a .min.pgrd file
+ *
+ * @param args args[0] : path, name and extension of the .min.pgrd file
+ * 				args[1] : (optional) number of worker threads, defaults to the number of available processors
+ *
+ */
+
+	public static void main( String [] args ) {
+
+		if( args.length < 1 ) {
+
+			System.out.println( "Invalid number of arguments!" );
+
+			return;
+		}
+
+		try {
+
+			int numThreads = args.length > 1 ? Integer.parseInt( args[1] ) : Runtime.getRuntime().availableProcessors();
+
+			MinPgrdFile mpf = new MinPgrdFile( args[0] );
+
+			FormationStatistics stats = new FormationStatistics( mpf );
+
+			stats.compute( Math.max( 1, numThreads ) );
+
+			stats.write( System.out );
+
+		} catch( IOException ioe ) { System.out.println( "Exception thrown! : " + ioe.getMessage() ); }
+	}
+
+}
@@ -0,0 +1,297 @@
+package tools;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import compressor.MinPgrdFile;
+import compressor.MinPgrdLine;
+import compressor.MinPgrdWriter;
+import utils.RecordOutOfBoundsException;
+
+/**
+ *
+ * Cuts the region inside a bounding box out of a .min.pgrd file. Lines outside the latitude range of the box are
+ * dropped, lines whose points all fall inside its longitude range are copied byte for byte from channel to channel,
+ * and only the lines crossing the longitude bounds are decoded and encoded again. The clipped file keeps the lines
+ * and points of the original grid.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class PgrdClipper {
+
+	private MinPgrdFile mpf;
+
+	private ByteBuffer view;
+
+/**
+ *
+ * The bounding box to clip to
+ *
+ */
+
+	private double minLat, minLon, maxLat, maxLon;
+
+/**
+ *
+ * The first and last lines of the file inside the latitude range of the box (last < first when none is)
+ *
+ */
+
+	private int firstLine, lastLine;
+
+/**
+ *
+ * The number of lines copied and the number of lines encoded again by the last call to write
+ *
+ */
+
+	private int linesCopied, linesEncoded;
+
+/**
+ *
+ * Constructor.
+ *
+ * @param minPgrdFile The file to clip
+ * @param minLat The minimum latitude of the bounding box
+ * @param minLon The minimum longitude of the bounding box
+ * @param maxLat The maximum latitude of the bounding box
+ * @param maxLon The maximum longitude of the bounding box
+ *
+ */
+
+	public PgrdClipper( MinPgrdFile minPgrdFile, double minLat, double minLon, double maxLat, double maxLon ) {
+
+		mpf = minPgrdFile;
+
+		view = mpf.view();
+
+		this.minLat = minLat;
+
+		this.minLon = minLon;
+
+		this.maxLat = maxLat;
+
+		this.maxLon = maxLon;
+
+		double tolerance = 1e-6;
+
+		firstLine = (int) Math.max( 0, Math.ceil( ( minLat - mpf.MINIMUM_LATITUDE )/mpf.LATITUDE_INTERVAL - 1 - tolerance ) );
+
+		lastLine = (int) Math.min( mpf.NUMBER_LATITUDE_LINES - 1,
+								   Math.floor( ( maxLat - mpf.MINIMUM_LATITUDE )/mpf.LATITUDE_INTERVAL - 1 + tolerance ) );
+	}
+
+/**
+ *
+ * Writes the clipped file
+ *
+ * @param fileName The path, name and extension of the .min.pgrd file to write
+ * @param source The channel of the file being clipped
+ * @throws IOException
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public void write( String fileName, FileChannel source ) throws IOException, RecordOutOfBoundsException {
+
+		int numLines = Math.max( 0, lastLine - firstLine + 1 );
+
+		MinPgrdWriter writer = new MinPgrdWriter( fileName,
+												  mpf.MINIMUM_LATITUDE + firstLine*mpf.LATITUDE_INTERVAL,
+												  Math.max( minLon, mpf.MINIMUM_LONGITUDE ),
+												  Math.min( maxLat, mpf.MAXIMUM_LATITUDE ),
+												  Math.min( maxLon, mpf.MAXIMUM_LONGITUDE ),
+												  mpf.LATITUDE_INTERVAL, mpf.LONGITUDE_INTERVAL,
+												  numLines, mpf.TYPE_OF_SEGMENT_IDENTIFIER | mpf.FLAGS << 16 );
+
+		writer.setDictionary( mpf.DICTIONARY );
+
+		MinPgrdLine in = new MinPgrdLine(), out = new MinPgrdLine();
+
+		linesCopied = 0;
+
+		linesEncoded = 0;
+
+		try {
+
+			for( int l = firstLine; l <= lastLine; l++ ) {
+
+				int lineOffset = mpf.lineOffset( l );
+
+				if( insideLongitudes( lineOffset, mpf.lineLongitudeInterval( l ) ) ) {
+
+					writer.transferLine( source, lineOffset, view.getInt( lineOffset ) );
+
+					linesCopied++;
+				}
+				else {
+
+					mpf.getLine( l, in, view );
+
+					clipLine( in, out );
+
+					writer.writeLine( out );
+
+					linesEncoded++;
+				}
+			}
+		}
+		finally {
+
+			writer.close();
+		}
+	}
+
+/**
+ *
+ * Determines from the part headers alone whether every point of a line is inside the longitude range of the box
+ *
+ * @param lineOffset The offset of the line in the file
+ * @param lonInterval The longitude interval of the line
+ * @return True if the line can be copied as it is
+ *
+ */
+
+	private boolean insideLongitudes( int lineOffset, double lonInterval ) {
+
+		double tolerance = lonInterval*1e-6;
+
+		int numParts = view.getInt( lineOffset + 4 );
+
+		int partTable = lineOffset + 12 + 6*view.getInt( lineOffset + 8 );
+
+		for( int p = 0; p < numParts; p++ ) {
+
+			int partOffset = lineOffset + view.getInt( partTable + 4*p );
+
+			double startLon = view.getFloat( partOffset );
+
+			int numPoints = view.getInt( partOffset + 4 );
+
+			if( numPoints > 0 && ( startLon < minLon - tolerance || startLon + ( numPoints - 1 )*lonInterval > maxLon + tolerance ) )
+
+				return false;
+		}
+
+		return true;
+	}
+
+/**
+ *
+ * Keeps the points of a line that are inside the longitude range of the box
+ *
+ * @param in The decoded line
+ * @param out The line model the clipped line is built in
+ *
+ */
+
+	private void clipLine( MinPgrdLine in, MinPgrdLine out ) {
+
+		double lonInterval = mpf.lineLongitudeInterval( in.lineIndex ), tolerance = 1e-6;
+
+		out.clear();
+
+		out.lineIndex = in.lineIndex - firstLine;
+
+		for( int p = 0; p < in.NUM_PARTS; p++ ) {
+
+			int first = (int) Math.max( 0, Math.ceil( ( minLon - in.PART_START_LON[ p ] )/lonInterval - tolerance ) );
+
+			int end = (int) Math.min( in.PART_NUM_POINTS[ p ], Math.floor( ( maxLon - in.PART_START_LON[ p ] )/lonInterval + tolerance ) + 1 );
+
+			if( end <= first )
+
+				continue;
+
+			out.addPart( (float) ( in.PART_START_LON[ p ] + first*lonInterval ) );
+
+			for( int r = in.PART_FIRST_RUN[ p ]; r < in.PART_FIRST_RUN[ p + 1 ]; r++ ) {
+
+				int runFirst = Math.max( first, in.RUN_START[ r ] );
+
+				int runEnd = Math.min( end, in.RUN_START[ r ] + in.RUN_LENGTH[ r ] );
+
+				if( runEnd > runFirst )
+
+					out.addRun( in.RUN_FORMATION[ r ], runEnd - runFirst );
+			}
+		}
+	}
+
+/**
+ *
+ * Gets the number of lines copied byte for byte by the last call to write
+ *
+ * @return The number of lines
+ *
+ */
+
+	public int getLinesCopied() {
+
+		return linesCopied;
+	}
+
+/**
+ *
+ * Gets the number of lines encoded again by the last call to write
+ *
+ * @return The number of lines
+ *
+ */
+
+	public int getLinesEncoded() {
+
+		return linesEncoded;
+	}
+
+/**
+ *
+ * Clips a .min.pgrd file to a bounding box
+ *
+ * @param args args[0] : path, name and extension of the .min.pgrd file
+ * 				args[1] : path and name of the clipped file to write (without extension)
+ * 				args[2] : minimum latitude of the bounding box
+ * 				args[3] : minimum longitude of the bounding box
+ * 				args[4] : maximum latitude of the bounding box
+ * 				args[5] : maximum longitude of the bounding box
+ *
+ */
+
+	public static void main( String [] args ) {
+
+		if( args.length < 6 ) {
+
+			System.out.println( "Invalid number of arguments!" );
+
+			return;
+		}
+
+		try {
+
+			PgrdClipper clipper = new PgrdClipper( new MinPgrdFile( args[0] ),
+												   Double.parseDouble( args[2] ), Double.parseDouble( args[3] ),
+												   Double.parseDouble( args[4] ), Double.parseDouble( args[5] ) );
+
+			RandomAccessFile source = new RandomAccessFile( args[0], "r" );
+
+			try {
+
+				clipper.write( args[1] + ".min.pgrd", source.getChannel() );
+			}
+			finally {
+
+				source.close();
+			}
+
+			System.out.println( " " + clipper.getLinesCopied() + " lines copied, " + clipper.getLinesEncoded() + " lines clipped" );
+
+		}
+		catch( IOException ioe ) { System.out.println( "Exception thrown! : " + ioe.getMessage() ); }
+		catch( RecordOutOfBoundsException robe ) { System.out.println( "Exception thrown! : invalid line in input file" ); }
+	}
+
+}
@@ -0,0 +1,536 @@
+package tools;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import compressor.MinPgrdFile;
+import compressor.MinPgrdLine;
+import compressor.MinPgrdWriter;
+import utils.RecordOutOfBoundsException;
+
+/**
+ *
+ * Compares two .min.pgrd files of the same grid line by line. Lines whose encoded bytes are equal are skipped
+ * without being decoded; the others are compared by merging the cell edges of the runs of both lines. Every point
+ * of the old line is compared with the cell of the new line holding it, and the points of the new line are counted
+ * where the old line has no formation. The points of a stretch are counted as whole points from their indices on
+ * the grid of their part, so the float rounding of part start longitudes does not make up changes.
+ *
+ * Every pair of (old formation, new formation) found is given a change index, which is also the formation index of
+ * the optional change grid. The change grid is written in a second pass once every pair is known, so that its
+ * identifiers are wide enough for all change indices.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class PgrdDiff {
+
+	private MinPgrdFile oldFile, newFile;
+
+	//the longitude interval of the line being compared
+	private double lonInterval;
+
+/**
+ *
+ * The change index of every pair of formations found, keyed on the pair
+ *
+ */
+
+	private HashMap<Long, Integer> changeIndex = new HashMap<Long, Integer>();
+
+/**
+ *
+ * The old and new formation index (-1 for no formation) and the number of changed cells of each change index
+ *
+ */
+
+	private ArrayList<int []> changePairs = new ArrayList<int []>();
+
+	private ArrayList<long []> changeCells = new ArrayList<long []>();
+
+/**
+ *
+ * The lines that changed and the number of changed cells in each of them
+ *
+ */
+
+	private ArrayList<int []> changedLines = new ArrayList<int []>();
+
+	//pool variables for the change grid line being built, null while counting changes
+	private MinPgrdLine changeLine;
+
+	private double changeLineEnd;
+
+	private int lineCells;
+
+	//pool variable for pointsIn: the index in its run of the first point found
+	private int firstPoint;
+
+/**
+ *
+ * Constructor.
+ *
+ * @param oldFile The file before the revision
+ * @param newFile The file after the revision
+ * @throws IOException if the files are not built on the same grid
+ *
+ */
+
+	public PgrdDiff( MinPgrdFile oldFile, MinPgrdFile newFile ) throws IOException {
+
+		this.oldFile = oldFile;
+
+		this.newFile = newFile;
+
+		lonInterval = oldFile.LONGITUDE_INTERVAL;
+
+		if( oldFile.NUMBER_LATITUDE_LINES != newFile.NUMBER_LATITUDE_LINES
+			|| Math.abs( oldFile.MINIMUM_LATITUDE - newFile.MINIMUM_LATITUDE ) > oldFile.LATITUDE_INTERVAL*1e-6
+			|| Math.abs( oldFile.LATITUDE_INTERVAL - newFile.LATITUDE_INTERVAL ) > oldFile.LATITUDE_INTERVAL*1e-6
+			|| Math.abs( oldFile.LONGITUDE_INTERVAL - newFile.LONGITUDE_INTERVAL ) > lonInterval*1e-6
+			|| ( oldFile.FLAGS & MinPgrdFile.EQUAL_AREA ) != ( newFile.FLAGS & MinPgrdFile.EQUAL_AREA ) )
+
+			throw new IOException( "Files are not built on the same grid" );
+	}
+
+/**
+ *
+ * Compares the files
+ *
+ * @param changeGrid The path, name and extension of the change grid to write, or null to skip it
+ * @throws IOException
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public void compare( String changeGrid ) throws IOException, RecordOutOfBoundsException {
+
+		compareFiles( null );
+
+		if( changeGrid == null )
+
+			return;
+
+		//the change grid holds change indices, so it only takes the equal area flag of the files
+		MinPgrdWriter writer = new MinPgrdWriter( changeGrid, oldFile.MINIMUM_LATITUDE, oldFile.MINIMUM_LONGITUDE,
+												  oldFile.MAXIMUM_LATITUDE, oldFile.MAXIMUM_LONGITUDE,
+												  oldFile.LATITUDE_INTERVAL, oldFile.LONGITUDE_INTERVAL,
+												  oldFile.NUMBER_LATITUDE_LINES,
+												  MinPgrdLine.identifierLength( changePairs.size() - 1 ) | ( oldFile.FLAGS & MinPgrdFile.EQUAL_AREA ) << 16 );
+
+		try {
+
+			compareFiles( writer );
+		}
+		finally {
+
+			writer.close();
+		}
+	}
+
+/**
+ *
+ * Compares the files line by line, either counting the changes or writing the change grid of the changes counted
+ *
+ * @param writer The writer of the change grid, or null to count the changes
+ * @throws IOException
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	private void compareFiles( MinPgrdWriter writer ) throws IOException, RecordOutOfBoundsException {
+
+		changeLine = writer == null ? null : new MinPgrdLine();
+
+		ByteBuffer oldView = oldFile.view(), newView = newFile.view();
+
+		MinPgrdLine oldLine = new MinPgrdLine(), newLine = new MinPgrdLine();
+
+		for( int l = 0; l < oldFile.NUMBER_LATITUDE_LINES; l++ ) {
+
+			if( changeLine != null ) {
+
+				changeLine.clear();
+
+				changeLine.lineIndex = l;
+			}
+
+			lonInterval = oldFile.lineLongitudeInterval( l );
+
+			if( !sameBytes( oldView, oldFile.lineOffset( l ), newView, newFile.lineOffset( l ) ) ) {
+
+				oldFile.getLine( l, oldLine, oldView );
+
+				newFile.getLine( l, newLine, newView );
+
+				lineCells = 0;
+
+				compareLines( oldLine, newLine );
+
+				if( changeLine == null && lineCells > 0 )
+
+					changedLines.add( new int[] { l, lineCells } );
+			}
+
+			if( writer != null )
+
+				writer.writeLine( changeLine );
+		}
+	}
+
+/**
+ *
+ * Compares the encoded bytes of two lines
+ *
+ */
+
+	private static boolean sameBytes( ByteBuffer a, int aOffset, ByteBuffer b, int bOffset ) {
+
+		int size = a.getInt( aOffset );
+
+		if( size != b.getInt( bOffset ) )
+
+			return false;
+
+		ByteBuffer aLine = a.duplicate(), bLine = b.duplicate();
+
+		aLine.limit( aOffset + size ).position( aOffset );
+
+		bLine.limit( bOffset + size ).position( bOffset );
+
+		return aLine.equals( bLine );
+	}
+
+/**
+ *
+ * Merges the run boundaries of two decoded lines and records the stretches where the formations differ
+ *
+ * @param a The line of the old file
+ * @param b The line of the new file
+ *
+ */
+
+	private void compareLines( MinPgrdLine a, MinPgrdLine b ) {
+
+		int ra = nextRun( a, 0 ), rb = nextRun( b, 0 );
+
+		int pa = partOf( a, ra, 0 ), pb = partOf( b, rb, 0 );
+
+		double x = Math.min( runWest( a, pa, ra ), runWest( b, pb, rb ) );
+
+		while( ra < a.NUM_RUNS || rb < b.NUM_RUNS ) {
+
+			double aWest = runWest( a, pa, ra ), aEast = runEast( a, pa, ra );
+
+			double bWest = runWest( b, pb, rb ), bEast = runEast( b, pb, rb );
+
+			int fa = aWest <= x ? a.RUN_FORMATION[ ra ] : -1;
+
+			int fb = bWest <= x ? b.RUN_FORMATION[ rb ] : -1;
+
+			double next = Math.min( fa >= 0 ? aEast : aWest, fb >= 0 ? bEast : bWest );
+
+			//the points of the old line are counted where it has a formation, those of the new line elsewhere
+			if( fa != fb ) {
+
+				int numPoints = fa >= 0 ? pointsIn( a, pa, ra, x, next ) : pointsIn( b, pb, rb, x, next );
+
+				if( numPoints > 0 )
+
+					recordChange( fa, fb, fa >= 0 ? a.runStartLon( pa, ra, lonInterval ) + firstPoint*lonInterval
+												 : b.runStartLon( pb, rb, lonInterval ) + firstPoint*lonInterval, numPoints );
+			}
+
+			x = next;
+
+			while( ra < a.NUM_RUNS && runEast( a, pa, ra ) <= x ) {
+
+				ra = nextRun( a, ra + 1 );
+
+				pa = partOf( a, ra, pa );
+			}
+
+			while( rb < b.NUM_RUNS && runEast( b, pb, rb ) <= x ) {
+
+				rb = nextRun( b, rb + 1 );
+
+				pb = partOf( b, rb, pb );
+			}
+
+			//jump over stretches where neither line has a formation
+			if( x < Math.min( runWest( a, pa, ra ), runWest( b, pb, rb ) ) )
+
+				x = Math.min( runWest( a, pa, ra ), runWest( b, pb, rb ) );
+		}
+	}
+
+/**
+ *
+ * Finds the next run holding points
+ *
+ */
+
+	private static int nextRun( MinPgrdLine line, int run ) {
+
+		while( run < line.NUM_RUNS && line.RUN_LENGTH[ run ] <= 0 )
+
+			run++;
+
+		return run;
+	}
+
+/**
+ *
+ * Finds the part holding a run, starting the search at a given part
+ *
+ */
+
+	private static int partOf( MinPgrdLine line, int run, int part ) {
+
+		while( part < line.NUM_PARTS && line.PART_FIRST_RUN[ part + 1 ] <= run )
+
+			part++;
+
+		return part;
+	}
+
+/**
+ *
+ * Determines the western edge of the cells of a run (infinity past the last run)
+ *
+ */
+
+	private double runWest( MinPgrdLine line, int part, int run ) {
+
+		if( run >= line.NUM_RUNS )
+
+			return Double.POSITIVE_INFINITY;
+
+		return line.runStartLon( part, run, lonInterval ) - lonInterval/2;
+	}
+
+/**
+ *
+ * Determines the eastern edge of the cells of a run (infinity past the last run)
+ *
+ */
+
+	private double runEast( MinPgrdLine line, int part, int run ) {
+
+		if( run >= line.NUM_RUNS )
+
+			return Double.POSITIVE_INFINITY;
+
+		return line.runStartLon( part, run, lonInterval ) + ( line.RUN_LENGTH[ run ] - 0.5 )*lonInterval;
+	}
+
+/**
+ *
+ * Counts the points of a run whose longitude lies in a stretch between two cell edges. The edges are turned into
+ * point indices on the grid of the part of the run, and an edge falls half way between two points of its own line
+ * and near half way between two points of a line on the same grid, so rounding does not change the count.
+ *
+ * @param line The line holding the run
+ * @param part The index of the part holding the run
+ * @param run The index of the run
+ * @param west The western edge of the stretch
+ * @param east The eastern edge of the stretch
+ * @return The number of points, the index in the run of the first one being left in firstPoint
+ *
+ */
+
+	private int pointsIn( MinPgrdLine line, int part, int run, double west, double east ) {
+
+		double start = line.runStartLon( part, run, lonInterval );
+
+		firstPoint = (int) Math.max( 0, Math.ceil( ( west - start )/lonInterval ) );
+
+		long end = (long) Math.min( line.RUN_LENGTH[ run ], Math.ceil( ( east - start )/lonInterval ) );
+
+		return (int) Math.max( 0, end - firstPoint );
+	}
+
+/**
+ *
+ * Records a stretch of changed cells
+ *
+ * @param oldFormation The formation index in the old file or -1
+ * @param newFormation The formation index in the new file or -1
+ * @param startLon The longitude of the first changed point
+ * @param numPoints The number of changed points
+ *
+ */
+
+	private void recordChange( int oldFormation, int newFormation, double startLon, int numPoints ) {
+
+		long key = ( (long) ( oldFormation + 1 ) << 32 ) | ( newFormation + 1 );
+
+		Integer index = changeIndex.get( key );
+
+		if( changeLine == null ) {
+
+			if( index == null ) {
+
+				index = changePairs.size();
+
+				changeIndex.put( key, index );
+
+				changePairs.add( new int[] { oldFormation, newFormation } );
+
+				changeCells.add( new long[ 1 ] );
+			}
+
+			changeCells.get( index )[ 0 ] += numPoints;
+
+			lineCells += numPoints;
+
+			return;
+		}
+
+		if( changeLine.NUM_PARTS == 0 || Math.abs( startLon - changeLineEnd ) >= lonInterval/2 )
+
+			changeLine.addPart( (float) startLon );
+
+		changeLine.appendRun( index, numPoints );
+
+		changeLineEnd = startLon + numPoints*lonInterval;
+	}
+
+/**
+ *
+ * Writes the number of changed cells of every pair of formations as comma separated values. Cells without a
+ * formation are written as an empty field.
+ *
+ * @param fileName The path, name and extension of the file to write
+ * @throws IOException
+ *
+ */
+
+	public void writeChanges( String fileName ) throws IOException {
+
+		FileWriter out = new FileWriter( fileName );
+
+		try {
+
+			out.write( "change,old_formation,new_formation,cells\n" );
+
+			for( int c = 0; c < changePairs.size(); c++ ) {
+
+				int [] pair = changePairs.get( c );
+
+				out.write( c + "," + ( pair[0] < 0 ? "" : pair[0] ) + "," + ( pair[1] < 0 ? "" : pair[1] ) + ","
+						   + changeCells.get( c )[ 0 ] + "\n" );
+			}
+		}
+		finally {
+
+			out.close();
+		}
+	}
+
+/**
+ *
+ * Writes the changed lines and their number of changed cells as comma separated values
+ *
+ * @param fileName The path, name and extension of the file to write
+ * @throws IOException
+ *
+ */
+
+	public void writeChangedLines( String fileName ) throws IOException {
+
+		FileWriter out = new FileWriter( fileName );
+
+		try {
+
+			out.write( "line,latitude,cells\n" );
+
+			for( int [] line : changedLines )
+
+				out.write( line[0] + "," + oldFile.lineLatitude( line[0] ) + "," + line[1] + "\n" );
+		}
+		finally {
+
+			out.close();
+		}
+	}
+
+/**
+ *
+ * Gets the number of lines holding changed cells
+ *
+ * @return The number of lines
+ *
+ */
+
+	public int numberChangedLines() {
+
+		return changedLines.size();
+	}
+
+/**
+ *
+ * Gets the total number of changed cells
+ *
+ * @return The number of cells
+ *
+ */
+
+	public long numberChangedCells() {
+
+		long total = 0;
+
+		for( long [] cells : changeCells )
+
+			total += cells[0];
+
+		return total;
+	}
+
+/**
+ *
+ * Compares two .min.pgrd files of the same grid
+ *
+ * @param args args[0] : path, name and extension of the .min.pgrd file before the revision
+ * 				args[1] : path, name and extension of the .min.pgrd file after the revision
+ * 				args[2] : path and name of the reports to write (without extension). The changed cells per pair
+ * 							of formations are written to name.changes.csv and the changed lines to name.lines.csv
+ * 				--grid : (optional) also write the change grid as name.min.pgrd, whose formation indices are the
+ * 							change indices of name.changes.csv
+ *
+ */
+
+	public static void main( String [] args ) {
+
+		if( args.length < 3 ) {
+
+			System.out.println( "Invalid number of arguments!" );
+
+			return;
+		}
+
+		boolean grid = args.length > 3 && args[3].equals( "--grid" );
+
+		try {
+
+			PgrdDiff diff = new PgrdDiff( new MinPgrdFile( args[0] ), new MinPgrdFile( args[1] ) );
+
+			diff.compare( grid ? args[2] + ".min.pgrd" : null );
+
+			diff.writeChanges( args[2] + ".changes.csv" );
+
+			diff.writeChangedLines( args[2] + ".lines.csv" );
+
+			System.out.println( " " + diff.numberChangedLines() + " of " + diff.oldFile.NUMBER_LATITUDE_LINES + " lines changed, "
+								+ diff.numberChangedCells() + " cells changed" );
+
+		}
+		catch( IOException ioe ) { System.out.println( "Exception thrown! : " + ioe.getMessage() ); }
+		catch( RecordOutOfBoundsException robe ) { System.out.println( "Exception thrown! : invalid line in input file" ); }
+	}
+
+}
@@ -0,0 +1,644 @@
+package tools;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import compressor.AttributeDictionary;
+import compressor.MinPgrdFile;
+import compressor.MinPgrdLine;
+import compressor.MinPgrdWriter;
+import utils.RecordOutOfBoundsException;
+
+/**
+ *
+ * Merges several .min.pgrd files built with the same intervals into a single file covering the union of their
+ * extents, working on runs rather than on the source shapefiles. The formation indices of each file are shifted into
+ * a combined index space (the formations of the first file keep their index, those of the second follow the greatest
+ * index of the first, and so on). Grids of attribute values with a dictionary share their index space instead: every
+ * value gets one index in the merged dictionary, whichever files it occurs in. Where files overlap, the points of the
+ * file listed first are kept.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class PgrdMerger {
+
+/**
+ *
+ * The files to merge, in order of priority
+ *
+ */
+
+	private MinPgrdFile [] files;
+
+/**
+ *
+ * The merged formation index of every formation index used in each file (-1 for the indices a file does not use)
+ *
+ */
+
+	private int [][] mergedFormation;
+
+/**
+ *
+ * The values of the merged dictionary, or null if the files are not grids of attribute values with a dictionary
+ *
+ */
+
+	private String [] mergedValues;
+
+/**
+ *
+ * The index of the first line of each file in the merged file
+ *
+ */
+
+	private int [] lineBase;
+
+/**
+ *
+ * The formation indices occurring in each file
+ *
+ */
+
+	private boolean [][] formationsUsed;
+
+/**
+ *
+ * Header fields of the merged file
+ *
+ */
+
+	private double minLat, minLon, maxLat, maxLon;
+
+	private int numLines, idLength;
+
+/**
+ *
+ * The greatest distance (in degrees latitude) between a line of an input file and the merged line it is put in
+ *
+ */
+
+	private double lineMisalignment;
+
+	//pool variables for mergeLine
+	private double [] pieceLon = new double[ 64 ];
+
+	private int [] pieceLength = new int[ 64 ];
+
+	private int [] pieceFormation = new int[ 64 ];
+
+	private int numPieces;
+
+	private double [] takenLo = new double[ 64 ], takenHi = new double[ 64 ];
+
+	private int numTaken;
+
+/**
+ *
+ * Constructor. Checks that the files can be merged and lays out the merged file.
+ *
+ * @param minPgrdFiles The files to merge, in order of priority
+ * @throws IOException if the files do not share their intervals, are equal area files or are not all grids of the
+ * same kind ( formation indices, runs coalesced by attribute or values of the same attribute )
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public PgrdMerger( MinPgrdFile [] minPgrdFiles ) throws IOException, RecordOutOfBoundsException {
+
+		files = minPgrdFiles;
+
+		MinPgrdFile first = files[0];
+
+		int attributeFlags = MinPgrdFile.ATTRIBUTE_RUNS | MinPgrdFile.ATTRIBUTE_DICTIONARY;
+
+		minLat = first.MINIMUM_LATITUDE;
+		minLon = first.MINIMUM_LONGITUDE;
+		maxLat = first.MAXIMUM_LATITUDE;
+		maxLon = first.MAXIMUM_LONGITUDE;
+
+		for( MinPgrdFile f : files ) {
+
+			if( !sameInterval( f.LATITUDE_INTERVAL, first.LATITUDE_INTERVAL ) || !sameInterval( f.LONGITUDE_INTERVAL, first.LONGITUDE_INTERVAL ) )
+
+				throw new IOException( "Files built with different intervals can not be merged" );
+
+			//the longitude interval of an equal area line depends on its latitude, which merging may shift
+			if( ( f.FLAGS & MinPgrdFile.EQUAL_AREA ) != 0 )
+
+				throw new IOException( "Equal area files can not be merged" );
+
+			//indices of different kinds would be mixed in the merged runs
+			if( ( f.FLAGS & attributeFlags ) != ( first.FLAGS & attributeFlags ) )
+
+				throw new IOException( "Grids of formation indices and grids of attribute values can not be merged" );
+
+			if( ( f.DICTIONARY == null ) != ( first.DICTIONARY == null )
+				|| ( f.DICTIONARY != null && !f.DICTIONARY.NAME.equals( first.DICTIONARY.NAME ) ) )
+
+				throw new IOException( "Grids of different attributes can not be merged" );
+
+			minLat = Math.min( minLat, f.MINIMUM_LATITUDE );
+			minLon = Math.min( minLon, f.MINIMUM_LONGITUDE );
+			maxLat = Math.max( maxLat, f.MAXIMUM_LATITUDE );
+			maxLon = Math.max( maxLon, f.MAXIMUM_LONGITUDE );
+		}
+
+		lineBase = new int[ files.length ];
+
+		mergedFormation = new int[ files.length ][];
+
+		formationsUsed = new boolean[ files.length ][];
+
+		numLines = 0;
+
+		lineMisalignment = 0;
+
+		int nextFormation = 0;
+
+		//the index of every value in the merged dictionary
+		HashMap<String, Integer> valueIndices = new HashMap<String, Integer>();
+
+		ArrayList<String> values = new ArrayList<String>();
+
+		for( int k = 0; k < files.length; k++ ) {
+
+			double shift = ( files[k].MINIMUM_LATITUDE - minLat )/first.LATITUDE_INTERVAL;
+
+			lineBase[k] = (int) Math.round( shift );
+
+			lineMisalignment = Math.max( lineMisalignment, Math.abs( shift - lineBase[k] )*first.LATITUDE_INTERVAL );
+
+			numLines = Math.max( numLines, lineBase[k] + files[k].NUMBER_LATITUDE_LINES );
+
+			formationsUsed[k] = usedFormations( files[k] );
+
+			mergedFormation[k] = new int[ formationsUsed[k].length ];
+
+			for( int f = 0; f < formationsUsed[k].length; f++ ) {
+
+				if( first.DICTIONARY == null ) {
+
+					mergedFormation[k][f] = nextFormation + f;
+
+					continue;
+				}
+
+				mergedFormation[k][f] = -1;
+
+				if( !formationsUsed[k][f] )
+
+					continue;
+
+				String value = files[k].DICTIONARY.value( f );
+
+				Integer index = value == null ? null : valueIndices.get( value );
+
+				//an index missing from the dictionary of its file keeps an index of its own with an empty value
+				if( index == null ) {
+
+					index = Integer.valueOf( values.size() );
+
+					if( value != null )
+
+						valueIndices.put( value, index );
+
+					values.add( value == null ? "" : value );
+				}
+
+				mergedFormation[k][f] = index.intValue();
+			}
+
+			nextFormation = first.DICTIONARY == null ? nextFormation + formationsUsed[k].length : values.size();
+		}
+
+		if( first.DICTIONARY != null )
+
+			mergedValues = values.toArray( new String[ values.size() ] );
+
+		//the merged identifiers are as narrow as the combined formation indices allow
+		idLength = MinPgrdLine.identifierLength( nextFormation - 1 );
+	}
+
+/**
+ *
+ * Compares two intervals allowing for the rounding of values written as floats
+ *
+ */
+
+	private static boolean sameInterval( double a, double b ) {
+
+		return Math.abs( a - b ) <= 1e-6*Math.abs( b );
+	}
+
+/**
+ *
+ * Scans a file for the formation indices it uses
+ *
+ * @param mpf The file
+ * @return A flag for every formation index up to the greatest one used
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	private static boolean [] usedFormations( MinPgrdFile mpf ) throws RecordOutOfBoundsException {
+
+		boolean [] used = new boolean[ 0 ];
+
+		MinPgrdLine line = new MinPgrdLine();
+
+		for( int l = 0; l < mpf.NUMBER_LATITUDE_LINES; l++ ) {
+
+			mpf.getLine( l, line );
+
+			for( int r = 0; r < line.NUM_RUNS; r++ ) {
+
+				if( line.RUN_FORMATION[ r ] >= used.length )
+
+					used = Arrays.copyOf( used, line.RUN_FORMATION[ r ] + 1 );
+
+				used[ line.RUN_FORMATION[ r ] ] = true;
+			}
+		}
+
+		return used;
+	}
+
+/**
+ *
+ * Gets the greatest distance (in degrees latitude) an input line was moved to fit the lines of the merged file
+ *
+ * @return The distance in degrees latitude
+ *
+ */
+
+	public double getLineMisalignment() {
+
+		return lineMisalignment;
+	}
+
+/**
+ *
+ * Determines the flags of the merged file: a file with no-data runs makes the merged file flagged with them, and the
+ * attribute flags, which the files share, are kept
+ *
+ * @return The flags
+ *
+ */
+
+	private int mergedFlags() {
+
+		int flags = 0;
+
+		for( MinPgrdFile file : files )
+
+			flags |= file.FLAGS & MinPgrdFile.NO_DATA_RUNS;
+
+		return flags | files[0].FLAGS & ( MinPgrdFile.ATTRIBUTE_RUNS | MinPgrdFile.ATTRIBUTE_DICTIONARY );
+	}
+
+/**
+ *
+ * Gets the dictionary of the merged file, holding every value used in the files once
+ *
+ * @return The dictionary of the merged file or null if the files are not grids of attribute values
+ *
+ */
+
+	private AttributeDictionary mergedDictionary() {
+
+		if( mergedValues == null )
+
+			return null;
+
+		return new AttributeDictionary( files[0].DICTIONARY.NAME, mergedValues );
+	}
+
+/**
+ *
+ * Writes the merged file
+ *
+ * @param fileName The path, name and extension of the .min.pgrd file to write
+ * @throws IOException
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public void write( String fileName ) throws IOException, RecordOutOfBoundsException {
+
+		MinPgrdWriter writer = new MinPgrdWriter( fileName, minLat, minLon, maxLat, maxLon,
+												  files[0].LATITUDE_INTERVAL, files[0].LONGITUDE_INTERVAL,
+												  numLines, idLength | mergedFlags() << 16 );
+
+		writer.setDictionary( mergedDictionary() );
+
+		MinPgrdLine in = new MinPgrdLine(), out = new MinPgrdLine();
+
+		try {
+
+			for( int l = 0; l < numLines; l++ ) {
+
+				mergeLine( l, in, out );
+
+				writer.writeLine( out );
+			}
+		}
+		finally {
+
+			writer.close();
+		}
+	}
+
+/**
+ *
+ * Builds a merged line from the matching lines of every file
+ *
+ * @param lineIndex The index of the merged line
+ * @param in A line model used to decode the input lines
+ * @param out The line model the merged line is built in
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	private void mergeLine( int lineIndex, MinPgrdLine in, MinPgrdLine out ) throws RecordOutOfBoundsException {
+
+		double lonInterval = files[0].LONGITUDE_INTERVAL;
+
+		numPieces = 0;
+
+		numTaken = 0;
+
+		for( int k = 0; k < files.length; k++ ) {
+
+			int l = lineIndex - lineBase[k];
+
+			if( l < 0 || l >= files[k].NUMBER_LATITUDE_LINES )
+
+				continue;
+
+			files[k].getLine( l, in );
+
+			int firstPiece = numPieces;
+
+			for( int p = 0; p < in.NUM_PARTS; p++ ) {
+
+				for( int r = in.PART_FIRST_RUN[ p ]; r < in.PART_FIRST_RUN[ p + 1 ]; r++ ) {
+
+					if( in.RUN_LENGTH[ r ] > 0 )
+
+						addUncovered( in.runStartLon( p, r, files[k].LONGITUDE_INTERVAL ),
+									  in.RUN_LENGTH[ r ],
+									  mergedFormation[k][ in.RUN_FORMATION[ r ] ],
+									  lonInterval );
+				}
+			}
+
+			//points of this file are taken for the files that follow
+			for( int p = firstPiece; p < numPieces; p++ )
+
+				addTaken( pieceLon[ p ] - lonInterval/2, pieceLon[ p ] + ( pieceLength[ p ] - 0.5 )*lonInterval );
+
+			sortTaken();
+		}
+
+		sortPieces();
+
+		out.clear();
+
+		out.lineIndex = lineIndex;
+
+		double nextLon = Double.NaN;
+
+		for( int p = 0; p < numPieces; p++ ) {
+
+			//a piece continues the current part if its first point is the next point of the part
+			if( out.NUM_PARTS == 0 || Math.abs( pieceLon[ p ] - nextLon ) >= lonInterval/2 )
+
+				out.addPart( (float) pieceLon[ p ] );
+
+			out.addRun( pieceFormation[ p ], pieceLength[ p ] );
+
+			nextLon = out.PART_START_LON[ out.NUM_PARTS - 1 ] + out.PART_NUM_POINTS[ out.NUM_PARTS - 1 ]*lonInterval;
+		}
+	}
+
+/**
+ *
+ * Adds the points of a run that are not already taken by a file of higher priority
+ *
+ * @param lon The longitude of the first point of the run
+ * @param numPoints The number of points of the run
+ * @param formation The formation index of the run in the merged file
+ * @param lonInterval The longitude interval between neighboring points
+ *
+ */
+
+	private void addUncovered( double lon, int numPoints, int formation, double lonInterval ) {
+
+		int first = 0;
+
+		for( int t = 0; t < numTaken && first < numPoints; t++ ) {
+
+			double lastLon = lon + ( numPoints - 1 )*lonInterval;
+
+			if( takenHi[t] < lon + first*lonInterval || takenLo[t] > lastLon )
+
+				continue;
+
+			//points from first up to the taken range are free
+			int takenFrom = (int) Math.max( first, Math.ceil( ( takenLo[t] - lon )/lonInterval ) );
+
+			int takenTo = (int) Math.min( numPoints, Math.floor( ( takenHi[t] - lon )/lonInterval ) + 1 );
+
+			if( takenFrom > first )
+
+				addPiece( lon + first*lonInterval, takenFrom - first, formation );
+
+			first = Math.max( first, takenTo );
+		}
+
+		if( first < numPoints )
+
+			addPiece( lon + first*lonInterval, numPoints - first, formation );
+	}
+
+	private void addPiece( double lon, int numPoints, int formation ) {
+
+		if( numPieces == pieceLon.length ) {
+
+			pieceLon = Arrays.copyOf( pieceLon, numPieces << 1 );
+
+			pieceLength = Arrays.copyOf( pieceLength, numPieces << 1 );
+
+			pieceFormation = Arrays.copyOf( pieceFormation, numPieces << 1 );
+		}
+
+		pieceLon[ numPieces ] = lon;
+
+		pieceLength[ numPieces ] = numPoints;
+
+		pieceFormation[ numPieces ] = formation;
+
+		numPieces++;
+	}
+
+	private void addTaken( double lo, double hi ) {
+
+		if( numTaken == takenLo.length ) {
+
+			takenLo = Arrays.copyOf( takenLo, numTaken << 1 );
+
+			takenHi = Arrays.copyOf( takenHi, numTaken << 1 );
+		}
+
+		takenLo[ numTaken ] = lo;
+
+		takenHi[ numTaken ] = hi;
+
+		numTaken++;
+	}
+
+/**
+ *
+ * Sorts the taken ranges from west to east (insertion sort, the ranges of each file arrive already sorted)
+ *
+ */
+
+	private void sortTaken() {
+
+		for( int i = 1; i < numTaken; i++ ) {
+
+			double lo = takenLo[i], hi = takenHi[i];
+
+			int j = i - 1;
+
+			for( ; j >= 0 && takenLo[j] > lo; j-- ) {
+
+				takenLo[ j + 1 ] = takenLo[j];
+
+				takenHi[ j + 1 ] = takenHi[j];
+			}
+
+			takenLo[ j + 1 ] = lo;
+
+			takenHi[ j + 1 ] = hi;
+		}
+	}
+
+/**
+ *
+ * Sorts the pieces of the merged line from west to east
+ *
+ */
+
+	private void sortPieces() {
+
+		for( int i = 1; i < numPieces; i++ ) {
+
+			double lon = pieceLon[i];
+
+			int length = pieceLength[i], formation = pieceFormation[i];
+
+			int j = i - 1;
+
+			for( ; j >= 0 && pieceLon[j] > lon; j-- ) {
+
+				pieceLon[ j + 1 ] = pieceLon[j];
+
+				pieceLength[ j + 1 ] = pieceLength[j];
+
+				pieceFormation[ j + 1 ] = pieceFormation[j];
+			}
+
+			pieceLon[ j + 1 ] = lon;
+
+			pieceLength[ j + 1 ] = length;
+
+			pieceFormation[ j + 1 ] = formation;
+		}
+	}
+
+/**
+ *
+ * Writes the table mapping the formation indices of every input file to the merged file as comma separated values
+ *
+ * @param fileName The path, name and extension of the table to write
+ * @param names The names of the input files
+ * @throws IOException
+ *
+ */
+
+	public void writeFormationTable( String fileName, String [] names ) throws IOException {
+
+		FileWriter out = new FileWriter( fileName );
+
+		try {
+
+			out.write( "file,formation,merged_formation\n" );
+
+			for( int k = 0; k < files.length; k++ ) {
+
+				for( int f = 0; f < formationsUsed[k].length; f++ ) {
+
+					if( formationsUsed[k][f] )
+
+						out.write( names[k] + "," + f + "," + mergedFormation[k][f] + "\n" );
+				}
+			}
+		}
+		finally {
+
+			out.close();
+		}
+	}
+
+/**
+ *
+ * Merges .min.pgrd files
+ *
+ * @param args args[0] : path and name of the merged file to write (without extension). The table of formation
+ * 							indices is written next to it as name.formations.csv
+ * 				args[1...] : path, name and extension of each .min.pgrd file to merge, in order of priority
+ *
+ */
+
+	public static void main( String [] args ) {
+
+		if( args.length < 3 ) {
+
+			System.out.println( "Invalid number of arguments!" );
+
+			return;
+		}
+
+		try {
+
+			String [] names = Arrays.copyOfRange( args, 1, args.length );
+
+			MinPgrdFile [] files = new MinPgrdFile[ names.length ];
+
+			for( int k = 0; k < names.length; k++ )
+
+				files[k] = new MinPgrdFile( names[k] );
+
+			PgrdMerger merger = new PgrdMerger( files );
+
+			merger.write( args[0] + ".min.pgrd" );
+
+			merger.writeFormationTable( args[0] + ".formations.csv", names );
+
+			if( merger.getLineMisalignment() > 1e-6*files[0].LATITUDE_INTERVAL )
+
+				System.out.println( " Note: lines were moved up to " + merger.getLineMisalignment() + " degrees latitude to fit the merged grid" );
+
+		}
+		catch( IOException ioe ) { System.out.println( "Exception thrown! : " + ioe.getMessage() ); }
+		catch( RecordOutOfBoundsException robe ) { System.out.println( "Exception thrown! : invalid line in input file" ); }
+	}
+
+}
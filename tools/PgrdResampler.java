@@ -0,0 +1,514 @@
+package tools;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import compressor.MinPgrdFile;
+import compressor.MinPgrdLine;
+import compressor.MinPgrdWriter;
+import utils.RecordOutOfBoundsException;
+
+/**
+ *
+ * Resamples a .min.pgrd file to coarser intervals working on runs rather than on points. Every coarse line has the
+ * latitude of the last of the k lines it replaces and its points lie on a lattice of the coarse longitude interval
+ * anchored at the minimum longitude of the file.
+ *
+ * With the nearest line rule a coarse point takes the formation of the nearest point of the fine line at its
+ * latitude. With the majority rule it takes the formation found at most of the fine points of its block (the k lines
+ * down to the coarse line and the points nearest to it in longitude), and is left without a formation when most of
+ * the block is.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class PgrdResampler {
+
+	private MinPgrdFile mpf;
+
+/**
+ *
+ * The number of fine lines (latitude) and points (longitude) combined into one coarse line and point
+ *
+ */
+
+	private int latFactor, lonFactor;
+
+	private boolean majority;
+
+/**
+ *
+ * The fine longitude interval, the coarse longitude interval and the longitude of coarse point 0
+ *
+ */
+
+	private double lonInterval, cellWidth, originLon;
+
+	//pool variables for the fine lines of a block
+	private MinPgrdLine fine;
+
+	private double [][] runLon;
+
+	private int [][] runLength, runFormation;
+
+	private int [] numRuns, cursor;
+
+	//pool variables for the tally of a single coarse point
+	private int [] tallyFormation = new int[ 16 ], tallyCount = new int[ 16 ];
+
+	private int tallySize;
+
+	private long lastCell;
+
+/**
+ *
+ * Constructor.
+ *
+ * @param minPgrdFile The file to resample
+ * @param latFactor The number of fine lines combined into one coarse line
+ * @param lonFactor The number of fine points combined into one coarse point
+ * @param majority True for the majority rule, false for the nearest line rule
+ *
+ */
+
+	public PgrdResampler( MinPgrdFile minPgrdFile, int latFactor, int lonFactor, boolean majority ) {
+
+		mpf = minPgrdFile;
+
+		this.latFactor = latFactor;
+
+		this.lonFactor = lonFactor;
+
+		this.majority = majority;
+
+		lonInterval = mpf.LONGITUDE_INTERVAL;
+
+		cellWidth = lonInterval*lonFactor;
+
+		originLon = mpf.MINIMUM_LONGITUDE;
+
+		fine = new MinPgrdLine();
+
+		runLon = new double[ latFactor ][ 64 ];
+
+		runLength = new int[ latFactor ][ 64 ];
+
+		runFormation = new int[ latFactor ][ 64 ];
+
+		numRuns = new int[ latFactor ];
+
+		cursor = new int[ latFactor ];
+	}
+
+/**
+ *
+ * Gets the number of lines of the resampled file
+ *
+ * @return The number of coarse lines
+ *
+ */
+
+	public int numberLines() {
+
+		return mpf.NUMBER_LATITUDE_LINES / latFactor;
+	}
+
+/**
+ *
+ * Writes the resampled file
+ *
+ * @param fileName The path, name and extension of the .min.pgrd file to write
+ * @throws IOException if the file is an equal area file, whose combined lines do not share a longitude interval
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public void write( String fileName ) throws IOException, RecordOutOfBoundsException {
+
+		if( ( mpf.FLAGS & MinPgrdFile.EQUAL_AREA ) != 0 )
+
+			throw new IOException( "Equal area files can not be resampled" );
+
+		MinPgrdWriter writer = new MinPgrdWriter( fileName, mpf.MINIMUM_LATITUDE, mpf.MINIMUM_LONGITUDE,
+												  mpf.MAXIMUM_LATITUDE, mpf.MAXIMUM_LONGITUDE,
+												  mpf.LATITUDE_INTERVAL*latFactor, cellWidth,
+												  numberLines(), mpf.TYPE_OF_SEGMENT_IDENTIFIER | mpf.FLAGS << 16 );
+
+		writer.setDictionary( mpf.DICTIONARY );
+
+		MinPgrdLine out = new MinPgrdLine();
+
+		try {
+
+			for( int l = 0; l < numberLines(); l++ ) {
+
+				resampleLine( l, out );
+
+				writer.writeLine( out );
+			}
+		}
+		finally {
+
+			writer.close();
+		}
+	}
+
+/**
+ *
+ * Builds a coarse line
+ *
+ * @param lineIndex The index of the coarse line
+ * @param out The line model the coarse line is built in
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public void resampleLine( int lineIndex, MinPgrdLine out ) throws RecordOutOfBoundsException {
+
+		out.clear();
+
+		out.lineIndex = lineIndex;
+
+		lastCell = Long.MIN_VALUE;
+
+		if( majority ) {
+
+			for( int k = 0; k < latFactor; k++ )
+
+				loadRuns( k, lineIndex*latFactor + k );
+
+			tallyBlock( out );
+		}
+		else {
+
+			loadRuns( 0, ( lineIndex + 1 )*latFactor - 1 );
+
+			for( int r = 0; r < numRuns[0]; r++ ) {
+
+				double a = runLon[0][r];
+
+				//coarse points whose nearest fine point is in the run
+				long first = (long) Math.ceil( ( a - lonInterval/2 - originLon )/cellWidth );
+
+				long last = (long) Math.ceil( ( a + ( runLength[0][r] - 0.5 )*lonInterval - originLon )/cellWidth ) - 1;
+
+				emit( out, first, last - first + 1, runFormation[0][r] );
+			}
+		}
+	}
+
+/**
+ *
+ * Decodes a fine line into the flat run tables of a block, dropping empty runs
+ *
+ * @param k The position of the line in the block
+ * @param lineIndex The index of the fine line
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	private void loadRuns( int k, int lineIndex ) throws RecordOutOfBoundsException {
+
+		mpf.getLine( lineIndex, fine );
+
+		if( runLon[k].length < fine.NUM_RUNS ) {
+
+			runLon[k] = new double[ fine.NUM_RUNS ];
+
+			runLength[k] = new int[ fine.NUM_RUNS ];
+
+			runFormation[k] = new int[ fine.NUM_RUNS ];
+		}
+
+		int n = 0;
+
+		for( int p = 0; p < fine.NUM_PARTS; p++ ) {
+
+			for( int r = fine.PART_FIRST_RUN[ p ]; r < fine.PART_FIRST_RUN[ p + 1 ]; r++ ) {
+
+				if( fine.RUN_LENGTH[ r ] <= 0 )
+
+					continue;
+
+				runLon[k][n] = fine.runStartLon( p, r, lonInterval );
+
+				runLength[k][n] = fine.RUN_LENGTH[ r ];
+
+				runFormation[k][n] = fine.RUN_FORMATION[ r ];
+
+				n++;
+			}
+		}
+
+		numRuns[k] = n;
+
+		cursor[k] = 0;
+	}
+
+/**
+ *
+ * Applies the majority rule to the fine lines of a block. Stretches of coarse points covered by a single formation
+ * on every fine line are written at once; points are only tallied one by one where runs meet.
+ *
+ * @param out The line model the coarse line is built in
+ *
+ */
+
+	private void tallyBlock( MinPgrdLine out ) {
+
+		long cell = Long.MAX_VALUE;
+
+		for( int k = 0; k < latFactor; k++ ) {
+
+			if( numRuns[k] > 0 )
+
+				cell = Math.min( cell, cellOf( runLon[k][0] ) );
+		}
+
+		int blockPoints = latFactor*lonFactor;
+
+		while( cell != Long.MAX_VALUE ) {
+
+			double west = originLon + ( cell - 0.5 )*cellWidth, east = west + cellWidth;
+
+			boolean touched = false, uniform = true;
+
+			int formation = -1;
+
+			long next = Long.MAX_VALUE, uniformLast = Long.MAX_VALUE;
+
+			for( int k = 0; k < latFactor; k++ ) {
+
+				//skip runs ending west of the coarse point
+				while( cursor[k] < numRuns[k] && lastLon( k, cursor[k] ) < west )
+
+					cursor[k]++;
+
+				if( cursor[k] == numRuns[k] ) {
+
+					uniform = false;
+
+					continue;
+				}
+
+				int r = cursor[k];
+
+				if( runLon[k][r] < east )
+
+					touched = true;
+
+				else
+
+					next = Math.min( next, cellOf( runLon[k][r] ) );
+
+				if( runLon[k][r] > west || ( formation >= 0 && runFormation[k][r] != formation ) )
+
+					uniform = false;
+
+				else {
+
+					formation = runFormation[k][r];
+
+					uniformLast = Math.min( uniformLast, (long) Math.floor( ( lastLon( k, r ) + lonInterval/2 - originLon )/cellWidth - 0.5 ) );
+				}
+			}
+
+			if( !touched ) {
+
+				cell = next == Long.MAX_VALUE ? next : Math.max( next, cell + 1 );
+
+				continue;
+			}
+
+			if( uniform && uniformLast >= cell ) {
+
+				emit( out, cell, uniformLast - cell + 1, formation );
+
+				cell = uniformLast + 1;
+
+				continue;
+			}
+
+			tallySize = 0;
+
+			int total = 0;
+
+			for( int k = 0; k < latFactor; k++ ) {
+
+				for( int r = cursor[k]; r < numRuns[k] && runLon[k][r] < east; r++ ) {
+
+					int first = (int) Math.max( 0, Math.ceil( ( west - runLon[k][r] )/lonInterval ) );
+
+					int end = (int) Math.min( runLength[k][r], Math.ceil( ( east - runLon[k][r] )/lonInterval ) );
+
+					if( end > first ) {
+
+						tally( runFormation[k][r], end - first );
+
+						total += end - first;
+					}
+				}
+			}
+
+			int best = -1;
+
+			for( int t = 0; t < tallySize; t++ ) {
+
+				if( best < 0 || tallyCount[t] > tallyCount[ best ] )
+
+					best = t;
+			}
+
+			if( best >= 0 && tallyCount[ best ] >= blockPoints - total )
+
+				emit( out, cell, 1, tallyFormation[ best ] );
+
+			cell++;
+		}
+	}
+
+/**
+ *
+ * Determines the longitude of the last point of a run of a block
+ *
+ */
+
+	private double lastLon( int k, int r ) {
+
+		return runLon[k][r] + ( runLength[k][r] - 1 )*lonInterval;
+	}
+
+/**
+ *
+ * Determines the coarse point nearest to a longitude
+ *
+ */
+
+	private long cellOf( double lon ) {
+
+		return (long) Math.floor( ( lon - originLon )/cellWidth + 0.5 );
+	}
+
+/**
+ *
+ * Adds fine points to the tally of a coarse point
+ *
+ */
+
+	private void tally( int formation, int numPoints ) {
+
+		for( int t = 0; t < tallySize; t++ ) {
+
+			if( tallyFormation[t] == formation ) {
+
+				tallyCount[t] += numPoints;
+
+				return;
+			}
+		}
+
+		if( tallySize == tallyFormation.length ) {
+
+			tallyFormation = Arrays.copyOf( tallyFormation, tallySize << 1 );
+
+			tallyCount = Arrays.copyOf( tallyCount, tallySize << 1 );
+		}
+
+		tallyFormation[ tallySize ] = formation;
+
+		tallyCount[ tallySize ] = numPoints;
+
+		tallySize++;
+	}
+
+/**
+ *
+ * Adds coarse points at the east end of the coarse line, starting a new part when they do not follow the last point
+ *
+ * @param out The line model the coarse line is built in
+ * @param cell The index of the first coarse point from the minimum longitude
+ * @param numCells The number of coarse points
+ * @param formation The formation index of the points
+ *
+ */
+
+	private void emit( MinPgrdLine out, long cell, long numCells, int formation ) {
+
+		//points already written by the previous run are not written twice
+		if( cell <= lastCell ) {
+
+			numCells -= lastCell + 1 - cell;
+
+			cell = lastCell + 1;
+		}
+
+		if( numCells <= 0 )
+
+			return;
+
+		if( out.NUM_PARTS == 0 || cell != lastCell + 1 )
+
+			out.addPart( (float) ( originLon + cell*cellWidth ) );
+
+		out.appendRun( formation, (int) numCells );
+
+		lastCell = cell + numCells - 1;
+	}
+
+/**
+ *
+ * Resamples a .min.pgrd file to coarser intervals
+ *
+ * @param args args[0] : path, name and extension of the .min.pgrd file
+ * 				args[1] : path and name of the resampled file to write (without extension)
+ * 				args[2] : number of lines (and points, unless args[3] is given) combined into one
+ * 				args[3] : (optional) number of points combined into one in longitude
+ * 				--nearest : (optional) use the nearest line rule instead of the majority rule
+ *
+ */
+
+	public static void main( String [] args ) {
+
+		boolean majority = true;
+
+		int latFactor = 0, lonFactor = 0;
+
+		for( int a = 2; a < args.length; a++ ) {
+
+			if( args[a].equals( "--nearest" ) )
+
+				majority = false;
+
+			else if( latFactor == 0 )
+
+				latFactor = Integer.parseInt( args[a] );
+
+			else
+
+				lonFactor = Integer.parseInt( args[a] );
+		}
+
+		if( lonFactor == 0 )
+
+			lonFactor = latFactor;
+
+		if( args.length < 3 || latFactor < 1 || lonFactor < 1 ) {
+
+			System.out.println( "Invalid number of arguments!" );
+
+			return;
+		}
+
+		try {
+
+			PgrdResampler resampler = new PgrdResampler( new MinPgrdFile( args[0] ), latFactor, lonFactor, majority );
+
+			resampler.write( args[1] + ".min.pgrd" );
+
+		}
+		catch( IOException ioe ) { System.out.println( "Exception thrown! : " + ioe.getMessage() ); }
+		catch( RecordOutOfBoundsException robe ) { System.out.println( "Exception thrown! : invalid line in input file" ); }
+	}
+
+}
@@ -0,0 +1,772 @@
+package tools;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import compressor.AttributeDictionary;
+import compressor.MinPgrdFile;
+import utils.DbfFile;
+import utils.RecordOutOfBoundsException;
+
+/**
+ *
+ * Annotates a delimited text file of latitude, longitude rows with the formation index (and optionally a .dbf
+ * attribute) found at each row's location in a .min.pgrd file. The input is read in large chunks cut at row
+ * boundaries, the chunks are annotated by a pool of workers and written back in the order they were read, so the
+ * output rows keep the order of the input rows. A row ends at a line break outside quotes: a quoted field may hold
+ * line breaks (RFC 4180), and the row is copied with them.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class PointAnnotator {
+
+/**
+ *
+ * The number of bytes of input read into a chunk
+ *
+ */
+
+	private static final int CHUNK_SIZE = 1 << 22;
+
+/**
+ *
+ * Powers of ten used to scale parsed coordinates
+ *
+ */
+
+	private static final double [] POWERS_OF_TEN = new double[ 19 ];
+
+	static {
+
+		POWERS_OF_TEN[ 0 ] = 1.0;
+
+		for( int p = 1; p < POWERS_OF_TEN.length; p++ )
+
+			POWERS_OF_TEN[ p ] = 10.0*POWERS_OF_TEN[ p - 1 ];
+	}
+
+/**
+ *
+ * A growable byte array a worker writes the annotated rows of a chunk to
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+	private static class ByteSink {
+
+		public byte [] BYTES;
+
+		public int LENGTH;
+
+		public long ROWS;
+
+		public ByteSink( int capacity ) {
+
+			BYTES = new byte[ capacity ];
+
+			LENGTH = 0;
+
+			ROWS = 0;
+		}
+
+		public void write( byte [] b, int off, int len ) {
+
+			ensure( len );
+
+			System.arraycopy( b, off, BYTES, LENGTH, len );
+
+			LENGTH += len;
+		}
+
+		public void write( byte b ) {
+
+			ensure( 1 );
+
+			BYTES[ LENGTH++ ] = b;
+		}
+
+		public void writeInt( int value ) {
+
+			ensure( 11 );
+
+			if( value < 0 ) {
+
+				BYTES[ LENGTH++ ] = '-';
+
+				value = -value;
+			}
+
+			int start = LENGTH;
+
+			do {
+
+				BYTES[ LENGTH++ ] = (byte) ( '0' + value%10 );
+
+				value /= 10;
+
+			} while( value > 0 );
+
+			//digits were written least significant first
+			for( int i = start, j = LENGTH - 1; i < j; i++, j-- ) {
+
+				byte t = BYTES[ i ];
+
+				BYTES[ i ] = BYTES[ j ];
+
+				BYTES[ j ] = t;
+			}
+		}
+
+		private void ensure( int len ) {
+
+			if( LENGTH + len > BYTES.length )
+
+				BYTES = Arrays.copyOf( BYTES, Math.max( LENGTH + len, BYTES.length << 1 ) );
+		}
+
+	}
+
+/**
+ *
+ * The grid points are looked up in
+ *
+ */
+
+	private MinPgrdFile mpf;
+
+/**
+ *
+ * The column delimiter of the input and output
+ *
+ */
+
+	private byte delimiter;
+
+/**
+ *
+ * The index (starting at 0) of the latitude and longitude columns
+ *
+ */
+
+	private int latColumn, lonColumn;
+
+/**
+ *
+ * The attribute value of each formation index, already escaped for output, or null if no attribute column is written
+ *
+ */
+
+	private byte [][] attributes;
+
+/**
+ *
+ * The name of the attribute column
+ *
+ */
+
+	private String attributeName;
+
+/**
+ *
+ * Constructor
+ *
+ * @param minPgrdFile The grid points are looked up in
+ * @param delimiter The column delimiter of the input (',' or '\t')
+ * @param latColumn The index (starting at 0) of the latitude column
+ * @param lonColumn The index (starting at 0) of the longitude column
+ *
+ */
+
+	public PointAnnotator( MinPgrdFile minPgrdFile, char delimiter, int latColumn, int lonColumn ) {
+
+		mpf = minPgrdFile;
+
+		this.delimiter = (byte) delimiter;
+
+		this.latColumn = latColumn;
+
+		this.lonColumn = lonColumn;
+	}
+
+/**
+ *
+ * Adds a column holding a .dbf attribute of the formation found at each row. The formation index of the grid is
+ * the record index of the shapefile it was built from.
+ *
+ * @param dbf The attribute table of the shapefile the grid was built from
+ * @param fieldIndex The index of the field to write
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public void setAttribute( DbfFile dbf, int fieldIndex ) throws RecordOutOfBoundsException {
+
+		attributeName = dbf.fieldNames[ fieldIndex ];
+
+		attributes = new byte[ dbf.numRecords ][];
+
+		for( int r = 0; r < dbf.numRecords; r++ )
+
+			attributes[ r ] = escape( dbf.getString( r, fieldIndex ) ).getBytes( StandardCharsets.UTF_8 );
+	}
+
+/**
+ *
+ * Adds a column holding the value of the formation found at each row, from the attribute dictionary of a grid of
+ * attribute values
+ *
+ * @param dictionary The attribute dictionary of the grid
+ *
+ */
+
+	public void setAttribute( AttributeDictionary dictionary ) {
+
+		attributeName = dictionary.NAME;
+
+		attributes = new byte[ dictionary.VALUES.length ][];
+
+		for( int v = 0; v < dictionary.VALUES.length; v++ )
+
+			attributes[ v ] = escape( dictionary.VALUES[ v ] ).getBytes( StandardCharsets.UTF_8 );
+	}
+
+/**
+ *
+ * Quotes a value if it holds the delimiter or a quote
+ *
+ * @param value The value
+ * @return The value ready to be written as a column
+ *
+ */
+
+	private String escape( String value ) {
+
+		if( value.indexOf( (char) delimiter ) < 0 && value.indexOf( '"' ) < 0 )
+
+			return value;
+
+		return '"' + value.replace( "\"", "\"\"" ) + '"';
+	}
+
+/**
+ *
+ * Annotates every row of the input
+ *
+ * @param in The input rows
+ * @param out The stream the annotated rows are written to
+ * @param header True if the first row is a header row
+ * @param numThreads The number of worker threads to use
+ * @return The number of rows annotated
+ * @throws IOException
+ *
+ */
+
+	public long annotate( InputStream in, OutputStream out, boolean header, int numThreads ) throws IOException {
+
+		ExecutorService pool = Executors.newFixedThreadPool( numThreads );
+
+		ArrayDeque< Future< ByteSink > > pending = new ArrayDeque< Future< ByteSink > >();
+
+		long rows = 0;
+
+		try {
+
+			byte [] carry = new byte[ 0 ];
+
+			boolean first = true, eof = false;
+
+			while( !eof ) {
+
+				byte [] buf = Arrays.copyOf( carry, Math.max( CHUNK_SIZE, carry.length << 1 ) );
+
+				int len = carry.length;
+
+				while( len < buf.length ) {
+
+					int n = in.read( buf, len, buf.length - len );
+
+					if( n < 0 ) {
+
+						eof = true;
+
+						break;
+					}
+
+					len += n;
+				}
+
+				//cut the chunk after its last complete row and carry the rest into the next chunk
+				int cut = len;
+
+				if( !eof ) {
+
+					cut = lastRowEnd( buf, len );
+
+					if( cut == 0 ) {
+
+						carry = Arrays.copyOf( buf, len );
+
+						continue;
+					}
+				}
+
+				carry = Arrays.copyOfRange( buf, cut, len );
+
+				if( cut > 0 )
+
+					pending.add( pool.submit( chunkTask( buf, cut, first && header ) ) );
+
+				first = false;
+
+				while( pending.size() > 2*numThreads )
+
+					rows += writeChunk( pending.poll(), out );
+			}
+
+			while( !pending.isEmpty() )
+
+				rows += writeChunk( pending.poll(), out );
+
+			out.flush();
+
+		}
+		finally {
+
+			pool.shutdownNow();
+		}
+
+		return rows;
+	}
+
+/**
+ *
+ * Finds the end of the last complete row of a chunk starting at a row start: the offset following its last line
+ * break outside quotes. The quotes are followed from the start of the chunk, since a line break alone can not tell
+ * whether it ends a row or lies in a quoted field.
+ *
+ * @param data The chunk
+ * @param len The number of bytes of the chunk
+ * @return The offset following the last row break, or 0 if the chunk holds no complete row
+ *
+ */
+
+	private static int lastRowEnd( byte [] data, int len ) {
+
+		int end = 0;
+
+		boolean quoted = false;
+
+		for( int b = 0; b < len; b++ ) {
+
+			if( data[ b ] == '"' )
+
+				quoted = !quoted;
+
+			else if( data[ b ] == '\n' && !quoted )
+
+				end = b + 1;
+		}
+
+		return end;
+	}
+
+/**
+ *
+ * Waits for an annotated chunk and writes it
+ *
+ * @param chunk The pending chunk
+ * @param out The output stream
+ * @return The number of rows in the chunk
+ * @throws IOException
+ *
+ */
+
+	private long writeChunk( Future< ByteSink > chunk, OutputStream out ) throws IOException {
+
+		try {
+
+			ByteSink sink = chunk.get();
+
+			out.write( sink.BYTES, 0, sink.LENGTH );
+
+			return sink.ROWS;
+		}
+		catch( InterruptedException ie ) {
+
+			throw new IOException( "Interrupted while annotating points" );
+		}
+		catch( ExecutionException ee ) {
+
+			throw new IOException( "Failed to annotate points: " + ee.getCause() );
+		}
+	}
+
+/**
+ *
+ * Creates the task annotating a chunk of rows
+ *
+ * @param data The chunk
+ * @param len The number of bytes of the chunk holding complete rows
+ * @param header True if the first row of the chunk is the header row
+ * @return The task
+ *
+ */
+
+	private Callable< ByteSink > chunkTask( final byte [] data, final int len, final boolean header ) {
+
+		return new Callable< ByteSink >() {
+
+			@Override
+			public ByteSink call() {
+
+				return annotateChunk( data, len, header );
+			}
+
+		};
+	}
+
+/**
+ *
+ * Annotates every row of a chunk
+ *
+ * @param data The chunk
+ * @param len The number of bytes of the chunk holding complete rows
+ * @param header True if the first row of the chunk is the header row
+ * @return The annotated rows
+ *
+ */
+
+	private ByteSink annotateChunk( byte [] data, int len, boolean header ) {
+
+		ByteSink sink = new ByteSink( len + ( len >> 2 ) );
+
+		ByteBuffer view = mpf.view();
+
+		int rowStart = 0;
+
+		while( rowStart < len ) {
+
+			int rowEnd = rowStart;
+
+			//a line break in a quoted field belongs to the row
+			boolean quoted = false;
+
+			for( ; rowEnd < len && ( quoted || data[ rowEnd ] != '\n' ); rowEnd++ ) {
+
+				if( data[ rowEnd ] == '"' )
+
+					quoted = !quoted;
+			}
+
+			int contentEnd = rowEnd > rowStart && data[ rowEnd - 1 ] == '\r' ? rowEnd - 1 : rowEnd;
+
+			sink.write( data, rowStart, contentEnd - rowStart );
+
+			if( header ) {
+
+				sink.write( delimiter );
+
+				sink.write( "formation".getBytes( StandardCharsets.UTF_8 ), 0, 9 );
+
+				if( attributes != null ) {
+
+					byte [] name = escape( attributeName ).getBytes( StandardCharsets.UTF_8 );
+
+					sink.write( delimiter );
+
+					sink.write( name, 0, name.length );
+				}
+
+				header = false;
+			}
+			else if( contentEnd > rowStart ) {
+
+				int formation = lookup( data, rowStart, contentEnd, view );
+
+				sink.write( delimiter );
+
+				if( formation >= 0 )
+
+					sink.writeInt( formation );
+
+				if( attributes != null ) {
+
+					sink.write( delimiter );
+
+					if( formation >= 0 && formation < attributes.length )
+
+						sink.write( attributes[ formation ], 0, attributes[ formation ].length );
+				}
+
+				sink.ROWS++;
+			}
+
+			//keep the row's original line ending
+			sink.write( data, contentEnd, Math.min( rowEnd + 1, len ) - contentEnd );
+
+			rowStart = rowEnd + 1;
+		}
+
+		return sink;
+	}
+
+/**
+ *
+ * Finds the latitude and longitude columns of a row and looks the location up in the grid
+ *
+ * @param data The chunk holding the row
+ * @param start The offset of the first byte of the row
+ * @param end The offset following the last byte of the row (line ending excluded)
+ * @param view The view of the grid used by the calling thread
+ * @return The formation index or -1 if the row has no valid location or the location is not in any formation
+ *
+ */
+
+	private int lookup( byte [] data, int start, int end, ByteBuffer view ) {
+
+		double lat = Double.NaN, lon = Double.NaN;
+
+		int column = 0, fieldStart = start;
+
+		boolean quoted = false;
+
+		for( int b = start; b <= end; b++ ) {
+
+			if( b < end && data[ b ] == '"' )
+
+				quoted = !quoted;
+
+			if( b == end || ( data[ b ] == delimiter && !quoted ) ) {
+
+				if( column == latColumn )
+
+					lat = parseCoordinate( data, fieldStart, b );
+
+				if( column == lonColumn )
+
+					lon = parseCoordinate( data, fieldStart, b );
+
+				column++;
+
+				fieldStart = b + 1;
+
+				if( column > latColumn && column > lonColumn )
+
+					break;
+			}
+		}
+
+		if( Double.isNaN( lat ) || Double.isNaN( lon ) )
+
+			return -1;
+
+		return mpf.formationAt( lat, lon, view );
+	}
+
+/**
+ *
+ * Parses a plain decimal coordinate without creating any objects, falling back to Double.parseDouble for anything
+ * else (exponents, very long values)
+ *
+ * @param data The bytes holding the value
+ * @param start The offset of the first byte of the value
+ * @param end The offset following the last byte of the value
+ * @return The value or NaN if it is not a number
+ *
+ */
+
+	static double parseCoordinate( byte [] data, int start, int end ) {
+
+		while( start < end && ( data[ start ] == ' ' || data[ start ] == '"' ) )
+
+			start++;
+
+		while( end > start && ( data[ end - 1 ] == ' ' || data[ end - 1 ] == '"' ) )
+
+			end--;
+
+		if( start == end )
+
+			return Double.NaN;
+
+		int b = start;
+
+		boolean negative = data[ b ] == '-';
+
+		if( negative || data[ b ] == '+' )
+
+			b++;
+
+		long mantissa = 0;
+
+		int digits = 0, scale = 0;
+
+		boolean point = false;
+
+		for( ; b < end; b++ ) {
+
+			byte c = data[ b ];
+
+			if( c >= '0' && c <= '9' && digits < 18 ) {
+
+				mantissa = 10*mantissa + ( c - '0' );
+
+				digits++;
+
+				if( point )
+
+					scale++;
+			}
+			else if( c == '.' && !point )
+
+				point = true;
+
+			else
+				break;
+		}
+
+		if( b < end || digits == 0 ) {
+
+			try {
+
+				return Double.parseDouble( new String( data, start, end - start, StandardCharsets.ISO_8859_1 ) );
+			}
+			catch( NumberFormatException nfe ) {
+
+				return Double.NaN;
+			}
+		}
+
+		double value = mantissa/POWERS_OF_TEN[ scale ];
+
+		return negative ? -value : value;
+	}
+
+/**
+ *
+ * Annotates a delimited text file of points with the formation found at each point in a .min.pgrd file
+ *
+ * @param args args[0] : path, name and extension of the .min.pgrd file
+ * 				args[1] : path, name and extension of the input file (tab delimited if it ends with .tsv, comma delimited otherwise)
+ * 				args[2] : path, name and extension of the output file
+ * 				args[3...] : (optional) options:
+ * 					--lat column : index (starting at 0) of the latitude column, defaults to 0
+ * 					--lon column : index (starting at 0) of the longitude column, defaults to 1
+ * 					--header : the first row is a header row
+ * 					--attribute dbfFile field : also write the given .dbf field of the formation ( a grid of attribute
+ * 						values always gets a column of its values )
+ * 					--threads n : number of worker threads, defaults to the number of available processors
+ *
+ */
+
+	public static void main( String [] args ) {
+
+		if( args.length < 3 ) {
+
+			System.out.println( "Invalid number of arguments!" );
+
+			return;
+		}
+
+		int latColumn = 0, lonColumn = 1, numThreads = Runtime.getRuntime().availableProcessors();
+
+		boolean header = false;
+
+		String dbfName = null, fieldName = null;
+
+		for( int o = 3; o < args.length; o++ ) {
+
+			switch( args[o] ) {
+
+				case "--lat": latColumn = Integer.parseInt( args[++o] ); break;
+
+				case "--lon": lonColumn = Integer.parseInt( args[++o] ); break;
+
+				case "--header": header = true; break;
+
+				case "--threads": numThreads = Math.max( 1, Integer.parseInt( args[++o] ) ); break;
+
+				case "--attribute": dbfName = args[++o]; fieldName = args[++o]; break;
+
+				default: System.out.println( "Unknown option: " + args[o] ); return;
+			}
+		}
+
+		try {
+
+			char delimiter = args[1].toLowerCase().endsWith( ".tsv" ) ? '\t' : ',';
+
+			MinPgrdFile mpf = new MinPgrdFile( args[0] );
+
+			PointAnnotator annotator = new PointAnnotator( mpf, delimiter, latColumn, lonColumn );
+
+			//the formation indices of a grid of attribute values are not record indices
+			if( mpf.DICTIONARY != null ) {
+
+				if( dbfName != null ) {
+
+					System.out.println( args[0] + " is a grid of " + mpf.DICTIONARY.NAME + " values, --attribute can not be used" );
+
+					return;
+				}
+
+				annotator.setAttribute( mpf.DICTIONARY );
+			}
+			else if( dbfName != null ) {
+
+				DbfFile dbf = new DbfFile( dbfName );
+
+				int field = dbf.fieldIndex( fieldName );
+
+				if( field < 0 ) {
+
+					System.out.println( "No field named " + fieldName + " in " + dbfName );
+
+					return;
+				}
+
+				annotator.setAttribute( dbf, field );
+			}
+
+			long start = System.currentTimeMillis();
+
+			InputStream in = new FileInputStream( args[1] );
+
+			OutputStream out = new BufferedOutputStream( new FileOutputStream( args[2] ), 1 << 20 );
+
+			long rows;
+
+			try {
+
+				rows = annotator.annotate( in, out, header, numThreads );
+			}
+			finally {
+
+				in.close();
+
+				out.close();
+			}
+
+			System.out.println( " " + rows + " rows annotated in " + ( System.currentTimeMillis() - start )/1000.0 + " s" );
+
+		}
+		catch( Exception e ) { System.out.println( "Exception thrown! : " + e.getMessage() ); }
+	}
+
+}
@@ -0,0 +1,218 @@
+package tools;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import compressor.MinPgrdFile;
+import compressor.MinPgrdWriter;
+import utils.RecordOutOfBoundsException;
+import utils.ShardRange;
+
+/**
+ *
+ * Joins the shards of a build (.min.pgrd files built from the same shapefile and intervals with the --shard build
+ * option, each holding a different range of lines) into the complete file. The range of every shard is read from its
+ * sidecar ( *.min.pgrd.shard ) and the ranges must cover every line exactly once. Every line is copied as a block
+ * from the shard that built it and only the header offset table is written anew.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class ShardMerger {
+
+/**
+ *
+ * The shards to join
+ *
+ */
+
+	private MinPgrdFile [] shards;
+
+/**
+ *
+ * The index of the shard every line is copied from
+ *
+ */
+
+	private int [] source;
+
+/**
+ *
+ * Constructor. Finds the shard every line was built in.
+ *
+ * @param shards The shards to join
+ * @param ranges The range of lines of every shard
+ * @throws IOException if the shards do not share their grid or if a line was built in no shard or in several shards
+ *
+ */
+
+	public ShardMerger( MinPgrdFile [] shards, ShardRange [] ranges ) throws IOException {
+
+		this.shards = shards;
+
+		MinPgrdFile first = shards[0];
+
+		for( MinPgrdFile shard : shards ) {
+
+			if( shard.MINIMUM_LATITUDE != first.MINIMUM_LATITUDE || shard.MINIMUM_LONGITUDE != first.MINIMUM_LONGITUDE
+				|| shard.MAXIMUM_LATITUDE != first.MAXIMUM_LATITUDE || shard.MAXIMUM_LONGITUDE != first.MAXIMUM_LONGITUDE
+				|| shard.LATITUDE_INTERVAL != first.LATITUDE_INTERVAL || shard.LONGITUDE_INTERVAL != first.LONGITUDE_INTERVAL
+				|| shard.NUMBER_LATITUDE_LINES != first.NUMBER_LATITUDE_LINES
+				|| shard.TYPE_OF_SEGMENT_IDENTIFIER != first.TYPE_OF_SEGMENT_IDENTIFIER || shard.FLAGS != first.FLAGS )
+
+				throw new IOException( "The shards were not built with the same shapefile and intervals" );
+
+			if( shard.DICTIONARY != null && !Arrays.equals( shard.DICTIONARY.VALUES, first.DICTIONARY.VALUES ) )
+
+				throw new IOException( "The shards were not built with the same attribute dictionary" );
+		}
+
+		source = new int[ first.NUMBER_LATITUDE_LINES ];
+
+		Arrays.fill( source, -1 );
+
+		for( int s = 0; s < shards.length; s++ ) {
+
+			if( ranges[s].NUMBER_LINES != source.length )
+
+				throw new IOException( "The range of shard " + s + " does not belong to its file" );
+
+			for( int k = ranges[s].FIRST_LINE; k < ranges[s].END_LINE; k++ ) {
+
+				if( source[k] != -1 )
+
+					throw new IOException( "Line " + k + " was built in shards " + source[k] + " and " + s );
+
+				source[k] = s;
+			}
+		}
+
+		for( int k = 0; k < source.length; k++ ) {
+
+			if( source[k] == -1 )
+
+				throw new IOException( "Line " + k + " was built in none of the shards" );
+		}
+	}
+
+/**
+ *
+ * Gets the number of lines copied from a shard
+ *
+ * @param shard The index of the shard
+ * @return The number of lines
+ *
+ */
+
+	public int numberLines( int shard ) {
+
+		int lines = 0;
+
+		for( int s : source ) {
+
+			if( s == shard )
+
+				lines++;
+		}
+
+		return lines;
+	}
+
+/**
+ *
+ * Writes the joined file
+ *
+ * @param names The path, name and extension of every shard, in the order of the shards
+ * @param fileName The path, name and extension of the file to write
+ * @throws IOException
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public void write( String [] names, String fileName ) throws IOException, RecordOutOfBoundsException {
+
+		RandomAccessFile [] sources = new RandomAccessFile[ shards.length ];
+
+		MinPgrdWriter writer = new MinPgrdWriter( fileName, shards[0] );
+
+		try {
+
+			for( int s = 0; s < shards.length; s++ )
+
+				sources[s] = new RandomAccessFile( names[s], "r" );
+
+			for( int k = 0; k < source.length; k++ ) {
+
+				int s = source[k];
+
+				writer.transferLine( sources[s].getChannel(), shards[s].lineOffset( k ), shards[s].lineSize( k ) );
+			}
+		}
+		finally {
+
+			writer.close();
+
+			for( RandomAccessFile raf : sources ) {
+
+				if( raf != null )
+
+					raf.close();
+			}
+		}
+	}
+
+/**
+ *
+ * Joins the shards of a build
+ *
+ * @param args args[0] : path and name of the file to write (without extension)
+ * 				args[1...] : path, name and extension of every shard (its range sidecar must be next to it)
+ *
+ */
+
+	public static void main( String [] args ) {
+
+		if( args.length < 2 ) {
+
+			System.out.println( "Invalid number of arguments!" );
+
+			return;
+		}
+
+		try {
+
+			String [] names = Arrays.copyOfRange( args, 1, args.length );
+
+			MinPgrdFile [] shards = new MinPgrdFile[ names.length ];
+
+			ShardRange [] ranges = new ShardRange[ names.length ];
+
+			for( int k = 0; k < names.length; k++ ) {
+
+				shards[k] = new MinPgrdFile( names[k] );
+
+				ranges[k] = ShardRange.read( names[k] + ShardRange.EXTENSION );
+
+				if( ranges[k] == null )
+
+					throw new IOException( "No shard range " + names[k] + ShardRange.EXTENSION + ", was the file built with --shard?" );
+			}
+
+			ShardMerger merger = new ShardMerger( shards, ranges );
+
+			for( int s = 0; s < shards.length; s++ )
+
+				System.out.println( " " + names[s] + " : " + merger.numberLines( s ) + " lines" );
+
+			merger.write( names, args[0] + ".min.pgrd" );
+
+			System.out.println( " Merge complete!" );
+
+		}
+		catch( IOException ioe ) { System.out.println( "Exception thrown! : " + ioe.getMessage() ); }
+		catch( RecordOutOfBoundsException robe ) { System.out.println( "Exception thrown! : invalid line in input file" ); }
+	}
+
+}
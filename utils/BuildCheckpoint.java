@@ -0,0 +1,213 @@
+package utils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A class to model the checkpoint of a file built line by line. The checkpoint records the number of lines fully
+ * written and the write offset following them; it is only saved once the file being built has been flushed to disk,
+ * so that the line offsets already written in the header of the file (the partial offset table) and the lines they
+ * point to are durable. A fingerprint of the build inputs and settings guards against resuming a different build.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class BuildCheckpoint {
+
+/**
+ * The extension appended to the name of the file being built to name its checkpoint
+ *
+ */
+
+	public static final String EXTENSION = ".ckpt";
+
+/**
+ * The number of lines written between checkpoints
+ *
+ */
+
+	public static final int INTERVAL = 1024;
+
+	private static final int MAGIC = 0x50474350;
+
+/**
+ * The number of lines of the file being built
+ *
+ */
+
+	public int NUMBER_LINES;
+
+/**
+ * The index of the next line to be written (all lines before it are fully written)
+ *
+ */
+
+	public int NEXT_LINE;
+
+/**
+ * The offset in the file being built following the last fully written line
+ *
+ */
+
+	public long WRITE_OFFSET;
+
+/**
+ * The fingerprint of the build inputs and settings
+ *
+ */
+
+	public long FINGERPRINT;
+
+/**
+ * Constructor for the checkpoint of a build starting from scratch
+ *
+ * @param numLines The number of lines of the file being built
+ * @param fingerprint The fingerprint of the build inputs and settings
+ *
+ */
+
+	public BuildCheckpoint( int numLines, long fingerprint ) {
+
+		NUMBER_LINES = numLines;
+
+		FINGERPRINT = fingerprint;
+
+		NEXT_LINE = 0;
+
+		WRITE_OFFSET = 0;
+	}
+
+/**
+ * Computes the fingerprint of a set of build inputs and settings
+ *
+ * @param values The values identifying the build (file lengths, intervals, bounding box...)
+ * @return The fingerprint
+ *
+ */
+
+	public static long fingerprint( double... values ) {
+
+		long hash = 0xcbf29ce484222325L;
+
+		for( double v : values )
+
+			hash = ( hash ^ Double.doubleToLongBits( v ) ) * 0x100000001b3L;
+
+		return hash;
+	}
+
+/**
+ * Computes the fingerprint of a set of build inputs and settings including the content of input files
+ *
+ * @param contents The hashes of the content of the input files
+ * @param values The values identifying the build (intervals, settings...)
+ * @return The fingerprint
+ *
+ */
+
+	public static long fingerprint( long [] contents, double... values ) {
+
+		long hash = fingerprint( values );
+
+		for( long c : contents )
+
+			hash = ( hash ^ c ) * 0x100000001b3L;
+
+		return hash;
+	}
+
+/**
+ * Reads a checkpoint
+ *
+ * @param fileName The path, name and extension of the checkpoint file
+ * @return The checkpoint or null if there is no checkpoint file
+ * @throws IOException if the checkpoint file is not a valid checkpoint
+ *
+ */
+
+	public static BuildCheckpoint read( String fileName ) throws IOException {
+
+		File file = new File( fileName );
+
+		if( !file.exists() )
+
+			return null;
+
+		DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+
+		try {
+
+			if( in.readInt() != MAGIC )
+
+				throw new IOException( "Invalid checkpoint file " + fileName );
+
+			BuildCheckpoint checkpoint = new BuildCheckpoint( in.readInt(), in.readLong() );
+
+			checkpoint.NEXT_LINE = in.readInt();
+
+			checkpoint.WRITE_OFFSET = in.readLong();
+
+			return checkpoint;
+		}
+		finally {
+
+			in.close();
+		}
+	}
+
+/**
+ * Saves the checkpoint. The checkpoint is written to a temporary file which is flushed to disk and then renamed
+ * over the previous checkpoint, so that a crash leaves either the previous or the new checkpoint.
+ *
+ * @param fileName The path, name and extension of the checkpoint file
+ * @throws IOException
+ *
+ */
+
+	public void write( String fileName ) throws IOException {
+
+		File temp = new File( fileName + ".tmp" );
+
+		FileOutputStream fos = new FileOutputStream( temp );
+
+		try {
+
+			DataOutputStream out = new DataOutputStream( new BufferedOutputStream( fos ) );
+
+			out.writeInt( MAGIC );
+
+			out.writeInt( NUMBER_LINES );
+
+			out.writeLong( FINGERPRINT );
+
+			out.writeInt( NEXT_LINE );
+
+			out.writeLong( WRITE_OFFSET );
+
+			out.flush();
+
+			fos.getFD().sync();
+		}
+		finally {
+
+			fos.close();
+		}
+
+		Files.move( temp.toPath(), new File( fileName ).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+/**
+ * Removes a checkpoint file
+ *
+ * @param fileName The path, name and extension of the checkpoint file
+ *
+ */
+
+	public static void delete( String fileName ) {
+
+		new File( fileName ).delete();
+	}
+
+}
@@ -0,0 +1,226 @@
+package utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A class to read the attribute table of a shapefile ( *.dbf, dBase III ). Only the table header and field descriptors
+ * are read when the file is opened, field values are decoded from the mapped file when they are asked for.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class DbfFile extends FileModel {
+
+/**
+ * stores the valid database file extension
+ *
+ */
+
+	public final String DBF_EXTENSION = ".dbf";
+
+/**
+ * The number of records in the table
+ *
+ */
+
+	public int numRecords;
+
+/**
+ * The length in bytes of the table header (the offset of the first record)
+ *
+ */
+
+	public int headerLength;
+
+/**
+ * The length in bytes of a record, including its one byte deletion flag
+ *
+ */
+
+	public int recordLength;
+
+/**
+ * The names of the fields
+ *
+ */
+
+	public String [] fieldNames;
+
+/**
+ * The dBase type character of each field (C, N, F, D, L, ...)
+ *
+ */
+
+	public char [] fieldTypes;
+
+/**
+ * The length in bytes of each field
+ *
+ */
+
+	public int [] fieldLengths;
+
+/**
+ * The offset in bytes of each field from the start of a record
+ *
+ */
+
+	public int [] fieldOffsets;
+
+/**
+ * Constructor that takes the address of the .dbf file
+ *
+ * @param dbf The file address of the database file
+ * @throws InvalidFileTypeException
+ * @throws FileNotFoundException
+ * @throws IOException
+ *
+ */
+
+	public DbfFile( String dbf ) throws InvalidFileTypeException, FileNotFoundException, IOException {
+
+		super( new FileInputStream[]{ new FileInputStream( dbf ) } );
+
+		verifyFileExt( dbf.trim(), DBF_EXTENSION );
+
+		writeFileMeta();
+	}
+
+	//A function to read the table header and field descriptors
+	private void writeFileMeta() throws IOException {
+
+		numRecords = getIntFrom( (short) 0, L_END, 4 );
+
+		headerLength = getShortFrom( (short) 0, L_END, 8 ) & 0xFFFF;
+
+		recordLength = getShortFrom( (short) 0, L_END, 10 ) & 0xFFFF;
+
+		int numFields = 0;
+
+		while( 32 + 32*numFields < headerLength && mapped_list[ 0 ].get( 32 + 32*numFields ) != 0x0D )
+
+			numFields++;
+
+		fieldNames = new String[ numFields ];
+
+		fieldTypes = new char[ numFields ];
+
+		fieldLengths = new int[ numFields ];
+
+		fieldOffsets = new int[ numFields ];
+
+		int offset = 1;
+
+		for( int f = 0; f < numFields; f++ ) {
+
+			int descriptor = 32 + 32*f;
+
+			fieldNames[ f ] = readString( descriptor, 11 );
+
+			fieldTypes[ f ] = (char) mapped_list[ 0 ].get( descriptor + 11 );
+
+			fieldLengths[ f ] = mapped_list[ 0 ].get( descriptor + 16 ) & 0xFF;
+
+			fieldOffsets[ f ] = offset;
+
+			offset += fieldLengths[ f ];
+		}
+
+	}
+
+/**
+ * Finds a field by name (case insensitive)
+ *
+ * @param name The name of the field
+ * @return The index of the field or -1 if there is no such field
+ *
+ */
+
+	public int fieldIndex( String name ) {
+
+		for( int f = 0; f < fieldNames.length; f++ ) {
+
+			if( fieldNames[ f ].equalsIgnoreCase( name ) )
+
+				return f;
+		}
+
+		return -1;
+	}
+
+/**
+ * Gets the offset of a field of a record in the file
+ *
+ * @param recordIndex The index of the record (starts at 0)
+ * @param fieldIndex The index of the field (starts at 0)
+ * @return The offset in bytes from the start of the file
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	private int valueOffset( int recordIndex, int fieldIndex ) throws RecordOutOfBoundsException {
+
+		if( recordIndex >= numRecords || recordIndex < 0 || fieldIndex >= fieldNames.length || fieldIndex < 0 )
+
+			throw new RecordOutOfBoundsException();
+
+		return headerLength + recordIndex*recordLength + fieldOffsets[ fieldIndex ];
+	}
+
+/**
+ * Gets the value of a field of a record as text with the padding removed
+ *
+ * @param recordIndex The index of the record (starts at 0)
+ * @param fieldIndex The index of the field (starts at 0)
+ * @return The value of the field
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public String getString( int recordIndex, int fieldIndex ) throws RecordOutOfBoundsException {
+
+		return readString( valueOffset( recordIndex, fieldIndex ), fieldLengths[ fieldIndex ] ).trim();
+	}
+
+/**
+ * Determines whether a record is flagged as deleted
+ *
+ * @param recordIndex The index of the record (starts at 0)
+ * @return True if the record is deleted
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public boolean isDeleted( int recordIndex ) throws RecordOutOfBoundsException {
+
+		return mapped_list[ 0 ].get( valueOffset( recordIndex, 0 ) - fieldOffsets[ 0 ] ) == '*';
+	}
+
+/**
+ * Reads text from the file up to a given length or the first null byte
+ *
+ * @param offset The offset in bytes from the start of the file
+ * @param length The maximum number of bytes to read
+ * @return The text
+ *
+ */
+
+	private String readString( int offset, int length ) {
+
+		byte [] b = new byte[ length ];
+
+		int n = 0;
+
+		while( n < length && mapped_list[ 0 ].get( offset + n ) != 0 ) {
+
+			b[ n ] = mapped_list[ 0 ].get( offset + n );
+
+			n++;
+		}
+
+		return new String( b, 0, n, StandardCharsets.ISO_8859_1 );
+	}
+
+}
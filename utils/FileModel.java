@@ -216,6 +216,29 @@ public class FileModel {
 		return mapped_list[ mbbIndex ].getShort( (int) offset );
 	} 
 	
+/**
+ * 
+ * Gets a big endian unsigned value of 1 to 4 bytes from a specified position in a file ( a 4 byte value is returned
+ * as it is stored, so values above Integer.MAX_VALUE come out negative )
+ * 
+ * @param mbbIndex The index of the random access file to query
+ * @param offset The offset (in bytes) in the file from the start of the file to begin read from
+ * @param length The length of the value in bytes
+ * @return The value at the specified offset
+ * 
+ */
+	
+	protected int getUnsignedFrom( short mbbIndex, long offset, int length ) {
+		
+		int value = 0;
+		
+		for( int b = 0; b < length; b++ )
+			
+			value = value << 8 | mapped_list[ mbbIndex ].get( (int) offset + b ) & 0xFF;
+		
+		return value;
+	}
+	
 /**
  * Gets either the Little or Big Endian integer from a specified position in one of the file input streams
  * 
@@ -309,9 +332,74 @@ public class FileModel {
 		raf_list[ rafIndex ].writeShort( value );	
 	}
 	
+/**
+ * Writes the lowest bytes of an integer, big endian, to a specified offset in a file
+ * 
+ * @param rafIndex The index associated with the random access file
+ * @param offset The offset in the file to write or overwrite
+ * @param value The value to write
+ * @param length The number of bytes to write ( 1 to 4 )
+ * @throws IOException
+ * 
+ */
+	
+	protected void putUnsignedAt( short rafIndex, long offset, int value, int length ) throws IOException {
+		
+		raf_list[ rafIndex ].seek( offset );
+		
+		for( int b = length - 1; b >= 0; b-- )
+			
+			raf_list[ rafIndex ].write( value >>> 8*b );
+	}
+
+/**
+ * Writes bytes to a specified offset in a file in a single write
+ * 
+ * @param rafIndex The index associated with the random access file
+ * @param offset The offset in the file to write or overwrite
+ * @param values The array holding the bytes to write
+ * @param length The number of bytes to write from the start of the array
+ * @throws IOException
+ * 
+ */
+	
+	protected void putBytesAt( short rafIndex, long offset, byte [] values, int length ) throws IOException {
+		
+		raf_list[ rafIndex ].seek( offset );
+		
+		raf_list[ rafIndex ].write( values, 0, length );
+	}
+	
 	protected long getFileLength() throws IOException {
 		return raf_list[0].length();
 	}
+	
+/**
+ * Flushes everything written to a random access file to the storage device
+ * 
+ * @param rafIndex The index associated with the random access file
+ * @throws IOException
+ * 
+ */
+	
+	protected void sync( short rafIndex ) throws IOException {
+		
+		raf_list[ rafIndex ].getChannel().force( true );
+	}
+	
+/**
+ * Cuts a random access file to a given length
+ * 
+ * @param rafIndex The index associated with the random access file
+ * @param length The new length of the file in bytes
+ * @throws IOException
+ * 
+ */
+	
+	protected void truncate( short rafIndex, long length ) throws IOException {
+		
+		raf_list[ rafIndex ].setLength( length );
+	}
 /**
  * A function to write an integer to a specified offset in a file output stream
  * 
@@ -500,6 +588,76 @@ public class FileModel {
 			putLongAt( rafIndex, offset + n*8, values[n] );
 	}
 	
+/**
+ * Gets the length of one of the mapped files
+ * 
+ * @param mbbIndex The index of the mapped file
+ * @return The length in bytes
+ * 
+ */
+	
+	public long mappedLength( short mbbIndex ) {
+		
+		return mapped_list[ mbbIndex ].capacity();
+	}
+	
+/**
+ * Computes a 64 bit hash (FNV-1a over 8 byte words) of the whole content of one of the mapped files
+ * 
+ * @param mbbIndex The index of the mapped file
+ * @return The hash of the file content
+ * 
+ */
+	
+	public long contentHash( short mbbIndex ) {
+		
+		return hash( mapped_list[ mbbIndex ], 0, mapped_list[ mbbIndex ].capacity() );
+	}
+	
+/**
+ * Computes the same hash as {@link #contentHash(short)} of a file which is not mapped, eg. one just written
+ * 
+ * @param fileName The path, name and extension of the file
+ * @return The hash of the file content
+ * @throws IOException
+ * 
+ */
+	
+	public static long contentHash( String fileName ) throws IOException {
+		
+		FileInputStream fis = new FileInputStream( new File( fileName ) );
+		
+		try {
+			
+			return hash( fis.getChannel().map( MapMode.READ_ONLY, 0, fis.getChannel().size() ), 0, (int) fis.getChannel().size() );
+		}
+		finally {
+			
+			fis.close();
+		}
+	}
+	
+	//A function to hash a range of bytes of a mapped file
+	protected static long hash( ByteBuffer buffer, int start, int end ) {
+		
+		//a duplicate has a fixed (big endian) byte order whatever order the shared buffer was last read in
+		ByteBuffer bytes = buffer.duplicate();
+		
+		long hash = 0xcbf29ce484222325L;
+		
+		int b = start;
+		
+		for( ; b + 8 <= end; b += 8 )
+			
+			hash = ( hash ^ bytes.getLong( b ) ) * 0x100000001b3L;
+		
+		for( ; b < end; b++ )
+			
+			hash = ( hash ^ ( bytes.get( b ) & 0xFF ) ) * 0x100000001b3L;
+		
+		return hash;
+	}
+	
 /**
  * Closes the file input streams and output streams managed by the object
  * 
@@ -0,0 +1,393 @@
+package utils;
+
+import java.io.*;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p>A class to model a packed R-tree of the record bounding boxes of a shapefile, built by sort-tile-recursive (STR)
+ * packing and saved in a sidecar file ( *.sidx ) next to the shapefile. The sidecar is memory mapped as separate
+ * arrays of floats and ints, so opening it costs nothing however many records the shapefile has. It is keyed by a hash
+ * of the .shp and .shx files and is rebuilt when they change.
+ *
+ * <p>Boxes are stored as floats rounded outwards, so a query returns every record whose box intersects the query box,
+ * and possibly records which miss it by less than the rounding; {@link ShapeFile#recordsInBox(double, double, double, double)}
+ * checks the candidates against the exact boxes of the records.
+ *
+ * <p>Sidecar layout (big endian):
+ * <pre>
+ *	int magic, int version, long shp hash, long shx hash, int number of records, int number of nodes
+ *	float [number of nodes] minimum latitudes
+ *	float [number of nodes] minimum longitudes
+ *	float [number of nodes] maximum latitudes
+ *	float [number of nodes] maximum longitudes
+ *	int [number of nodes] record index of a leaf entry, or index of the first child of a node
+ *	int [number of nodes] 0 for a leaf entry, or number of children of a node
+ * </pre>
+ * The leaf entries (one per record) come first, followed by every level of nodes up to the root, which is last.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class RecordIndex {
+
+/**
+ * The extension of the sidecar file
+ *
+ */
+
+	public static final String EXTENSION = ".sidx";
+
+/**
+ * The maximum number of children of a node
+ *
+ */
+
+	public static final int NODE_CAPACITY = 16;
+
+	private static final int MAGIC = 0x53494458;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_LENGTH = 32;
+
+	private int numRecords, numNodes;
+
+	private FloatBuffer minLat, minLon, maxLat, maxLon;
+
+	private IntBuffer child, count;
+
+/**
+ * Opens the index of a shapefile, building its sidecar file first if it is missing or was built from another
+ * version of the shapefile
+ *
+ * @param sf The shapefile
+ * @param fileName The path, name and extension of the sidecar file
+ * @return The index
+ * @throws IOException
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	public static RecordIndex open( ShapeFile sf, String fileName ) throws IOException, RecordOutOfBoundsException {
+
+		long shpHash = sf.fileHash( sf.SHP_EXTENSION ), shxHash = sf.fileHash( sf.SHX_EXTENSION );
+
+		File file = new File( fileName );
+
+		if( !current( file, shpHash, shxHash ) )
+
+			build( sf, file, shpHash, shxHash );
+
+		return new RecordIndex( file );
+	}
+
+	//A function to check that a sidecar file was built from the current shapefile
+	private static boolean current( File file, long shpHash, long shxHash ) throws IOException {
+
+		if( !file.exists() || file.length() < HEADER_LENGTH )
+
+			return false;
+
+		DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+
+		try {
+
+			return in.readInt() == MAGIC && in.readInt() == VERSION && in.readLong() == shpHash && in.readLong() == shxHash;
+		}
+		finally {
+
+			in.close();
+		}
+	}
+
+	//A function to round a bound down to a float
+	private static float floor( double value ) {
+
+		float f = (float) value;
+
+		return f > value ? Math.nextDown( f ) : f;
+	}
+
+	//A function to round a bound up to a float
+	private static float ceil( double value ) {
+
+		float f = (float) value;
+
+		return f < value ? Math.nextUp( f ) : f;
+	}
+
+/**
+ * Orders the entries of a level by sort-tile-recursive packing: the entries are sorted by the longitude of their
+ * center, cut into vertical slices of whole nodes and every slice is sorted by the latitude of its centers
+ *
+ * @param level The boxes of the entries ( minimum latitude, minimum longitude, maximum latitude, maximum longitude,
+ * 			child, count )
+ * @return The entries in packed order
+ *
+ */
+
+	private static float [][] pack( float [][] level ) {
+
+		int nodes = ( level.length + NODE_CAPACITY - 1 )/NODE_CAPACITY;
+
+		int sliceLength = (int) Math.ceil( Math.sqrt( nodes ) )*NODE_CAPACITY;
+
+		Arrays.sort( level, new Comparator<float[]>() {
+			@Override
+			public int compare( float[] box1, float[] box2 ) {
+
+				return Float.compare( box1[1] + box1[3], box2[1] + box2[3] );
+			}
+		});
+
+		for( int s = 0; s < level.length; s += sliceLength ) {
+
+			Arrays.sort( level, s, Math.min( level.length, s + sliceLength ), new Comparator<float[]>() {
+				@Override
+				public int compare( float[] box1, float[] box2 ) {
+
+					return Float.compare( box1[0] + box1[2], box2[0] + box2[2] );
+				}
+			});
+		}
+
+		return level;
+	}
+
+/**
+ * Writes the sidecar file of a shapefile. It is written to a temporary file of its own which is renamed once complete,
+ * so that builds running at the same time never read or write a partial sidecar.
+ *
+ * @param sf The shapefile
+ * @param file The sidecar file
+ * @param shpHash The hash of the .shp file
+ * @param shxHash The hash of the .shx file
+ * @throws IOException
+ * @throws RecordOutOfBoundsException
+ *
+ */
+
+	private static void build( ShapeFile sf, File file, long shpHash, long shxHash ) throws IOException, RecordOutOfBoundsException {
+
+		int recNum = sf.recordCount();
+
+		float [][] level = new float[ recNum ][];
+
+		for( int k = 0; k < recNum; k++ )
+
+			level[k] = new float[] { floor( sf.minLat(k) ), floor( sf.minLon(k) ), ceil( sf.maxLat(k) ), ceil( sf.maxLon(k) ), k, 0 };
+
+		ArrayList<float[]> nodes = new ArrayList<float[]>();
+
+		while( level.length > 0 ) {
+
+			pack( level );
+
+			int first = nodes.size();
+
+			nodes.addAll( Arrays.asList( level ) );
+
+			if( level.length == 1 )
+
+				break;
+
+			float [][] parents = new float[ ( level.length + NODE_CAPACITY - 1 )/NODE_CAPACITY ][];
+
+			for( int p = 0; p < parents.length; p++ ) {
+
+				int start = p*NODE_CAPACITY, end = Math.min( level.length, start + NODE_CAPACITY );
+
+				float [] parent = new float[] { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+												Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, first + start, end - start };
+
+				for( int e = start; e < end; e++ ) {
+
+					parent[0] = Math.min( parent[0], level[e][0] );
+
+					parent[1] = Math.min( parent[1], level[e][1] );
+
+					parent[2] = Math.max( parent[2], level[e][2] );
+
+					parent[3] = Math.max( parent[3], level[e][3] );
+				}
+
+				parents[p] = parent;
+			}
+
+			level = parents;
+		}
+
+		//entries are built as float arrays, their child and count are exact as floats below 2^24 entries
+		if( nodes.size() >= 1 << 24 )
+
+			throw new IOException( "Too many records for a record index: " + recNum );
+
+		File temp = File.createTempFile( file.getName(), ".tmp", file.getAbsoluteFile().getParentFile() );
+
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) );
+
+		try {
+
+			out.writeInt( MAGIC );
+
+			out.writeInt( VERSION );
+
+			out.writeLong( shpHash );
+
+			out.writeLong( shxHash );
+
+			out.writeInt( recNum );
+
+			out.writeInt( nodes.size() );
+
+			for( int c = 0; c < 4; c++ )
+
+				for( float [] node : nodes )
+
+					out.writeFloat( node[c] );
+
+			for( int c = 4; c < 6; c++ )
+
+				for( float [] node : nodes )
+
+					out.writeInt( (int) node[c] );
+		}
+		finally {
+
+			out.close();
+		}
+
+		Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+/**
+ * Constructor. Maps a sidecar file.
+ *
+ * @param file The sidecar file
+ * @throws IOException
+ *
+ */
+
+	private RecordIndex( File file ) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile( file, "r" );
+
+		try {
+
+			FileChannel channel = raf.getChannel();
+
+			raf.seek( 24 );
+
+			numRecords = raf.readInt();
+
+			numNodes = raf.readInt();
+
+			long length = numNodes*4L;
+
+			minLat = channel.map( MapMode.READ_ONLY, HEADER_LENGTH, length ).asFloatBuffer();
+
+			minLon = channel.map( MapMode.READ_ONLY, HEADER_LENGTH + length, length ).asFloatBuffer();
+
+			maxLat = channel.map( MapMode.READ_ONLY, HEADER_LENGTH + 2*length, length ).asFloatBuffer();
+
+			maxLon = channel.map( MapMode.READ_ONLY, HEADER_LENGTH + 3*length, length ).asFloatBuffer();
+
+			child = channel.map( MapMode.READ_ONLY, HEADER_LENGTH + 4*length, length ).asIntBuffer();
+
+			count = channel.map( MapMode.READ_ONLY, HEADER_LENGTH + 5*length, length ).asIntBuffer();
+		}
+		finally {
+
+			//the mappings stay valid once the channel is closed
+			raf.close();
+		}
+	}
+
+/**
+ * Gets the number of records of the shapefile
+ *
+ * @return The number of records
+ *
+ */
+
+	public int numberRecords() {
+
+		return numRecords;
+	}
+
+/**
+ * Finds the records whose bounding box may intersect a box (bounds included)
+ *
+ * @param minLatitude The minimum latitude of the box
+ * @param minLongitude The minimum longitude of the box
+ * @param maxLatitude The maximum latitude of the box
+ * @param maxLongitude The maximum longitude of the box
+ * @param records The list the indexes of the records are added to (in no particular order)
+ *
+ */
+
+	public void query( double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, ArrayList<Integer> records ) {
+
+		if( numNodes == 0 )
+
+			return;
+
+		float south = floor( minLatitude ), west = floor( minLongitude ), north = ceil( maxLatitude ), east = ceil( maxLongitude );
+
+		int [] stack = new int[ 64 ];
+
+		int top = 0;
+
+		stack[ top++ ] = numNodes - 1;
+
+		while( top > 0 ) {
+
+			int node = stack[ --top ];
+
+			if( minLat.get( node ) > north || maxLat.get( node ) < south || minLon.get( node ) > east || maxLon.get( node ) < west )
+
+				continue;
+
+			int children = count.get( node );
+
+			if( children == 0 ) {
+
+				records.add( child.get( node ) );
+
+				continue;
+			}
+
+			if( top + children > stack.length )
+
+				stack = Arrays.copyOf( stack, Math.max( stack.length*2, top + children ) );
+
+			for( int c = child.get( node ) + children - 1; c >= child.get( node ); c-- )
+
+				stack[ top++ ] = c;
+		}
+	}
+
+/**
+ * Finds the records whose bounding box may intersect a band of latitude (bounds included)
+ *
+ * @param minLatitude The minimum latitude of the band
+ * @param maxLatitude The maximum latitude of the band
+ * @param records The list the indexes of the records are added to (in no particular order)
+ *
+ */
+
+	public void query( double minLatitude, double maxLatitude, ArrayList<Integer> records ) {
+
+		query( minLatitude, Double.NEGATIVE_INFINITY, maxLatitude, Double.POSITIVE_INFINITY, records );
+	}
+
+}
@@ -1,5 +1,8 @@
 package utils;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 
 
 public class ShapeFile extends FileModel {
@@ -81,6 +84,20 @@ public class ShapeFile extends FileModel {
 
 	public double lonMax;
 	
+/**
+ * The path, name and extension of the record index sidecar file
+ * 
+ */
+	
+	private String indexName;
+	
+/**
+ * The record index, opened on first use
+ * 
+ */
+	
+	private RecordIndex recordIndex;
+	
 /**
  * Takes the names of the associated .shp, .shx, and .dbf files separately. It is important to
  * pass in the appropriately associated files to ensure the proper functioning of this object. This
@@ -115,6 +132,8 @@ public class ShapeFile extends FileModel {
 		
 		writeFileMeta();
 		
+		indexName = shp.trim().substring( 0, shp.trim().length() - SHP_EXTENSION.length() ) + RecordIndex.EXTENSION;
+		
 	}
 	
 /**
@@ -360,6 +379,68 @@ public class ShapeFile extends FileModel {
 		
 	} 
 	
+/**
+ * Gets the latitude and longitude of a point of a record part at full (double) precision
+ * 
+ * @param recordIndex The index of the record (starts at 0)
+ * @param partIndex The index of the part (starts at 0)
+ * @param pointIndex The index of the point (starts at 0)
+ * @return Two part double array containing the latitude of the point in the first part and the longitude in the second
+ * @throws RecordOutOfBoundsException Invalid recordIndex, partIndex, and/or pointIndex argument(s) supplied
+ * @throws IOException
+ * 
+ */
+	
+	public double [] getLatLonDouble(int recordIndex, int partIndex, int pointIndex) throws RecordOutOfBoundsException, IOException {
+		
+		_vPointOffset(recordIndex, partIndex, pointIndex);
+		
+		recOff = partOffset( recordIndex, partIndex );
+		
+		recOff += pointIndex*16;
+		
+		return new double[]{
+				
+				getDoubleFrom( fileIndex(  SHP_EXTENSION ), L_END, recOff + 8 ),
+				
+				getDoubleFrom( fileIndex(  SHP_EXTENSION ), L_END, recOff )
+				
+				};
+	}
+	
+/**
+ * Computes a 64 bit hash (FNV-1a over 8 byte words) of the geometry of a record, ie. of the record content
+ * following the record header in the .shp file
+ *
+ * @param recordIndex The index of the record (starts at 0)
+ * @return The hash of the record geometry
+ * @throws RecordOutOfBoundsException
+ * @throws IOException
+ *
+ */
+
+	public long geometryHash(int recordIndex) throws RecordOutOfBoundsException, IOException {
+
+		int start = recordOffset( recordIndex ) + 8;
+
+		return hash( mapped_list[ fileIndex( SHP_EXTENSION ) ], start, start + recordLength( recordIndex )*2 );
+	}
+
+/**
+ * Computes a 64 bit hash (FNV-1a over 8 byte words) of the whole content of one of the files of the shapefile
+ *
+ * @param extension The extension of the file (SHP_EXTENSION, SHX_EXTENSION or DBF_EXTENSION)
+ * @return The hash of the file content
+ *
+ */
+
+	public long fileHash(String extension) {
+
+		ByteBuffer file = mapped_list[ fileIndex( extension ) ];
+
+		return hash( file, 0, file.capacity() );
+	}
+
 /**
  * Gets the minimum latitude extreme for a given record
  * 
@@ -420,4 +501,71 @@ public class ShapeFile extends FileModel {
 		return getCoorExtrema(recordIndex, 16);
 	}
 	
+/**
+ * Gets the record index of the shapefile, opening its sidecar file ( *.sidx ) on first use and building it if it is
+ * missing or out of date
+ * 
+ * @return The record index
+ * @throws RecordOutOfBoundsException
+ * @throws IOException
+ * 
+ */
+	
+	public synchronized RecordIndex recordIndex() throws RecordOutOfBoundsException, IOException {
+		
+		if( recordIndex == null )
+			
+			recordIndex = RecordIndex.open( this, indexName );
+		
+		return recordIndex;
+	}
+	
+/**
+ * Finds the records whose bounding box intersects a box (bounds included) through the record index
+ * 
+ * @param minLatitude The minimum latitude of the box
+ * @param minLongitude The minimum longitude of the box
+ * @param maxLatitude The maximum latitude of the box
+ * @param maxLongitude The maximum longitude of the box
+ * @return The indexes of the records in increasing order
+ * @throws RecordOutOfBoundsException
+ * @throws IOException
+ * 
+ */
+	
+	public ArrayList<Integer> recordsInBox( double minLatitude, double minLongitude, double maxLatitude, double maxLongitude ) throws RecordOutOfBoundsException, IOException {
+		
+		ArrayList<Integer> candidates = new ArrayList<Integer>(), records = new ArrayList<Integer>();
+		
+		recordIndex().query( minLatitude, minLongitude, maxLatitude, maxLongitude, candidates );
+		
+		//the index boxes are rounded outwards to floats, the exact boxes settle the candidates on the edge
+		for( Integer r : candidates ) {
+			
+			if( minLat( r ) <= maxLatitude && maxLat( r ) >= minLatitude && minLon( r ) <= maxLongitude && maxLon( r ) >= minLongitude )
+				
+				records.add( r );
+		}
+		
+		Collections.sort( records );
+		
+		return records;
+	}
+	
+/**
+ * Finds the records whose bounding box intersects a band of latitude (bounds included) through the record index
+ * 
+ * @param minLatitude The minimum latitude of the band
+ * @param maxLatitude The maximum latitude of the band
+ * @return The indexes of the records in increasing order
+ * @throws RecordOutOfBoundsException
+ * @throws IOException
+ * 
+ */
+	
+	public ArrayList<Integer> recordsInBand( double minLatitude, double maxLatitude ) throws RecordOutOfBoundsException, IOException {
+		
+		return recordsInBox( minLatitude, Double.NEGATIVE_INFINITY, maxLatitude, Double.POSITIVE_INFINITY );
+	}
+	
 }
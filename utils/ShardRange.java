@@ -0,0 +1,137 @@
+package utils;
+
+import java.io.*;
+
+/**
+ * A class to model the range of lines rasterized in the shard of a build (see the --shard build option). The range is
+ * saved in a sidecar file next to the .pgrd file once its build is complete, and copied next to the .min.pgrd file
+ * compressed from it, so that joining shards can check that every line was built in exactly one of them.
+ *
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class ShardRange {
+
+/**
+ * The extension appended to the name of the file of the shard to name its sidecar
+ *
+ */
+
+	public static final String EXTENSION = ".shard";
+
+	private static final int MAGIC = 0x50475352;
+
+/**
+ * The number of lines of the file
+ *
+ */
+
+	public int NUMBER_LINES;
+
+/**
+ * The index of the first line rasterized in the shard
+ *
+ */
+
+	public int FIRST_LINE;
+
+/**
+ * The index following the last line rasterized in the shard
+ *
+ */
+
+	public int END_LINE;
+
+/**
+ * Constructor
+ *
+ * @param numLines The number of lines of the file
+ * @param first The index of the first line rasterized in the shard
+ * @param end The index following the last line rasterized in the shard
+ *
+ */
+
+	public ShardRange( int numLines, int first, int end ) {
+
+		NUMBER_LINES = numLines;
+
+		FIRST_LINE = Math.max( 0, Math.min( first, numLines ) );
+
+		END_LINE = Math.max( FIRST_LINE, Math.min( end, numLines ) );
+	}
+
+/**
+ * Reads the range of a shard
+ *
+ * @param fileName The path, name and extension of the sidecar file
+ * @return The range or null if there is no sidecar file
+ * @throws IOException if the sidecar file is not a valid range
+ *
+ */
+
+	public static ShardRange read( String fileName ) throws IOException {
+
+		File file = new File( fileName );
+
+		if( !file.exists() )
+
+			return null;
+
+		DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+
+		try {
+
+			if( in.readInt() != MAGIC )
+
+				throw new IOException( "Invalid shard range file " + fileName );
+
+			return new ShardRange( in.readInt(), in.readInt(), in.readInt() );
+		}
+		finally {
+
+			in.close();
+		}
+	}
+
+/**
+ * Saves the range
+ *
+ * @param fileName The path, name and extension of the sidecar file
+ * @throws IOException
+ *
+ */
+
+	public void write( String fileName ) throws IOException {
+
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fileName ) ) );
+
+		try {
+
+			out.writeInt( MAGIC );
+
+			out.writeInt( NUMBER_LINES );
+
+			out.writeInt( FIRST_LINE );
+
+			out.writeInt( END_LINE );
+		}
+		finally {
+
+			out.close();
+		}
+	}
+
+/**
+ * Removes a sidecar file
+ *
+ * @param fileName The path, name and extension of the sidecar file
+ *
+ */
+
+	public static void delete( String fileName ) {
+
+		new File( fileName ).delete();
+	}
+
+}
@@ -5,7 +5,7 @@ public abstract class ShortOverflow {
 
 	public static int overflowIndex( int num ) {
 		
-		return (int) num/(MAX_SIGNED_SHORT+1);
+		return (int) num/MAX_SIGNED_SHORT;
 	}
 	
 	public static int overflowValue( int num ) {
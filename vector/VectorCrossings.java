@@ -0,0 +1,98 @@
+package vector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+import converter.CrossingKernel;
+import converter.EdgeTable;
+import converter.EqualLatitudePointPlace;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link CrossingKernel} testing as many edges at a time as the preferred SIMD vector of the processor holds floats.
+ * The straddle test and the intersection longitude are computed in every lane with a multiply and an add (never
+ * fused, so the results are those of the scalar kernel); the flags of the few crossing edges are then checked one by
+ * one.
+ * 
+ * This class needs the jdk.incubator.vector module ( --add-modules jdk.incubator.vector ) to compile and run; it is
+ * loaded by name by {@link EdgeTable#newKernel()}, which falls back to the scalar kernel without it.
+ * 
+ * @author Glazer, Joshua D.
+ *
+ */
+
+public class VectorCrossings implements CrossingKernel {
+	
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+	
+	//the intersection longitudes of the lanes of a vector
+	private float [] lanes = new float[ SPECIES.length() ];
+	
+	@Override
+	public String name() {
+		
+		return "vector (" + SPECIES.length() + " lanes)";
+	}
+	
+	@Override
+	public void crossings( EdgeTable edges, int first, int end, float latitude, ArrayList<Float> intersects ) {
+		
+		ByteBuffer startLat = edges.floats( EdgeTable.START_LATITUDE ), startLon = edges.floats( EdgeTable.START_LONGITUDE ),
+				   endLat = edges.floats( EdgeTable.END_LATITUDE ), slope = edges.floats( EdgeTable.SLOPE ), flags = edges.flags();
+		
+		FloatVector line = FloatVector.broadcast( SPECIES, latitude );
+		
+		int e = first, bound = first + SPECIES.loopBound( end - first );
+		
+		for( ; e < bound; e += SPECIES.length() ) {
+			
+			FloatVector mLat = FloatVector.fromByteBuffer( SPECIES, startLat, e*4, ByteOrder.BIG_ENDIAN ),
+						eLat = FloatVector.fromByteBuffer( SPECIES, endLat, e*4, ByteOrder.BIG_ENDIAN );
+			
+			VectorMask<Float> crossing = mLat.compare( VectorOperators.GE, line ).and( eLat.compare( VectorOperators.LT, line ) )
+										.or( mLat.compare( VectorOperators.LE, line ).and( eLat.compare( VectorOperators.GT, line ) ) );
+			
+			if( !crossing.anyTrue() )
+				
+				continue;
+			
+			FloatVector.fromByteBuffer( SPECIES, slope, e*4, ByteOrder.BIG_ENDIAN ).mul( line.sub( mLat ) )
+					   .add( FloatVector.fromByteBuffer( SPECIES, startLon, e*4, ByteOrder.BIG_ENDIAN ) ).intoArray( lanes, 0 );
+			
+			for( long bits = crossing.toLong(); bits != 0; bits &= bits - 1 ) {
+				
+				int lane = Long.numberOfTrailingZeros( bits ), edge = e + lane;
+				
+				byte flag = flags.get( edge );
+				
+				float il = flag == 0 ? lanes[ lane ] : EdgeTable.intersection( flag, latitude, startLat.getFloat( edge*4 ), startLon.getFloat( edge*4 ), slope.getFloat( edge*4 ) );
+				
+				if( EqualLatitudePointPlace.validLon( il ) )
+					
+					intersects.add( Float.valueOf( il ) );
+			}
+		}
+		
+		//the edges left over a whole number of vectors
+		for( ; e < end; e++ ) {
+			
+			float mLat = startLat.getFloat( e*4 );
+			
+			if( !EdgeTable.crosses( mLat, endLat.getFloat( e*4 ), latitude ) )
+				
+				continue;
+			
+			float il = EdgeTable.intersection( flags.get( e ), latitude, mLat, startLon.getFloat( e*4 ), slope.getFloat( e*4 ) );
+			
+			if( EqualLatitudePointPlace.validLon( il ) )
+				
+				intersects.add( Float.valueOf( il ) );
+		}
+	}
+
+}